@@ -0,0 +1,143 @@
+#!/usr/bin/env python3
+#
+# ConnectBot: simple, powerful, open-source SSH client for Android
+# Copyright 2007 Kenny Root, Jeffrey Sharkey
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Generates src/org/connectbot/util/EastAsianWidthTable.java, the pure-Java
+# counterpart of the ICU lookup done in org_connectbot_util_EastAsianWidth.c.
+#
+# Usage: mktable.py [EastAsianWidth.txt] > EastAsianWidthTable.java
+#
+# Without an argument the East_Asian_Width property of the Python unicodedata
+# module is used instead of the Unicode Character Database file.
+
+import sys
+
+NARROW, WIDE, AMBIGUOUS = 0, 1, 2
+
+CLASSES = {
+    'N': NARROW, 'Na': NARROW, 'H': NARROW,
+    'W': WIDE, 'F': WIDE,
+    'A': AMBIGUOUS,
+}
+
+BLOCK_BITS = 8
+BLOCK_SIZE = 1 << BLOCK_BITS
+ENTRY_BITS = 2
+PER_INT = 32 // ENTRY_BITS
+
+
+def load_ucd(path):
+    widths = [NARROW] * 0x10000
+    version = None
+    with open(path) as f:
+        for line in f:
+            if version is None and line.startswith('# EastAsianWidth-'):
+                version = line[len('# EastAsianWidth-'):].split('.txt')[0]
+            line = line.split('#')[0].strip()
+            if not line:
+                continue
+            cps, prop = [x.strip() for x in line.split(';')]
+            if '..' in cps:
+                first, last = [int(x, 16) for x in cps.split('..')]
+            else:
+                first = last = int(cps, 16)
+            for cp in range(first, min(last, 0xffff) + 1):
+                widths[cp] = CLASSES[prop]
+    return widths, version or 'unknown'
+
+
+def load_unicodedata():
+    import unicodedata
+    widths = [CLASSES[unicodedata.east_asian_width(chr(cp))]
+              for cp in range(0x10000)]
+    return widths, unicodedata.unidata_version
+
+
+def main():
+    if len(sys.argv) > 1:
+        widths, version = load_ucd(sys.argv[1])
+    else:
+        widths, version = load_unicodedata()
+
+    # Surrogates never get measured on their own, so call them narrow.
+    # Private use keeps whatever class the UCD gives it (ambiguous).
+    for cp in range(0xd800, 0xe000):
+        widths[cp] = NARROW
+
+    blocks = []
+    index = []
+    for base in range(0, 0x10000, BLOCK_SIZE):
+        packed = []
+        for word in range(base, base + BLOCK_SIZE, PER_INT):
+            value = 0
+            for i in range(PER_INT):
+                value |= widths[word + i] << (i * ENTRY_BITS)
+            packed.append(value)
+        packed = tuple(packed)
+        if packed not in blocks:
+            blocks.append(packed)
+        index.append(blocks.index(packed))
+
+    assert len(blocks) <= 256
+
+    out = sys.stdout
+    out.write(HEADER % {'version': version})
+    out.write('\tstatic final byte[] INDEX = {\n')
+    for i in range(0, len(index), 16):
+        out.write('\t\t' + ' '.join('%d,' % x for x in index[i:i + 16]) + '\n')
+    out.write('\t};\n\n')
+    out.write('\tstatic final int[] DATA = {\n')
+    for block in blocks:
+        for i in range(0, len(block), 8):
+            words = block[i:i + 8]
+            out.write('\t\t' + ' '.join('0x%08x,' % w for w in words) + '\n')
+    out.write('\t};\n}\n')
+
+
+HEADER = '''/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* Generated by jni/EastAsianWidth/mktable.py from Unicode %(version)s; do not edit. */
+
+package org.connectbot.util;
+
+/**
+ * Two-level East Asian Width lookup table for the Basic Multilingual Plane.
+ * The high byte of a character selects a block through {@link #INDEX}; each
+ * block is 16 ints in {@link #DATA} holding 2 bits per character.
+ */
+final class EastAsianWidthTable {
+	private EastAsianWidthTable() {
+	}
+
+'''
+
+if __name__ == '__main__':
+    main()
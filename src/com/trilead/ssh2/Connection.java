@@ -104,6 +104,8 @@ public class Connection
 
 	private boolean tcpNoDelay = false;
 
+	private int sendCoalescingDelay = 0;
+
 	private ProxyData proxyData = null;
 
 	private Vector<ConnectionMonitor> connectionMonitors = new Vector<ConnectionMonitor>();
@@ -810,6 +812,7 @@ public class Connection
 			}
 
 			tm.setTcpNoDelay(tcpNoDelay);
+			tm.setSendCoalescing(sendCoalescingDelay);
 
 			/* Wait until first KEX has finished */
 
@@ -1086,6 +1089,21 @@ public class Connection
 		return tm.getConnectionInfo(1);
 	}
 
+	/**
+	 * Returns how many messages of each type were received on this connection
+	 * so far, for diagnostics.
+	 * 
+	 * @return a copy of the counters indexed by message type, or
+	 *         <code>null</code> if {@link #connect() connect()} was not
+	 *         called yet
+	 */
+	public synchronized int[] getReceivedMessageCounts()
+	{
+		if (tm == null)
+			return null;
+		return tm.getReceivedMessageCounts();
+	}
+
 	/**
 	 * After a successful connect, one has to authenticate oneself. This method
 	 * can be used to tell which authentication methods are supported by the
@@ -1426,6 +1444,32 @@ public class Connection
 			tm.setTcpNoDelay(enable);
 	}
 
+	/**
+	 * Combine messages sent in quick succession, like a paste typed out
+	 * key by key, into fewer socket writes and TCP segments. A message is
+	 * held back only if another one was written less than <code>delay</code>
+	 * milliseconds ago, and never for longer than that, so a single
+	 * keystroke is sent at once. Best used together with
+	 * {@link #setTCPNoDelay(boolean) TCP_NODELAY}, so the kernel does not
+	 * hold the coalesced writes back any further.
+	 * <p>
+	 * Can be called at any time. The default is <code>0</code>, every
+	 * message is written as soon as it is sent.
+	 * 
+	 * @param delay
+	 *            the longest a message may wait, in milliseconds
+	 */
+	public synchronized void setSendCoalescing(int delay)
+	{
+		if (delay < 0)
+			throw new IllegalArgumentException("delay must not be negative");
+
+		sendCoalescingDelay = delay;
+
+		if (tm != null)
+			tm.setSendCoalescing(delay);
+	}
+
 	/**
 	 * Used to tell the library that the connection shall be established through
 	 * a proxy server. It only makes sense to call this method before calling
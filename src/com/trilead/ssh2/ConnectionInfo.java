@@ -27,12 +27,14 @@ public class ConnectionInfo
 
 	/**
 	 * The currently used MAC algorithm for packets from to the client to the
-	 * server.
+	 * server, "&lt;implicit&gt;" for ciphers that authenticate the packets
+	 * themselves.
 	 */
 	public String clientToServerMACAlgorithm;
 	/**
 	 * The currently used MAC algorithm for packets from to the server to the
-	 * client.
+	 * client, "&lt;implicit&gt;" for ciphers that authenticate the packets
+	 * themselves.
 	 */
 	public String serverToClientMACAlgorithm;
 
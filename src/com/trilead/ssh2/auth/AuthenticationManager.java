@@ -400,7 +400,7 @@ e.printStackTrace();
 		}
 	}
 
-	public void handleMessage(byte[] msg, int msglen) throws IOException
+	public void handleMessage(byte[] msg, int off, int msglen) throws IOException
 	{
 		synchronized (packets)
 		{
@@ -411,7 +411,7 @@ e.printStackTrace();
 			else
 			{
 				byte[] tmp = new byte[msglen];
-				System.arraycopy(msg, 0, tmp, 0, msglen);
+				System.arraycopy(msg, off, tmp, 0, msglen);
 				packets.addElement(tmp);
 			}
 
@@ -873,14 +873,17 @@ public class ChannelManager implements MessageHandler
 		}
 	}
 
-	public void msgChannelExtendedData(byte[] msg, int msglen) throws IOException
+	public void msgChannelExtendedData(byte[] msg, int off, int msglen) throws IOException
 	{
 		if (msglen <= 13)
 			throw new IOException("SSH_MSG_CHANNEL_EXTENDED_DATA message has wrong size (" + msglen + ")");
 
-		int id = ((msg[1] & 0xff) << 24) | ((msg[2] & 0xff) << 16) | ((msg[3] & 0xff) << 8) | (msg[4] & 0xff);
-		int dataType = ((msg[5] & 0xff) << 24) | ((msg[6] & 0xff) << 16) | ((msg[7] & 0xff) << 8) | (msg[8] & 0xff);
-		int len = ((msg[9] & 0xff) << 24) | ((msg[10] & 0xff) << 16) | ((msg[11] & 0xff) << 8) | (msg[12] & 0xff);
+		int id = ((msg[off + 1] & 0xff) << 24) | ((msg[off + 2] & 0xff) << 16) | ((msg[off + 3] & 0xff) << 8)
+				| (msg[off + 4] & 0xff);
+		int dataType = ((msg[off + 5] & 0xff) << 24) | ((msg[off + 6] & 0xff) << 16) | ((msg[off + 7] & 0xff) << 8)
+				| (msg[off + 8] & 0xff);
+		int len = ((msg[off + 9] & 0xff) << 24) | ((msg[off + 10] & 0xff) << 16) | ((msg[off + 11] & 0xff) << 8)
+				| (msg[off + 12] & 0xff);
 
 		Channel c = getChannel(id);
 
@@ -911,7 +914,7 @@ public class ChannelManager implements MessageHandler
 
 			c.localWindow -= len;
 
-			System.arraycopy(msg, 13, c.stderrBuffer, c.stderrWritepos, len);
+			System.arraycopy(msg, off + 13, c.stderrBuffer, c.stderrWritepos, len);
 			c.stderrWritepos += len;
 
 			c.notifyAll();
@@ -1132,13 +1135,15 @@ public class ChannelManager implements MessageHandler
 		return copylen;
 	}
 
-	public void msgChannelData(byte[] msg, int msglen) throws IOException
+	public void msgChannelData(byte[] msg, int off, int msglen) throws IOException
 	{
 		if (msglen <= 9)
 			throw new IOException("SSH_MSG_CHANNEL_DATA message has wrong size (" + msglen + ")");
 
-		int id = ((msg[1] & 0xff) << 24) | ((msg[2] & 0xff) << 16) | ((msg[3] & 0xff) << 8) | (msg[4] & 0xff);
-		int len = ((msg[5] & 0xff) << 24) | ((msg[6] & 0xff) << 16) | ((msg[7] & 0xff) << 8) | (msg[8] & 0xff);
+		int id = ((msg[off + 1] & 0xff) << 24) | ((msg[off + 2] & 0xff) << 16) | ((msg[off + 3] & 0xff) << 8)
+				| (msg[off + 4] & 0xff);
+		int len = ((msg[off + 5] & 0xff) << 24) | ((msg[off + 6] & 0xff) << 16) | ((msg[off + 7] & 0xff) << 8)
+				| (msg[off + 8] & 0xff);
 
 		Channel c = getChannel(id);
 
@@ -1165,7 +1170,7 @@ public class ChannelManager implements MessageHandler
 
 			c.localWindow -= len;
 
-			System.arraycopy(msg, 9, c.stdoutBuffer, c.stdoutWritepos, len);
+			System.arraycopy(msg, off + 9, c.stdoutBuffer, c.stdoutWritepos, len);
 			c.stdoutWritepos += len;
 
 			c.notifyAll();
@@ -1659,7 +1664,7 @@ public class ChannelManager implements MessageHandler
 			log.log(80, "Got SSH_MSG_REQUEST_FAILURE");
 	}
 
-	public void handleMessage(byte[] msg, int msglen) throws IOException
+	public void handleMessage(byte[] msg, int off, int msglen) throws IOException
 	{
 		if (msg == null)
 		{
@@ -1705,6 +1710,29 @@ public class ChannelManager implements MessageHandler
 			}
 		}
 
+		/* Channel data goes straight from the packet buffer into the channel */
+
+		if (msg[off] == Packets.SSH_MSG_CHANNEL_DATA)
+		{
+			msgChannelData(msg, off, msglen);
+			return;
+		}
+
+		if (msg[off] == Packets.SSH_MSG_CHANNEL_EXTENDED_DATA)
+		{
+			msgChannelExtendedData(msg, off, msglen);
+			return;
+		}
+
+		/* The rest is rare enough to be copied, some of it is kept anyway */
+
+		if (off != 0)
+		{
+			byte[] tmp = new byte[msglen];
+			System.arraycopy(msg, off, tmp, 0, msglen);
+			msg = tmp;
+		}
+
 		switch (msg[0])
 		{
 		case Packets.SSH_MSG_CHANNEL_OPEN_CONFIRMATION:
@@ -1713,12 +1741,6 @@ public class ChannelManager implements MessageHandler
 		case Packets.SSH_MSG_CHANNEL_WINDOW_ADJUST:
 			msgChannelWindowAdjust(msg, msglen);
 			break;
-		case Packets.SSH_MSG_CHANNEL_DATA:
-			msgChannelData(msg, msglen);
-			break;
-		case Packets.SSH_MSG_CHANNEL_EXTENDED_DATA:
-			msgChannelExtendedData(msg, msglen);
-			break;
 		case Packets.SSH_MSG_CHANNEL_REQUEST:
 			msgChannelRequest(msg, msglen);
 			break;
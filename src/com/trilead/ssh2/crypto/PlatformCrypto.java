@@ -0,0 +1,32 @@
+package com.trilead.ssh2.crypto;
+
+/**
+ * PlatformCrypto. Decides whether ciphers and MACs may come from the
+ * platform's JCE providers instead of the bundled pure Java classes. The
+ * platform implementations are often native or use the CPU's crypto
+ * instructions, so they are preferred whenever they pass a check against
+ * the bundled implementation; see
+ * {@link com.trilead.ssh2.crypto.cipher.JceBlockCipher} and
+ * {@link com.trilead.ssh2.crypto.digest.JceHMAC}.
+ */
+public class PlatformCrypto
+{
+	private static volatile boolean enabled = true;
+
+	/**
+	 * @return whether new ciphers and MACs should try the platform first
+	 */
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Allow or forbid platform implementations for ciphers and MACs created
+	 * from now on. Connections that are already up keep what they have.
+	 */
+	public static void setEnabled(boolean enabled)
+	{
+		PlatformCrypto.enabled = enabled;
+	}
+}
@@ -0,0 +1,59 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+
+/**
+ * AEADCipher. A cipher that encrypts and authenticates a whole packet in one
+ * go, taking the place of both the {@link BlockCipher} and the MAC.
+ * <p>
+ * The four byte packet length is handled apart from the rest of the packet:
+ * AES-GCM sends it in the clear and authenticates it as associated data,
+ * ChaCha20-Poly1305 encrypts it with a key of its own. Either way the receiver
+ * can learn the length before the rest of the packet has arrived, and
+ * padding is computed without the length field.
+ */
+public interface AEADCipher
+{
+	/**
+	 * @return the multiple that padding length, payload and padding together
+	 *         are padded to
+	 */
+	public int getBlockSize();
+
+	/**
+	 * @return the number of bytes the tag adds after the packet
+	 */
+	public int getTagSize();
+
+	/**
+	 * Encrypt a packet in place and write its tag right after it.
+	 *
+	 * @param seq sequence number of the packet
+	 * @param packet holds the packet length at <code>off</code>, followed by
+	 *            <code>len</code> bytes of padding length, payload and padding
+	 * @param off start of the packet length
+	 * @param len length of the packet without the length field
+	 */
+	public void encryptPacket(int seq, byte[] packet, int off, int len);
+
+	/**
+	 * Find the length of a packet from its first four bytes. The buffer is
+	 * left alone since the tag covers the length as it was sent.
+	 *
+	 * @param seq sequence number of the packet
+	 * @return the packet length
+	 */
+	public int decryptLength(int seq, byte[] packet, int off);
+
+	/**
+	 * Check the tag of a packet and decrypt it in place, except for the length
+	 * field.
+	 *
+	 * @param seq sequence number of the packet
+	 * @param packet holds the packet as received, tag included
+	 * @param off start of the packet length
+	 * @param len length of the packet without the length field and the tag
+	 * @throws IOException if the tag does not match
+	 */
+	public void decryptPacket(int seq, byte[] packet, int off, int len) throws IOException;
+}
@@ -695,4 +695,10 @@ public class AES implements BlockCipher
 	{
 		processBlock(src, srcoff, dst, dstoff);
 	}
+
+	public void transform(byte[] src, int srcoff, byte[] dst, int dstoff, int len)
+	{
+		for (int i = 0; i < len; i += BLOCK_SIZE)
+			processBlock(src, srcoff + i, dst, dstoff + i);
+	}
 }
@@ -0,0 +1,270 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+
+/**
+ * AESGCM. AES in Galois/Counter Mode (NIST SP 800-38D) as used by
+ * aes128-gcm@openssh.com and aes256-gcm@openssh.com (RFC 5647).
+ * <p>
+ * The 12 byte nonce is a fixed field of four bytes followed by a 64 bit
+ * invocation counter, both taken from the IV of the key exchange. The counter
+ * goes up by one for every packet. The packet length is sent in the clear and
+ * authenticated as associated data, the rest of the packet is encrypted with
+ * the counter blocks that follow the one that masks the tag.
+ * <p>
+ * GHASH multiplies by H with Shoup's method: a table of the sixteen
+ * multiples of H by a four bit value, one lookup per nibble.
+ */
+public class AESGCM implements AEADCipher
+{
+	private static final int BLOCK_SIZE = 16;
+
+	private static final int TAG_SIZE = 16;
+
+	/** Number of blocks of keystream generated in one go. */
+	private static final int KEYSTREAM_BLOCKS = 64;
+
+	/** Reduction of the four bits shifted out of a 128 bit value. */
+	private static final long[] LAST4 = { 0x0000L << 48, 0x1c20L << 48, 0x3840L << 48, 0x2460L << 48,
+			0x7080L << 48, 0x6ca0L << 48, 0x48c0L << 48, 0x54e0L << 48, 0xe100L << 48, 0xfd20L << 48,
+			0xd940L << 48, 0xc560L << 48, 0x9180L << 48, 0x8da0L << 48, 0xa9c0L << 48, 0xb5e0L << 48 };
+
+	private final BlockCipher aes = new FastAES();
+
+	/* multiples of H, high and low halves */
+	private final long[] hh = new long[16];
+	private final long[] hl = new long[16];
+
+	/* the GHASH accumulator */
+	private long yh;
+	private long yl;
+
+	private final byte[] fixed = new byte[4];
+	private long invocation;
+	private final byte[] nonce = new byte[12];
+
+	private final byte[] counters = new byte[BLOCK_SIZE * KEYSTREAM_BLOCKS];
+	private final byte[] keystream = new byte[BLOCK_SIZE * KEYSTREAM_BLOCKS];
+
+	/* E(K, J0), which masks the tag, and the tag of the current packet */
+	private final byte[] tagMask = new byte[BLOCK_SIZE];
+	private final byte[] tag = new byte[TAG_SIZE];
+
+	public AESGCM(byte[] key, byte[] iv)
+	{
+		if (iv.length != 12)
+			throw new IllegalArgumentException("IV must be 12 bytes long! (currently " + iv.length + ")");
+
+		aes.init(true, key);
+
+		System.arraycopy(iv, 0, fixed, 0, 4);
+		invocation = readLong(iv, 4);
+
+		byte[] h = new byte[BLOCK_SIZE];
+		aes.transformBlock(h, 0, h, 0);
+
+		long vh = readLong(h, 0);
+		long vl = readLong(h, 8);
+
+		/* the nibble 1000 stands for H itself, each shift right halves it */
+		hh[8] = vh;
+		hl[8] = vl;
+		for (int i = 4; i > 0; i >>= 1)
+		{
+			long carry = (vl & 1) != 0 ? 0xe100000000000000L : 0;
+			vl = (vh << 63) | (vl >>> 1);
+			vh = (vh >>> 1) ^ carry;
+			hh[i] = vh;
+			hl[i] = vl;
+		}
+
+		for (int i = 2; i <= 8; i <<= 1)
+		{
+			for (int j = 1; j < i; j++)
+			{
+				hh[i + j] = hh[i] ^ hh[j];
+				hl[i + j] = hl[i] ^ hl[j];
+			}
+		}
+	}
+
+	public int getBlockSize()
+	{
+		return BLOCK_SIZE;
+	}
+
+	public int getTagSize()
+	{
+		return TAG_SIZE;
+	}
+
+	public void encryptPacket(int seq, byte[] packet, int off, int len)
+	{
+		startPacket();
+		crypt(packet, off + 4, len);
+		authenticate(packet, off, len);
+		System.arraycopy(tag, 0, packet, off + 4 + len, TAG_SIZE);
+		invocation++;
+	}
+
+	public int decryptLength(int seq, byte[] packet, int off)
+	{
+		return readInt(packet, off);
+	}
+
+	public void decryptPacket(int seq, byte[] packet, int off, int len) throws IOException
+	{
+		startPacket();
+		authenticate(packet, off, len);
+
+		int diff = 0;
+		for (int i = 0; i < TAG_SIZE; i++)
+			diff |= tag[i] ^ packet[off + 4 + len + i];
+
+		if (diff != 0)
+			throw new IOException("Remote sent corrupt MAC.");
+
+		crypt(packet, off + 4, len);
+		invocation++;
+	}
+
+	/**
+	 * Set up the nonce of this packet and compute the tag mask from counter
+	 * value 1.
+	 */
+	private void startPacket()
+	{
+		System.arraycopy(fixed, 0, nonce, 0, 4);
+		writeLong(invocation, nonce, 4);
+
+		System.arraycopy(nonce, 0, counters, 0, 12);
+		writeInt(1, counters, 12);
+		aes.transformBlock(counters, 0, tagMask, 0);
+	}
+
+	/**
+	 * XOR the keystream from counter value 2 onwards into the buffer.
+	 */
+	private void crypt(byte[] buf, int off, int len)
+	{
+		int counter = 2;
+
+		while (len > 0)
+		{
+			int n = (len < keystream.length) ? len : keystream.length;
+			int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+			for (int i = 0; i < blocks; i++)
+			{
+				System.arraycopy(nonce, 0, counters, i * BLOCK_SIZE, 12);
+				writeInt(counter++, counters, i * BLOCK_SIZE + 12);
+			}
+
+			aes.transform(counters, 0, keystream, 0, blocks * BLOCK_SIZE);
+
+			for (int i = 0; i < n; i++)
+				buf[off + i] ^= keystream[i];
+
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * GHASH over the length field as associated data and the encrypted rest
+	 * of the packet, masked into {@link #tag}.
+	 */
+	private void authenticate(byte[] packet, int off, int len)
+	{
+		yh = (long) readInt(packet, off) << 32;
+		yl = 0;
+		multiplyH();
+
+		int pos = off + 4;
+		int end = pos + len;
+
+		for (; pos + BLOCK_SIZE <= end; pos += BLOCK_SIZE)
+		{
+			yh ^= readLong(packet, pos);
+			yl ^= readLong(packet, pos + 8);
+			multiplyH();
+		}
+
+		if (pos < end)
+		{
+			for (int i = 0; pos < end; i++, pos++)
+			{
+				long b = (long) (packet[pos] & 0xff) << (56 - 8 * (i & 7));
+				if (i < 8)
+					yh ^= b;
+				else
+					yl ^= b;
+			}
+			multiplyH();
+		}
+
+		/* bit lengths of the associated data and of the ciphertext */
+		yh ^= 32;
+		yl ^= (long) len << 3;
+		multiplyH();
+
+		writeLong(yh, tag, 0);
+		writeLong(yl, tag, 8);
+		for (int i = 0; i < TAG_SIZE; i++)
+			tag[i] ^= tagMask[i];
+	}
+
+	/**
+	 * Y = Y * H, four bits at a time starting with the last byte.
+	 */
+	private void multiplyH()
+	{
+		long zh = 0;
+		long zl = 0;
+
+		for (int i = 15; i >= 0; i--)
+		{
+			int b = (int) ((i < 8) ? (yh >>> ((7 - i) << 3)) : (yl >>> ((15 - i) << 3))) & 0xff;
+
+			int rem = (int) zl & 0xf;
+			zl = (zh << 60) | (zl >>> 4);
+			zh = (zh >>> 4) ^ LAST4[rem];
+			zh ^= hh[b & 0xf];
+			zl ^= hl[b & 0xf];
+
+			rem = (int) zl & 0xf;
+			zl = (zh << 60) | (zl >>> 4);
+			zh = (zh >>> 4) ^ LAST4[rem];
+			zh ^= hh[b >>> 4];
+			zl ^= hl[b >>> 4];
+		}
+
+		yh = zh;
+		yl = zl;
+	}
+
+	private static int readInt(byte[] b, int off)
+	{
+		return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8)
+				| (b[off + 3] & 0xff);
+	}
+
+	private static long readLong(byte[] b, int off)
+	{
+		return ((long) readInt(b, off) << 32) | (readInt(b, off + 4) & 0xffffffffL);
+	}
+
+	private static void writeInt(int v, byte[] b, int off)
+	{
+		b[off] = (byte) (v >> 24);
+		b[off + 1] = (byte) (v >> 16);
+		b[off + 2] = (byte) (v >> 8);
+		b[off + 3] = (byte) v;
+	}
+
+	private static void writeLong(long v, byte[] b, int off)
+	{
+		writeInt((int) (v >> 32), b, off);
+		writeInt((int) v, b, off + 4);
+	}
+}
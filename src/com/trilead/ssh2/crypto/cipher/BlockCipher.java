@@ -13,4 +13,12 @@ public interface BlockCipher
 	public int getBlockSize();
 
 	public void transformBlock(byte[] src, int srcoff, byte[] dst, int dstoff);
+
+	/**
+	 * Transform a run of whole blocks. The source and destination may be the
+	 * same array at the same offset.
+	 * 
+	 * @param len number of bytes, a multiple of the block size
+	 */
+	public void transform(byte[] src, int srcoff, byte[] dst, int dstoff, int len);
 }
@@ -3,6 +3,8 @@ package com.trilead.ssh2.crypto.cipher;
 
 import java.util.Vector;
 
+import com.trilead.ssh2.crypto.PlatformCrypto;
+
 /**
  * BlockCipherFactory.
  * 
@@ -16,13 +18,29 @@ public class BlockCipherFactory
 		String type;
 		int blocksize;
 		int keysize;
+		int ivsize;
+		boolean aead;
 		String cipherClass;
+		String jceName;
 
-		public CipherEntry(String type, int blockSize, int keySize, String cipherClass)
+		public CipherEntry(String type, int blockSize, int keySize, String cipherClass, String jceName)
 		{
 			this.type = type;
 			this.blocksize = blockSize;
 			this.keysize = keySize;
+			this.ivsize = blockSize;
+			this.aead = false;
+			this.cipherClass = cipherClass;
+			this.jceName = jceName;
+		}
+
+		public CipherEntry(String type, int blockSize, int keySize, int ivSize, String cipherClass)
+		{
+			this.type = type;
+			this.blocksize = blockSize;
+			this.keysize = keySize;
+			this.ivsize = ivSize;
+			this.aead = true;
 			this.cipherClass = cipherClass;
 		}
 	}
@@ -33,18 +51,23 @@ public class BlockCipherFactory
 	{
 		/* Higher Priority First */
 
-		ciphers.addElement(new CipherEntry("aes256-ctr", 16, 32, "com.trilead.ssh2.crypto.cipher.AES"));
-		ciphers.addElement(new CipherEntry("aes192-ctr", 16, 24, "com.trilead.ssh2.crypto.cipher.AES"));
-		ciphers.addElement(new CipherEntry("aes128-ctr", 16, 16, "com.trilead.ssh2.crypto.cipher.AES"));
-		ciphers.addElement(new CipherEntry("blowfish-ctr", 8, 16, "com.trilead.ssh2.crypto.cipher.BlowFish"));
+		ciphers.addElement(new CipherEntry("chacha20-poly1305@openssh.com", 8, 64, 0,
+				"com.trilead.ssh2.crypto.cipher.ChaCha20Poly1305"));
+		ciphers.addElement(new CipherEntry("aes256-gcm@openssh.com", 16, 32, 12, "com.trilead.ssh2.crypto.cipher.AESGCM"));
+		ciphers.addElement(new CipherEntry("aes128-gcm@openssh.com", 16, 16, 12, "com.trilead.ssh2.crypto.cipher.AESGCM"));
+
+		ciphers.addElement(new CipherEntry("aes256-ctr", 16, 32, "com.trilead.ssh2.crypto.cipher.FastAES", "AES"));
+		ciphers.addElement(new CipherEntry("aes192-ctr", 16, 24, "com.trilead.ssh2.crypto.cipher.FastAES", "AES"));
+		ciphers.addElement(new CipherEntry("aes128-ctr", 16, 16, "com.trilead.ssh2.crypto.cipher.FastAES", "AES"));
+		ciphers.addElement(new CipherEntry("blowfish-ctr", 8, 16, "com.trilead.ssh2.crypto.cipher.BlowFish", "Blowfish"));
 
-		ciphers.addElement(new CipherEntry("aes256-cbc", 16, 32, "com.trilead.ssh2.crypto.cipher.AES"));
-		ciphers.addElement(new CipherEntry("aes192-cbc", 16, 24, "com.trilead.ssh2.crypto.cipher.AES"));
-		ciphers.addElement(new CipherEntry("aes128-cbc", 16, 16, "com.trilead.ssh2.crypto.cipher.AES"));
-		ciphers.addElement(new CipherEntry("blowfish-cbc", 8, 16, "com.trilead.ssh2.crypto.cipher.BlowFish"));
+		ciphers.addElement(new CipherEntry("aes256-cbc", 16, 32, "com.trilead.ssh2.crypto.cipher.FastAES", "AES"));
+		ciphers.addElement(new CipherEntry("aes192-cbc", 16, 24, "com.trilead.ssh2.crypto.cipher.FastAES", "AES"));
+		ciphers.addElement(new CipherEntry("aes128-cbc", 16, 16, "com.trilead.ssh2.crypto.cipher.FastAES", "AES"));
+		ciphers.addElement(new CipherEntry("blowfish-cbc", 8, 16, "com.trilead.ssh2.crypto.cipher.BlowFish", "Blowfish"));
 		
-		ciphers.addElement(new CipherEntry("3des-ctr", 8, 24, "com.trilead.ssh2.crypto.cipher.DESede"));
-		ciphers.addElement(new CipherEntry("3des-cbc", 8, 24, "com.trilead.ssh2.crypto.cipher.DESede"));
+		ciphers.addElement(new CipherEntry("3des-ctr", 8, 24, "com.trilead.ssh2.crypto.cipher.DESede", "DESede"));
+		ciphers.addElement(new CipherEntry("3des-cbc", 8, 24, "com.trilead.ssh2.crypto.cipher.DESede", "DESede"));
 	}
 
 	public static String[] getDefaultCipherList()
@@ -69,9 +92,21 @@ public class BlockCipherFactory
 		try
 		{
 			CipherEntry ce = getEntry(type);
+			if (ce.aead)
+				throw new IllegalArgumentException(type + " is not a block cipher");
+
 			Class cc = Class.forName(ce.cipherClass);
 			BlockCipher bc = (BlockCipher) cc.newInstance();
 
+			if (PlatformCrypto.isEnabled())
+			{
+				BlockCipher platform = JceBlockCipher.create(type, ce.jceName, bc, encrypt, key, iv);
+				if (platform != null)
+					return platform;
+
+				bc = (BlockCipher) cc.newInstance();
+			}
+
 			if (type.endsWith("-cbc"))
 			{
 				bc.init(encrypt, key);
@@ -90,6 +125,41 @@ public class BlockCipherFactory
 		}
 	}
 
+	/**
+	 * Create one of the ciphers that take care of authentication themselves,
+	 * see {@link #isAEAD(String)}.
+	 */
+	public static AEADCipher createAEADCipher(String type, boolean encrypt, byte[] key, byte[] iv)
+	{
+		CipherEntry ce = getEntry(type);
+		if (!ce.aead)
+			throw new IllegalArgumentException(type + " is not an AEAD cipher");
+
+		if (type.endsWith("-gcm@openssh.com"))
+		{
+			if (PlatformCrypto.isEnabled())
+			{
+				AEADCipher platform = JceAESGCM.create(encrypt, key, iv);
+				if (platform != null)
+					return platform;
+			}
+
+			return new AESGCM(key, iv);
+		}
+
+		return new ChaCha20Poly1305(key);
+	}
+
+	/**
+	 * @return whether the cipher authenticates packets itself, in which case
+	 *         no MAC is negotiated for it
+	 */
+	public static boolean isAEAD(String type)
+	{
+		CipherEntry ce = getEntry(type);
+		return ce.aead;
+	}
+
 	private static CipherEntry getEntry(String type)
 	{
 		for (int i = 0; i < ciphers.size(); i++)
@@ -112,4 +182,10 @@ public class BlockCipherFactory
 		CipherEntry ce = getEntry(type);
 		return ce.keysize;
 	}
+
+	public static int getIVSize(String type)
+	{
+		CipherEntry ce = getEntry(type);
+		return ce.ivsize;
+	}
 }
@@ -226,6 +226,12 @@ public class BlowFish implements BlockCipher
 		}
 	}
 
+	public final void transform(byte[] in, int inOff, byte[] out, int outOff, int len)
+	{
+		for (int i = 0; i < len; i += BLOCK_SIZE)
+			transformBlock(in, inOff + i, out, outOff + i);
+	}
+
 	public void reset()
 	{
 	}
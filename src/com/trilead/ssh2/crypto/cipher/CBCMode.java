@@ -15,6 +15,11 @@ public class CBCMode implements BlockCipher
 	byte[] cbc_vector;
 	byte[] tmp_vector;
 
+	/* copy of the ciphertext being decrypted in bulk, allocated on first use */
+	byte[] chunk;
+
+	static final int CHUNK_BLOCKS = 64;
+
 	public void init(boolean forEncryption, byte[] key)
 	{
 	}
@@ -75,4 +80,40 @@ public class CBCMode implements BlockCipher
 		else
 			decryptBlock(src, srcoff, dst, dstoff);
 	}
+
+	public void transform(byte[] src, int srcoff, byte[] dst, int dstoff, int len)
+	{
+		if (doEncrypt)
+		{
+			/* every block depends on the one before, nothing to batch */
+			for (int i = 0; i < len; i += blockSize)
+				encryptBlock(src, srcoff + i, dst, dstoff + i);
+			return;
+		}
+
+		if (chunk == null)
+			chunk = new byte[blockSize * CHUNK_BLOCKS];
+
+		while (len > 0)
+		{
+			int n = (len < chunk.length) ? len : chunk.length;
+
+			/* keep the ciphertext, the output may overwrite it */
+			System.arraycopy(src, srcoff, chunk, 0, n);
+
+			tc.transform(chunk, 0, dst, dstoff, n);
+
+			for (int i = 0; i < blockSize; i++)
+				dst[dstoff + i] ^= cbc_vector[i];
+
+			for (int i = blockSize; i < n; i++)
+				dst[dstoff + i] ^= chunk[i - blockSize];
+
+			System.arraycopy(chunk, n - blockSize, cbc_vector, 0, blockSize);
+
+			srcoff += n;
+			dstoff += n;
+			len -= n;
+		}
+	}
 }
@@ -3,14 +3,24 @@ package com.trilead.ssh2.crypto.cipher;
 
 /**
  * This is CTR mode as described in draft-ietf-secsh-newmodes-XY.txt
+ * <p>
+ * Keystream is generated for up to {@link #KEYSTREAM_BLOCKS} counter
+ * values at a time so that the block cipher gets to run over a whole
+ * buffer instead of being called once per block.
  * 
  * @author Christian Plattner, plattner@trilead.com
  * @version $Id: CTRMode.java,v 1.1 2007/10/15 12:49:55 cplattne Exp $
  */
 public class CTRMode implements BlockCipher
 {
+	/** Number of blocks of keystream generated in one go. */
+	static final int KEYSTREAM_BLOCKS = 64;
+
 	byte[] X;
-	byte[] Xenc;
+
+	/* successive counter values and the keystream they encrypt to */
+	byte[] counters;
+	byte[] keystream;
 
 	BlockCipher bc;
 	int blockSize;
@@ -32,7 +42,8 @@ public class CTRMode implements BlockCipher
 			throw new IllegalArgumentException("IV must be " + blockSize + " bytes long! (currently " + iv.length + ")");
 
 		X = new byte[blockSize];
-		Xenc = new byte[blockSize];
+		counters = new byte[blockSize * KEYSTREAM_BLOCKS];
+		keystream = new byte[blockSize * KEYSTREAM_BLOCKS];
 
 		System.arraycopy(iv, 0, X, 0, blockSize);
 	}
@@ -44,19 +55,53 @@ public class CTRMode implements BlockCipher
 
 	public final void transformBlock(byte[] src, int srcoff, byte[] dst, int dstoff)
 	{
-		bc.transformBlock(X, 0, Xenc, 0);
+		transform(src, srcoff, dst, dstoff, blockSize);
+	}
 
-		for (int i = 0; i < blockSize; i++)
+	public final void transform(byte[] src, int srcoff, byte[] dst, int dstoff, int len)
+	{
+		while (len > 0)
 		{
-			dst[dstoff + i] = (byte) (src[srcoff + i] ^ Xenc[i]);
+			int n = (len < keystream.length) ? len : keystream.length;
+
+			for (int off = 0; off < n; off += blockSize)
+			{
+				System.arraycopy(X, 0, counters, off, blockSize);
+
+				for (int i = (blockSize - 1); i >= 0; i--)
+				{
+					X[i]++;
+					if (X[i] != 0)
+						break;
+				}
+			}
+
+			bc.transform(counters, 0, keystream, 0, n);
+
+			xor(src, srcoff, keystream, dst, dstoff, n);
+
+			srcoff += n;
+			dstoff += n;
+			len -= n;
 		}
+	}
 
-		for (int i = (blockSize - 1); i >= 0; i--)
+	/**
+	 * dst = src ^ ks, eight bytes per round since len is a multiple of the
+	 * block size.
+	 */
+	private static void xor(byte[] src, int srcoff, byte[] ks, byte[] dst, int dstoff, int len)
+	{
+		for (int i = 0; i < len; i += 8)
 		{
-			X[i]++;
-			if (X[i] != 0)
-				break;
-
+			dst[dstoff + i] = (byte) (src[srcoff + i] ^ ks[i]);
+			dst[dstoff + i + 1] = (byte) (src[srcoff + i + 1] ^ ks[i + 1]);
+			dst[dstoff + i + 2] = (byte) (src[srcoff + i + 2] ^ ks[i + 2]);
+			dst[dstoff + i + 3] = (byte) (src[srcoff + i + 3] ^ ks[i + 3]);
+			dst[dstoff + i + 4] = (byte) (src[srcoff + i + 4] ^ ks[i + 4]);
+			dst[dstoff + i + 5] = (byte) (src[srcoff + i + 5] ^ ks[i + 5]);
+			dst[dstoff + i + 6] = (byte) (src[srcoff + i + 6] ^ ks[i + 6]);
+			dst[dstoff + i + 7] = (byte) (src[srcoff + i + 7] ^ ks[i + 7]);
 		}
 	}
 }
@@ -0,0 +1,363 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+
+/**
+ * ChaCha20Poly1305. The chacha20-poly1305@openssh.com cipher described in
+ * OpenSSH's PROTOCOL.chacha20poly1305.
+ * <p>
+ * The 64 byte key is split in two ChaCha20 keys: the first half, K_2, encrypts
+ * the packet from the padding length on, the second half, K_1, encrypts
+ * nothing but the packet length. Both use the sequence number as nonce. The
+ * first block of K_2's keystream gives the Poly1305 key, which authenticates
+ * the whole packet as sent, length included; the packet itself is encrypted
+ * starting with block 1.
+ * <p>
+ * ChaCha20 is only additions, rotations and XORs on 32 bit words, which is
+ * why it holds up well without a platform implementation.
+ */
+public class ChaCha20Poly1305 implements AEADCipher
+{
+	private static final int BLOCK_SIZE = 8;
+
+	private static final int TAG_SIZE = 16;
+
+	/* "expand 32-byte k" */
+	private static final int SIGMA0 = 0x61707865;
+	private static final int SIGMA1 = 0x3320646e;
+	private static final int SIGMA2 = 0x79622d32;
+	private static final int SIGMA3 = 0x6b206574;
+
+	/** Bits of the Poly1305 accumulator and key kept in each int. */
+	private static final int MASK26 = 0x3ffffff;
+
+	private final int[] mainKey = new int[8];
+	private final int[] headerKey = new int[8];
+
+	private final int[] block = new int[16];
+	private final byte[] tag = new byte[TAG_SIZE];
+	private final byte[] last = new byte[16];
+
+	/* Poly1305 key r, multiples of it by 5, and the key s added at the end */
+	private int r0, r1, r2, r3, r4;
+	private int s1, s2, s3, s4;
+	private int pad0, pad1, pad2, pad3;
+
+	public ChaCha20Poly1305(byte[] key)
+	{
+		if (key.length != 64)
+			throw new IllegalArgumentException("Key must be 64 bytes long! (currently " + key.length + ")");
+
+		for (int i = 0; i < 8; i++)
+		{
+			mainKey[i] = readIntLE(key, i * 4);
+			headerKey[i] = readIntLE(key, 32 + i * 4);
+		}
+	}
+
+	public int getBlockSize()
+	{
+		return BLOCK_SIZE;
+	}
+
+	public int getTagSize()
+	{
+		return TAG_SIZE;
+	}
+
+	public void encryptPacket(int seq, byte[] packet, int off, int len)
+	{
+		chacha(headerKey, 0, seq, block);
+		xorBlock(block, packet, off, 4);
+
+		startPacket(seq);
+		crypt(seq, packet, off + 4, len);
+		poly1305(packet, off, 4 + len);
+		System.arraycopy(tag, 0, packet, off + 4 + len, TAG_SIZE);
+	}
+
+	public int decryptLength(int seq, byte[] packet, int off)
+	{
+		chacha(headerKey, 0, seq, block);
+
+		return ((packet[off] ^ block[0]) & 0xff) << 24 | ((packet[off + 1] ^ (block[0] >> 8)) & 0xff) << 16
+				| ((packet[off + 2] ^ (block[0] >> 16)) & 0xff) << 8 | ((packet[off + 3] ^ (block[0] >> 24)) & 0xff);
+	}
+
+	public void decryptPacket(int seq, byte[] packet, int off, int len) throws IOException
+	{
+		startPacket(seq);
+		poly1305(packet, off, 4 + len);
+
+		int diff = 0;
+		for (int i = 0; i < TAG_SIZE; i++)
+			diff |= tag[i] ^ packet[off + 4 + len + i];
+
+		if (diff != 0)
+			throw new IOException("Remote sent corrupt MAC.");
+
+		chacha(headerKey, 0, seq, block);
+		xorBlock(block, packet, off, 4);
+
+		crypt(seq, packet, off + 4, len);
+	}
+
+	/**
+	 * Derive the Poly1305 key of this packet from block 0 of the main
+	 * keystream.
+	 */
+	private void startPacket(int seq)
+	{
+		chacha(mainKey, 0, seq, block);
+
+		r0 = block[0] & 0x3ffffff;
+		r1 = ((block[0] >>> 26) | (block[1] << 6)) & 0x3ffff03;
+		r2 = ((block[1] >>> 20) | (block[2] << 12)) & 0x3ffc0ff;
+		r3 = ((block[2] >>> 14) | (block[3] << 18)) & 0x3f03fff;
+		r4 = (block[3] >>> 8) & 0x00fffff;
+
+		s1 = r1 * 5;
+		s2 = r2 * 5;
+		s3 = r3 * 5;
+		s4 = r4 * 5;
+
+		pad0 = block[4];
+		pad1 = block[5];
+		pad2 = block[6];
+		pad3 = block[7];
+	}
+
+	/**
+	 * XOR the main keystream from block 1 onwards into the buffer.
+	 */
+	private void crypt(int seq, byte[] buf, int off, int len)
+	{
+		for (int counter = 1; len > 0; counter++)
+		{
+			chacha(mainKey, counter, seq, block);
+
+			int n = (len < 64) ? len : 64;
+			xorBlock(block, buf, off, n);
+
+			off += n;
+			len -= n;
+		}
+	}
+
+	private static void xorBlock(int[] ks, byte[] buf, int off, int len)
+	{
+		int i = 0;
+
+		for (; i + 4 <= len; i += 4)
+		{
+			int k = ks[i >> 2];
+			buf[off + i] ^= k;
+			buf[off + i + 1] ^= k >> 8;
+			buf[off + i + 2] ^= k >> 16;
+			buf[off + i + 3] ^= k >> 24;
+		}
+
+		for (; i < len; i++)
+			buf[off + i] ^= ks[i >> 2] >> ((i & 3) << 3);
+	}
+
+	/**
+	 * One block of ChaCha20 keystream. The 64 bit nonce is the sequence
+	 * number in network byte order, so its first word is always zero.
+	 */
+	private static void chacha(int[] key, int counter, int seq, int[] out)
+	{
+		int n15 = Integer.reverseBytes(seq);
+
+		int x0 = SIGMA0, x1 = SIGMA1, x2 = SIGMA2, x3 = SIGMA3;
+		int x4 = key[0], x5 = key[1], x6 = key[2], x7 = key[3];
+		int x8 = key[4], x9 = key[5], x10 = key[6], x11 = key[7];
+		int x12 = counter, x13 = 0, x14 = 0, x15 = n15;
+
+		for (int i = 0; i < 10; i++)
+		{
+			/* columns */
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16);
+			x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8);
+			x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16);
+			x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8);
+			x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16);
+			x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8);
+			x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16);
+			x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8);
+			x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+
+			/* diagonals */
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16);
+			x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8);
+			x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16);
+			x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8);
+			x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16);
+			x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8);
+			x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16);
+			x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8);
+			x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+		}
+
+		out[0] = x0 + SIGMA0;
+		out[1] = x1 + SIGMA1;
+		out[2] = x2 + SIGMA2;
+		out[3] = x3 + SIGMA3;
+		out[4] = x4 + key[0];
+		out[5] = x5 + key[1];
+		out[6] = x6 + key[2];
+		out[7] = x7 + key[3];
+		out[8] = x8 + key[4];
+		out[9] = x9 + key[5];
+		out[10] = x10 + key[6];
+		out[11] = x11 + key[7];
+		out[12] = x12 + counter;
+		out[13] = x13;
+		out[14] = x14;
+		out[15] = x15 + n15;
+	}
+
+	/**
+	 * Poly1305 of the buffer into {@link #tag}, with the accumulator in five
+	 * 26 bit limbs.
+	 */
+	private void poly1305(byte[] buf, int off, int len)
+	{
+		int h0 = 0, h1 = 0, h2 = 0, h3 = 0, h4 = 0;
+
+		int end = off + len;
+		byte[] m = buf;
+		int hibit = 1 << 24;
+
+		while (off < end)
+		{
+			if (end - off < 16)
+			{
+				/* the last, partial block is padded with a one and zeros */
+				int n = end - off;
+				System.arraycopy(buf, off, last, 0, n);
+				last[n] = 1;
+				for (int i = n + 1; i < 16; i++)
+					last[i] = 0;
+
+				m = last;
+				off = 0;
+				end = 16;
+				hibit = 0;
+			}
+
+			int t0 = readIntLE(m, off);
+			int t1 = readIntLE(m, off + 4);
+			int t2 = readIntLE(m, off + 8);
+			int t3 = readIntLE(m, off + 12);
+
+			h0 += t0 & MASK26;
+			h1 += ((t0 >>> 26) | (t1 << 6)) & MASK26;
+			h2 += ((t1 >>> 20) | (t2 << 12)) & MASK26;
+			h3 += ((t2 >>> 14) | (t3 << 18)) & MASK26;
+			h4 += (t3 >>> 8) | hibit;
+
+			long d0 = (long) h0 * r0 + (long) h1 * s4 + (long) h2 * s3 + (long) h3 * s2 + (long) h4 * s1;
+			long d1 = (long) h0 * r1 + (long) h1 * r0 + (long) h2 * s4 + (long) h3 * s3 + (long) h4 * s2;
+			long d2 = (long) h0 * r2 + (long) h1 * r1 + (long) h2 * r0 + (long) h3 * s4 + (long) h4 * s3;
+			long d3 = (long) h0 * r3 + (long) h1 * r2 + (long) h2 * r1 + (long) h3 * r0 + (long) h4 * s4;
+			long d4 = (long) h0 * r4 + (long) h1 * r3 + (long) h2 * r2 + (long) h3 * r1 + (long) h4 * r0;
+
+			d1 += d0 >>> 26;
+			d2 += d1 >>> 26;
+			d3 += d2 >>> 26;
+			d4 += d3 >>> 26;
+			d0 = (d0 & MASK26) + (d4 >>> 26) * 5;
+
+			h0 = (int) d0 & MASK26;
+			h1 = ((int) d1 & MASK26) + (int) (d0 >>> 26);
+			h2 = (int) d2 & MASK26;
+			h3 = (int) d3 & MASK26;
+			h4 = (int) d4 & MASK26;
+
+			off += 16;
+		}
+
+		/* carry all the way through */
+		int c = h1 >>> 26;
+		h1 &= MASK26;
+		h2 += c;
+		c = h2 >>> 26;
+		h2 &= MASK26;
+		h3 += c;
+		c = h3 >>> 26;
+		h3 &= MASK26;
+		h4 += c;
+		c = h4 >>> 26;
+		h4 &= MASK26;
+		h0 += c * 5;
+		c = h0 >>> 26;
+		h0 &= MASK26;
+		h1 += c;
+
+		/* h - p, used instead of h if it does not go negative */
+		int g0 = h0 + 5;
+		c = g0 >>> 26;
+		g0 &= MASK26;
+		int g1 = h1 + c;
+		c = g1 >>> 26;
+		g1 &= MASK26;
+		int g2 = h2 + c;
+		c = g2 >>> 26;
+		g2 &= MASK26;
+		int g3 = h3 + c;
+		c = g3 >>> 26;
+		g3 &= MASK26;
+		int g4 = h4 + c - (1 << 26);
+
+		int select = (g4 >>> 31) - 1;
+		h0 = (h0 & ~select) | (g0 & select);
+		h1 = (h1 & ~select) | (g1 & select);
+		h2 = (h2 & ~select) | (g2 & select);
+		h3 = (h3 & ~select) | (g3 & select);
+		h4 = (h4 & ~select) | (g4 & select);
+
+		/* h + s mod 2^128 */
+		long f = ((h0 | (h1 << 26)) & 0xffffffffL) + (pad0 & 0xffffffffL);
+		writeIntLE((int) f, tag, 0);
+		f = (((h1 >>> 6) | (h2 << 20)) & 0xffffffffL) + (pad1 & 0xffffffffL) + (f >>> 32);
+		writeIntLE((int) f, tag, 4);
+		f = (((h2 >>> 12) | (h3 << 14)) & 0xffffffffL) + (pad2 & 0xffffffffL) + (f >>> 32);
+		writeIntLE((int) f, tag, 8);
+		f = (((h3 >>> 18) | (h4 << 8)) & 0xffffffffL) + (pad3 & 0xffffffffL) + (f >>> 32);
+		writeIntLE((int) f, tag, 12);
+	}
+
+	private static int readIntLE(byte[] b, int off)
+	{
+		return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+	}
+
+	private static void writeIntLE(int v, byte[] b, int off)
+	{
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >> 8);
+		b[off + 2] = (byte) (v >> 16);
+		b[off + 3] = (byte) (v >> 24);
+	}
+}
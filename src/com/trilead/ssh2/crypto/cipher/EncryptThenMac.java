@@ -0,0 +1,75 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+
+import com.trilead.ssh2.crypto.digest.MAC;
+
+/**
+ * EncryptThenMac. A block cipher and a MAC in the encrypt-then-MAC order of
+ * the "-etm@openssh.com" MACs: the packet length goes out in the clear, the
+ * rest of the packet is encrypted and the MAC is computed over the sequence
+ * number, the length and the ciphertext.
+ * <p>
+ * That fits the {@link AEADCipher} packet layout, and it lets the receiver
+ * check the MAC before spending any work on decrypting a packet.
+ */
+public class EncryptThenMac implements AEADCipher
+{
+	private final BlockCipher cipher;
+	private final MAC mac;
+	private final byte[] expected;
+	private final int blockSize;
+
+	/**
+	 * @param cipher the cipher, already set up for this direction
+	 * @param mac the MAC, keyed for this direction
+	 */
+	public EncryptThenMac(BlockCipher cipher, MAC mac)
+	{
+		this.cipher = cipher;
+		this.mac = mac;
+		this.expected = new byte[mac.size()];
+		this.blockSize = Math.max(8, cipher.getBlockSize());
+	}
+
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	public int getTagSize()
+	{
+		return mac.size();
+	}
+
+	public void encryptPacket(int seq, byte[] packet, int off, int len)
+	{
+		cipher.transform(packet, off + 4, packet, off + 4, len);
+
+		mac.initMac(seq);
+		mac.update(packet, off, 4 + len);
+		mac.getMac(packet, off + 4 + len);
+	}
+
+	public int decryptLength(int seq, byte[] packet, int off)
+	{
+		return ((packet[off] & 0xff) << 24) | ((packet[off + 1] & 0xff) << 16) | ((packet[off + 2] & 0xff) << 8)
+				| (packet[off + 3] & 0xff);
+	}
+
+	public void decryptPacket(int seq, byte[] packet, int off, int len) throws IOException
+	{
+		mac.initMac(seq);
+		mac.update(packet, off, 4 + len);
+		mac.getMac(expected, 0);
+
+		int diff = 0;
+		for (int i = 0; i < expected.length; i++)
+			diff |= expected[i] ^ packet[off + 4 + len + i];
+
+		if (diff != 0)
+			throw new IOException("Remote sent corrupt MAC.");
+
+		cipher.transform(packet, off + 4, packet, off + 4, len);
+	}
+}
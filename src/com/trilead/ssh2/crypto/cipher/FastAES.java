@@ -0,0 +1,319 @@
+
+package com.trilead.ssh2.crypto.cipher;
+
+/**
+ * FastAES. AES (FIPS-197) written for speed in plain Java: four 1KB tables
+ * per direction combine SubBytes, ShiftRows and MixColumns into lookups on
+ * 32 bit words, the round keys live in one flat array, the state is kept in
+ * local variables and the rounds are unrolled in pairs. Runs of blocks are
+ * packed and unpacked in one loop without per block checks.
+ * <p>
+ * The tables are computed when the class is loaded rather than spelled out
+ * in the source. {@link AES} is kept as a reference implementation.
+ */
+public class FastAES implements BlockCipher
+{
+	private static final int BLOCK_SIZE = 16;
+
+	private static final byte[] S = new byte[256];
+	private static final byte[] Si = new byte[256];
+
+	private static final int[] Te0 = new int[256];
+	private static final int[] Te1 = new int[256];
+	private static final int[] Te2 = new int[256];
+	private static final int[] Te3 = new int[256];
+
+	private static final int[] Td0 = new int[256];
+	private static final int[] Td1 = new int[256];
+	private static final int[] Td2 = new int[256];
+	private static final int[] Td3 = new int[256];
+
+	static
+	{
+		/* powers and logarithms of the generator 3 in GF(2^8) */
+		int[] pow = new int[256];
+		int[] log = new int[256];
+		for (int i = 0, x = 1; i < 255; i++)
+		{
+			pow[i] = x;
+			log[x] = i;
+			x ^= xtime(x);
+		}
+
+		for (int x = 0; x < 256; x++)
+		{
+			/* multiplicative inverse followed by the affine transformation */
+			int y = (x == 0) ? 0 : pow[(255 - log[x]) % 255];
+			int s = y ^ rotl8(y, 1) ^ rotl8(y, 2) ^ rotl8(y, 3) ^ rotl8(y, 4) ^ 0x63;
+
+			S[x] = (byte) s;
+			Si[s] = (byte) x;
+		}
+
+		for (int x = 0; x < 256; x++)
+		{
+			int s = S[x] & 0xff;
+			int s2 = xtime(s);
+			int e = (s2 << 24) | (s << 16) | (s << 8) | (s2 ^ s);
+
+			Te0[x] = e;
+			Te1[x] = (e >>> 8) | (e << 24);
+			Te2[x] = (e >>> 16) | (e << 16);
+			Te3[x] = (e >>> 24) | (e << 8);
+
+			int si = Si[x] & 0xff;
+			int d = (mul(si, 0x0e) << 24) | (mul(si, 0x09) << 16) | (mul(si, 0x0d) << 8) | mul(si, 0x0b);
+
+			Td0[x] = d;
+			Td1[x] = (d >>> 8) | (d << 24);
+			Td2[x] = (d >>> 16) | (d << 16);
+			Td3[x] = (d >>> 24) | (d << 8);
+		}
+	}
+
+	private static int xtime(int x)
+	{
+		x <<= 1;
+		return ((x & 0x100) != 0) ? (x ^ 0x11b) : x;
+	}
+
+	private static int mul(int x, int y)
+	{
+		int r = 0;
+		while (y != 0)
+		{
+			if ((y & 1) != 0)
+				r ^= x;
+			x = xtime(x);
+			y >>= 1;
+		}
+		return r;
+	}
+
+	private static int rotl8(int x, int n)
+	{
+		return ((x << n) | (x >> (8 - n))) & 0xff;
+	}
+
+	private static int subWord(int w)
+	{
+		return ((S[w >>> 24] & 0xff) << 24) | ((S[(w >>> 16) & 0xff] & 0xff) << 16)
+				| ((S[(w >>> 8) & 0xff] & 0xff) << 8) | (S[w & 0xff] & 0xff);
+	}
+
+	private int[] rk;
+	private int rounds;
+	private boolean encrypt;
+
+	public FastAES()
+	{
+	}
+
+	public void init(boolean forEncryption, byte[] key)
+	{
+		int nk = key.length / 4;
+
+		if (((nk != 4) && (nk != 6) && (nk != 8)) || ((nk * 4) != key.length))
+			throw new IllegalArgumentException("Key length not 128/192/256 bits.");
+
+		rounds = nk + 6;
+		encrypt = forEncryption;
+
+		int[] w = new int[(rounds + 1) * 4];
+
+		for (int i = 0; i < nk; i++)
+			w[i] = ((key[4 * i] & 0xff) << 24) | ((key[4 * i + 1] & 0xff) << 16) | ((key[4 * i + 2] & 0xff) << 8)
+					| (key[4 * i + 3] & 0xff);
+
+		int rcon = 1;
+		for (int i = nk; i < w.length; i++)
+		{
+			int temp = w[i - 1];
+			if ((i % nk) == 0)
+			{
+				temp = subWord((temp << 8) | (temp >>> 24)) ^ (rcon << 24);
+				rcon = xtime(rcon);
+			}
+			else if ((nk > 6) && ((i % nk) == 4))
+			{
+				temp = subWord(temp);
+			}
+			w[i] = w[i - nk] ^ temp;
+		}
+
+		if (forEncryption)
+		{
+			rk = w;
+			return;
+		}
+
+		/*
+		 * The equivalent inverse cipher: round keys in reverse order, with
+		 * InvMixColumns applied to all but the first and last.
+		 */
+		rk = new int[w.length];
+		for (int r = 0; r <= rounds; r++)
+		{
+			for (int j = 0; j < 4; j++)
+			{
+				int k = w[(rounds - r) * 4 + j];
+				if (r > 0 && r < rounds)
+					k = Td0[S[k >>> 24] & 0xff] ^ Td1[S[(k >>> 16) & 0xff] & 0xff] ^ Td2[S[(k >>> 8) & 0xff] & 0xff]
+							^ Td3[S[k & 0xff] & 0xff];
+				rk[r * 4 + j] = k;
+			}
+		}
+	}
+
+	public int getBlockSize()
+	{
+		return BLOCK_SIZE;
+	}
+
+	public void transformBlock(byte[] src, int srcoff, byte[] dst, int dstoff)
+	{
+		transform(src, srcoff, dst, dstoff, BLOCK_SIZE);
+	}
+
+	public void transform(byte[] src, int srcoff, byte[] dst, int dstoff, int len)
+	{
+		if (rk == null)
+			throw new IllegalStateException("AES engine not initialised");
+
+		if (encrypt)
+			encrypt(src, srcoff, dst, dstoff, len);
+		else
+			decrypt(src, srcoff, dst, dstoff, len);
+	}
+
+	private void encrypt(byte[] src, int srcoff, byte[] dst, int dstoff, int len)
+	{
+		final int[] k = rk;
+		final int[] t0 = Te0, t1 = Te1, t2 = Te2, t3 = Te3;
+		final byte[] sbox = S;
+		final int pairs = rounds / 2 - 1;
+
+		for (int end = srcoff + len; srcoff < end; srcoff += BLOCK_SIZE, dstoff += BLOCK_SIZE)
+		{
+			int s0 = (src[srcoff] << 24 | (src[srcoff + 1] & 0xff) << 16 | (src[srcoff + 2] & 0xff) << 8
+					| (src[srcoff + 3] & 0xff)) ^ k[0];
+			int s1 = (src[srcoff + 4] << 24 | (src[srcoff + 5] & 0xff) << 16 | (src[srcoff + 6] & 0xff) << 8
+					| (src[srcoff + 7] & 0xff)) ^ k[1];
+			int s2 = (src[srcoff + 8] << 24 | (src[srcoff + 9] & 0xff) << 16 | (src[srcoff + 10] & 0xff) << 8
+					| (src[srcoff + 11] & 0xff)) ^ k[2];
+			int s3 = (src[srcoff + 12] << 24 | (src[srcoff + 13] & 0xff) << 16 | (src[srcoff + 14] & 0xff) << 8
+					| (src[srcoff + 15] & 0xff)) ^ k[3];
+
+			int r0, r1, r2, r3;
+			int ki = 4;
+
+			for (int p = 0; p < pairs; p++)
+			{
+				r0 = t0[s0 >>> 24] ^ t1[(s1 >>> 16) & 0xff] ^ t2[(s2 >>> 8) & 0xff] ^ t3[s3 & 0xff] ^ k[ki];
+				r1 = t0[s1 >>> 24] ^ t1[(s2 >>> 16) & 0xff] ^ t2[(s3 >>> 8) & 0xff] ^ t3[s0 & 0xff] ^ k[ki + 1];
+				r2 = t0[s2 >>> 24] ^ t1[(s3 >>> 16) & 0xff] ^ t2[(s0 >>> 8) & 0xff] ^ t3[s1 & 0xff] ^ k[ki + 2];
+				r3 = t0[s3 >>> 24] ^ t1[(s0 >>> 16) & 0xff] ^ t2[(s1 >>> 8) & 0xff] ^ t3[s2 & 0xff] ^ k[ki + 3];
+
+				s0 = t0[r0 >>> 24] ^ t1[(r1 >>> 16) & 0xff] ^ t2[(r2 >>> 8) & 0xff] ^ t3[r3 & 0xff] ^ k[ki + 4];
+				s1 = t0[r1 >>> 24] ^ t1[(r2 >>> 16) & 0xff] ^ t2[(r3 >>> 8) & 0xff] ^ t3[r0 & 0xff] ^ k[ki + 5];
+				s2 = t0[r2 >>> 24] ^ t1[(r3 >>> 16) & 0xff] ^ t2[(r0 >>> 8) & 0xff] ^ t3[r1 & 0xff] ^ k[ki + 6];
+				s3 = t0[r3 >>> 24] ^ t1[(r0 >>> 16) & 0xff] ^ t2[(r1 >>> 8) & 0xff] ^ t3[r2 & 0xff] ^ k[ki + 7];
+
+				ki += 8;
+			}
+
+			r0 = t0[s0 >>> 24] ^ t1[(s1 >>> 16) & 0xff] ^ t2[(s2 >>> 8) & 0xff] ^ t3[s3 & 0xff] ^ k[ki];
+			r1 = t0[s1 >>> 24] ^ t1[(s2 >>> 16) & 0xff] ^ t2[(s3 >>> 8) & 0xff] ^ t3[s0 & 0xff] ^ k[ki + 1];
+			r2 = t0[s2 >>> 24] ^ t1[(s3 >>> 16) & 0xff] ^ t2[(s0 >>> 8) & 0xff] ^ t3[s1 & 0xff] ^ k[ki + 2];
+			r3 = t0[s3 >>> 24] ^ t1[(s0 >>> 16) & 0xff] ^ t2[(s1 >>> 8) & 0xff] ^ t3[s2 & 0xff] ^ k[ki + 3];
+			ki += 4;
+
+			/* the last round has no MixColumns, so just the S-box */
+			s0 = ((sbox[r0 >>> 24] & 0xff) << 24 | (sbox[(r1 >>> 16) & 0xff] & 0xff) << 16
+					| (sbox[(r2 >>> 8) & 0xff] & 0xff) << 8 | (sbox[r3 & 0xff] & 0xff)) ^ k[ki];
+			s1 = ((sbox[r1 >>> 24] & 0xff) << 24 | (sbox[(r2 >>> 16) & 0xff] & 0xff) << 16
+					| (sbox[(r3 >>> 8) & 0xff] & 0xff) << 8 | (sbox[r0 & 0xff] & 0xff)) ^ k[ki + 1];
+			s2 = ((sbox[r2 >>> 24] & 0xff) << 24 | (sbox[(r3 >>> 16) & 0xff] & 0xff) << 16
+					| (sbox[(r0 >>> 8) & 0xff] & 0xff) << 8 | (sbox[r1 & 0xff] & 0xff)) ^ k[ki + 2];
+			s3 = ((sbox[r3 >>> 24] & 0xff) << 24 | (sbox[(r0 >>> 16) & 0xff] & 0xff) << 16
+					| (sbox[(r1 >>> 8) & 0xff] & 0xff) << 8 | (sbox[r2 & 0xff] & 0xff)) ^ k[ki + 3];
+
+			store(s0, s1, s2, s3, dst, dstoff);
+		}
+	}
+
+	private void decrypt(byte[] src, int srcoff, byte[] dst, int dstoff, int len)
+	{
+		final int[] k = rk;
+		final int[] t0 = Td0, t1 = Td1, t2 = Td2, t3 = Td3;
+		final byte[] sbox = Si;
+		final int pairs = rounds / 2 - 1;
+
+		for (int end = srcoff + len; srcoff < end; srcoff += BLOCK_SIZE, dstoff += BLOCK_SIZE)
+		{
+			int s0 = (src[srcoff] << 24 | (src[srcoff + 1] & 0xff) << 16 | (src[srcoff + 2] & 0xff) << 8
+					| (src[srcoff + 3] & 0xff)) ^ k[0];
+			int s1 = (src[srcoff + 4] << 24 | (src[srcoff + 5] & 0xff) << 16 | (src[srcoff + 6] & 0xff) << 8
+					| (src[srcoff + 7] & 0xff)) ^ k[1];
+			int s2 = (src[srcoff + 8] << 24 | (src[srcoff + 9] & 0xff) << 16 | (src[srcoff + 10] & 0xff) << 8
+					| (src[srcoff + 11] & 0xff)) ^ k[2];
+			int s3 = (src[srcoff + 12] << 24 | (src[srcoff + 13] & 0xff) << 16 | (src[srcoff + 14] & 0xff) << 8
+					| (src[srcoff + 15] & 0xff)) ^ k[3];
+
+			int r0, r1, r2, r3;
+			int ki = 4;
+
+			for (int p = 0; p < pairs; p++)
+			{
+				r0 = t0[s0 >>> 24] ^ t1[(s3 >>> 16) & 0xff] ^ t2[(s2 >>> 8) & 0xff] ^ t3[s1 & 0xff] ^ k[ki];
+				r1 = t0[s1 >>> 24] ^ t1[(s0 >>> 16) & 0xff] ^ t2[(s3 >>> 8) & 0xff] ^ t3[s2 & 0xff] ^ k[ki + 1];
+				r2 = t0[s2 >>> 24] ^ t1[(s1 >>> 16) & 0xff] ^ t2[(s0 >>> 8) & 0xff] ^ t3[s3 & 0xff] ^ k[ki + 2];
+				r3 = t0[s3 >>> 24] ^ t1[(s2 >>> 16) & 0xff] ^ t2[(s1 >>> 8) & 0xff] ^ t3[s0 & 0xff] ^ k[ki + 3];
+
+				s0 = t0[r0 >>> 24] ^ t1[(r3 >>> 16) & 0xff] ^ t2[(r2 >>> 8) & 0xff] ^ t3[r1 & 0xff] ^ k[ki + 4];
+				s1 = t0[r1 >>> 24] ^ t1[(r0 >>> 16) & 0xff] ^ t2[(r3 >>> 8) & 0xff] ^ t3[r2 & 0xff] ^ k[ki + 5];
+				s2 = t0[r2 >>> 24] ^ t1[(r1 >>> 16) & 0xff] ^ t2[(r0 >>> 8) & 0xff] ^ t3[r3 & 0xff] ^ k[ki + 6];
+				s3 = t0[r3 >>> 24] ^ t1[(r2 >>> 16) & 0xff] ^ t2[(r1 >>> 8) & 0xff] ^ t3[r0 & 0xff] ^ k[ki + 7];
+
+				ki += 8;
+			}
+
+			r0 = t0[s0 >>> 24] ^ t1[(s3 >>> 16) & 0xff] ^ t2[(s2 >>> 8) & 0xff] ^ t3[s1 & 0xff] ^ k[ki];
+			r1 = t0[s1 >>> 24] ^ t1[(s0 >>> 16) & 0xff] ^ t2[(s3 >>> 8) & 0xff] ^ t3[s2 & 0xff] ^ k[ki + 1];
+			r2 = t0[s2 >>> 24] ^ t1[(s1 >>> 16) & 0xff] ^ t2[(s0 >>> 8) & 0xff] ^ t3[s3 & 0xff] ^ k[ki + 2];
+			r3 = t0[s3 >>> 24] ^ t1[(s2 >>> 16) & 0xff] ^ t2[(s1 >>> 8) & 0xff] ^ t3[s0 & 0xff] ^ k[ki + 3];
+			ki += 4;
+
+			s0 = ((sbox[r0 >>> 24] & 0xff) << 24 | (sbox[(r3 >>> 16) & 0xff] & 0xff) << 16
+					| (sbox[(r2 >>> 8) & 0xff] & 0xff) << 8 | (sbox[r1 & 0xff] & 0xff)) ^ k[ki];
+			s1 = ((sbox[r1 >>> 24] & 0xff) << 24 | (sbox[(r0 >>> 16) & 0xff] & 0xff) << 16
+					| (sbox[(r3 >>> 8) & 0xff] & 0xff) << 8 | (sbox[r2 & 0xff] & 0xff)) ^ k[ki + 1];
+			s2 = ((sbox[r2 >>> 24] & 0xff) << 24 | (sbox[(r1 >>> 16) & 0xff] & 0xff) << 16
+					| (sbox[(r0 >>> 8) & 0xff] & 0xff) << 8 | (sbox[r3 & 0xff] & 0xff)) ^ k[ki + 2];
+			s3 = ((sbox[r3 >>> 24] & 0xff) << 24 | (sbox[(r2 >>> 16) & 0xff] & 0xff) << 16
+					| (sbox[(r1 >>> 8) & 0xff] & 0xff) << 8 | (sbox[r0 & 0xff] & 0xff)) ^ k[ki + 3];
+
+			store(s0, s1, s2, s3, dst, dstoff);
+		}
+	}
+
+	private static void store(int s0, int s1, int s2, int s3, byte[] dst, int off)
+	{
+		dst[off] = (byte) (s0 >>> 24);
+		dst[off + 1] = (byte) (s0 >>> 16);
+		dst[off + 2] = (byte) (s0 >>> 8);
+		dst[off + 3] = (byte) s0;
+		dst[off + 4] = (byte) (s1 >>> 24);
+		dst[off + 5] = (byte) (s1 >>> 16);
+		dst[off + 6] = (byte) (s1 >>> 8);
+		dst[off + 7] = (byte) s1;
+		dst[off + 8] = (byte) (s2 >>> 24);
+		dst[off + 9] = (byte) (s2 >>> 16);
+		dst[off + 10] = (byte) (s2 >>> 8);
+		dst[off + 11] = (byte) s2;
+		dst[off + 12] = (byte) (s3 >>> 24);
+		dst[off + 13] = (byte) (s3 >>> 16);
+		dst[off + 14] = (byte) (s3 >>> 8);
+		dst[off + 15] = (byte) s3;
+	}
+}
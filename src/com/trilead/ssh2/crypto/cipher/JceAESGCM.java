@@ -0,0 +1,193 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.trilead.ssh2.log.Logger;
+
+/**
+ * JceAESGCM. AES-GCM through a platform {@link Cipher}, which is a lot
+ * faster than {@link AESGCM} where the CPU can multiply in GF(2^128).
+ * <p>
+ * <code>GCMParameterSpec</code> and <code>Cipher.updateAAD()</code> are
+ * newer than the platform versions we run on, so they are looked up by
+ * reflection. Like {@link JceBlockCipher}, the platform has to produce the
+ * same packets as the bundled implementation once before it is used.
+ */
+public class JceAESGCM implements AEADCipher
+{
+	private static final Logger log = Logger.getLogger(JceAESGCM.class);
+
+	private static final int TAG_SIZE = 16;
+
+	private static Constructor<?> gcmParameterSpec;
+	private static Method updateAAD;
+
+	/** <code>null</code> until checked, then whether the platform is usable */
+	private static Boolean usable;
+
+	private final Cipher cipher;
+	private final SecretKeySpec key;
+	private final int mode;
+	private final byte[] iv = new byte[12];
+
+	private JceAESGCM(boolean encrypt, byte[] key, byte[] iv) throws Exception
+	{
+		this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		this.key = new SecretKeySpec(key, "AES");
+		this.mode = encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+		System.arraycopy(iv, 0, this.iv, 0, 12);
+	}
+
+	/**
+	 * Create a platform AES-GCM cipher if the platform has a working one.
+	 *
+	 * @return the cipher or <code>null</code> if the platform can't do it
+	 */
+	static synchronized AEADCipher create(boolean encrypt, byte[] key, byte[] iv)
+	{
+		if (usable == null)
+		{
+			usable = Boolean.valueOf(check());
+
+			if (log.isEnabled())
+				log.log(20, (usable.booleanValue() ? "Using" : "Not using") + " platform cipher for AES-GCM");
+		}
+
+		if (!usable.booleanValue())
+			return null;
+
+		try
+		{
+			return new JceAESGCM(encrypt, key, iv);
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Seal two packets with the platform and the bundled implementation,
+	 * with an invocation counter that carries in between, and open them
+	 * again in place.
+	 */
+	private static boolean check()
+	{
+		byte[] key = new byte[16];
+		for (int i = 0; i < key.length; i++)
+			key[i] = (byte) (i * 13 + 7);
+
+		byte[] iv = new byte[12];
+		for (int i = 0; i < iv.length; i++)
+			iv[i] = (i < 4) ? (byte) i : (byte) 0xff;
+		iv[4] = 0;
+
+		try
+		{
+			Class<?> spec = Class.forName("javax.crypto.spec.GCMParameterSpec");
+			gcmParameterSpec = spec.getConstructor(new Class<?>[] { Integer.TYPE, byte[].class });
+			updateAAD = Cipher.class.getMethod("updateAAD", new Class<?>[] { byte[].class, Integer.TYPE, Integer.TYPE });
+
+			AEADCipher expected = new AESGCM(key, iv);
+			AEADCipher encrypt = new JceAESGCM(true, key, iv);
+			AEADCipher decrypt = new JceAESGCM(false, key, iv);
+
+			for (int round = 0; round < 2; round++)
+			{
+				int len = 16 * (round + 2) + 8;
+				byte[] a = new byte[4 + len + TAG_SIZE];
+				a[3] = (byte) len;
+				for (int i = 4; i < 4 + len; i++)
+					a[i] = (byte) (i * 31 + round);
+				byte[] plain = new byte[a.length];
+				System.arraycopy(a, 0, plain, 0, a.length);
+				byte[] b = new byte[a.length];
+				System.arraycopy(a, 0, b, 0, a.length);
+
+				expected.encryptPacket(round, a, 0, len);
+				encrypt.encryptPacket(round, b, 0, len);
+
+				if (!Arrays.equals(a, b))
+					return false;
+
+				decrypt.decryptPacket(round, b, 0, len);
+				for (int i = 0; i < 4 + len; i++)
+					if (b[i] != plain[i])
+						return false;
+			}
+
+			return true;
+		}
+		catch (Exception e)
+		{
+			return false;
+		}
+	}
+
+	public int getBlockSize()
+	{
+		return 16;
+	}
+
+	public int getTagSize()
+	{
+		return TAG_SIZE;
+	}
+
+	public void encryptPacket(int seq, byte[] packet, int off, int len)
+	{
+		try
+		{
+			start(packet, off);
+			cipher.doFinal(packet, off + 4, len, packet, off + 4);
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException("Platform AES-GCM failed: " + e);
+		}
+	}
+
+	public int decryptLength(int seq, byte[] packet, int off)
+	{
+		return ((packet[off] & 0xff) << 24) | ((packet[off + 1] & 0xff) << 16) | ((packet[off + 2] & 0xff) << 8)
+				| (packet[off + 3] & 0xff);
+	}
+
+	public void decryptPacket(int seq, byte[] packet, int off, int len) throws IOException
+	{
+		try
+		{
+			start(packet, off);
+			cipher.doFinal(packet, off + 4, len + TAG_SIZE, packet, off + 4);
+		}
+		catch (Exception e)
+		{
+			throw (IOException) new IOException("Remote sent corrupt MAC.").initCause(e);
+		}
+	}
+
+	/**
+	 * Set up the cipher for the next nonce, with the packet length as
+	 * associated data, and move on the invocation counter.
+	 */
+	private void start(byte[] packet, int off) throws Exception
+	{
+		cipher.init(mode, key, (AlgorithmParameterSpec) gcmParameterSpec.newInstance(new Object[] {
+				Integer.valueOf(TAG_SIZE * 8), iv }));
+		updateAAD.invoke(cipher, new Object[] { packet, Integer.valueOf(off), Integer.valueOf(4) });
+
+		for (int i = 11; i >= 4; i--)
+		{
+			iv[i]++;
+			if (iv[i] != 0)
+				break;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.trilead.ssh2.crypto.cipher;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.trilead.ssh2.log.Logger;
+
+/**
+ * JceBlockCipher. Runs a cipher in CBC or CTR mode through a platform
+ * {@link Cipher}.
+ * <p>
+ * Before a transformation is used for the first time it has to encrypt and
+ * decrypt a few blocks exactly like the bundled implementation does. That
+ * rules out providers whose CTR counter is narrower than the block, or that
+ * hold back output, either of which would break the connection later on.
+ */
+public class JceBlockCipher implements BlockCipher
+{
+	private static final Logger log = Logger.getLogger(JceBlockCipher.class);
+
+	/** Transformations that passed or failed the check, by SSH name. */
+	private static final Hashtable<String, Boolean> checked = new Hashtable<String, Boolean>();
+
+	private final Cipher cipher;
+	private final int blockSize;
+
+	private JceBlockCipher(Cipher cipher, int blockSize)
+	{
+		this.cipher = cipher;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Create a platform cipher if there is one that behaves.
+	 *
+	 * @param type SSH name of the cipher, e.g., "aes128-ctr"
+	 * @param algorithm JCE name of the block cipher, e.g., "AES"
+	 * @param reference bundled block cipher to check the platform against,
+	 *            not yet initialized
+	 * @return the cipher or <code>null</code> if the platform can't do it
+	 */
+	static BlockCipher create(String type, String algorithm, BlockCipher reference, boolean encrypt,
+			byte[] key, byte[] iv)
+	{
+		Boolean usable = checked.get(type);
+
+		if (usable == null)
+		{
+			usable = Boolean.valueOf(check(type, algorithm, reference, key.length, iv.length));
+			checked.put(type, usable);
+
+			if (log.isEnabled())
+				log.log(20, (usable.booleanValue() ? "Using" : "Not using") + " platform cipher for " + type);
+		}
+
+		if (!usable.booleanValue())
+			return null;
+
+		try
+		{
+			return new JceBlockCipher(getInstance(type, algorithm, encrypt, key, iv), iv.length);
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+
+	private static Cipher getInstance(String type, String algorithm, boolean encrypt, byte[] key, byte[] iv)
+			throws Exception
+	{
+		String mode = type.endsWith("-ctr") ? "CTR" : "CBC";
+		Cipher cipher = Cipher.getInstance(algorithm + "/" + mode + "/NoPadding");
+		cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, new SecretKeySpec(key, algorithm),
+				new IvParameterSpec(iv));
+		return cipher;
+	}
+
+	/**
+	 * Encrypt and decrypt a few blocks with the platform and compare with the
+	 * bundled cipher. The IV is picked so the CTR counter
+	 * carries out of its lowest 64 bits.
+	 */
+	private static boolean check(String type, String algorithm, BlockCipher reference, int keyLength, int blockSize)
+	{
+		byte[] key = new byte[keyLength];
+		for (int i = 0; i < keyLength; i++)
+			key[i] = (byte) (i * 13 + 7);
+
+		byte[] iv = new byte[blockSize];
+		for (int i = 0; i < blockSize; i++)
+			iv[i] = (i < blockSize - 8) ? (byte) i : (byte) 0xff;
+
+		byte[] plain = new byte[blockSize * 4];
+		for (int i = 0; i < plain.length; i++)
+			plain[i] = (byte) (i * 31 + 1);
+
+		try
+		{
+			boolean ctr = type.endsWith("-ctr");
+			reference.init(ctr, key);
+			BlockCipher expected = ctr ? (BlockCipher) new CTRMode(reference, iv, true) : new CBCMode(reference, iv,
+					true);
+
+			byte[] cipherText = new byte[plain.length];
+			for (int off = 0; off < plain.length; off += blockSize)
+				expected.transformBlock(plain, off, cipherText, off);
+
+			/* one block and then the rest in bulk */
+			BlockCipher encrypt = new JceBlockCipher(getInstance(type, algorithm, true, key, iv), blockSize);
+			byte[] encrypted = new byte[plain.length];
+			encrypt.transformBlock(plain, 0, encrypted, 0);
+			encrypt.transform(plain, blockSize, encrypted, blockSize, plain.length - blockSize);
+
+			/* decrypt in place, which is how the packet streams use it */
+			BlockCipher decrypt = new JceBlockCipher(getInstance(type, algorithm, false, key, iv), blockSize);
+			byte[] decrypted = new byte[plain.length];
+			System.arraycopy(cipherText, 0, decrypted, 0, plain.length);
+			for (int off = 0; off < plain.length; off += blockSize)
+				decrypt.transformBlock(decrypted, off, decrypted, off);
+
+			return Arrays.equals(cipherText, encrypted) && Arrays.equals(plain, decrypted);
+		}
+		catch (Exception e)
+		{
+			return false;
+		}
+	}
+
+	public void init(boolean forEncryption, byte[] key)
+	{
+	}
+
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	public void transformBlock(byte[] src, int srcoff, byte[] dst, int dstoff)
+	{
+		transform(src, srcoff, dst, dstoff, blockSize);
+	}
+
+	public void transform(byte[] src, int srcoff, byte[] dst, int dstoff, int len)
+	{
+		try
+		{
+			if (cipher.update(src, srcoff, len, dst, dstoff) != len)
+				throw new IllegalStateException("Cipher did not return whole blocks");
+		}
+		catch (ShortBufferException e)
+		{
+			throw new IllegalStateException("Cipher output buffer too small");
+		}
+	}
+}
@@ -32,4 +32,9 @@ public class NullCipher implements BlockCipher
 	{
 		System.arraycopy(src, srcoff, dst, dstoff, blockSize);
 	}
+
+	public void transform(byte[] src, int srcoff, byte[] dst, int dstoff, int len)
+	{
+		System.arraycopy(src, srcoff, dst, dstoff, len);
+	}
 }
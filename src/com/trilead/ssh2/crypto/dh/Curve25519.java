@@ -0,0 +1,321 @@
+package com.trilead.ssh2.crypto.dh;
+
+/**
+ * Curve25519. The X25519 function from RFC 7748.
+ * <p>
+ * Field elements are ten limbs of alternately 26 and 25 bits, so that the
+ * product of two limbs and the sums of those products fit in a
+ * <code>long</code> and reductions mod 2^255 - 19 are shifts and a
+ * multiplication by 19. The Montgomery ladder swaps its operands with masks
+ * instead of branches, so every step does the same work whatever the bits of
+ * the scalar are, and neither time nor memory access depends on the private
+ * key.
+ */
+public class Curve25519
+{
+	/** Length of scalars and of u-coordinates */
+	public static final int KEY_SIZE = 32;
+
+	private static final int[] LIMB_BITS = { 26, 25, 26, 25, 26, 25, 26, 25, 26, 25 };
+
+	/** (486662 - 2) / 4 */
+	private static final int A24 = 121665;
+
+	private final long[] x1 = new long[10];
+	private final long[] x2 = new long[10];
+	private final long[] z2 = new long[10];
+	private final long[] x3 = new long[10];
+	private final long[] z3 = new long[10];
+
+	private final long[] a = new long[10];
+	private final long[] aa = new long[10];
+	private final long[] b = new long[10];
+	private final long[] bb = new long[10];
+	private final long[] c = new long[10];
+	private final long[] d = new long[10];
+	private final long[] e = new long[10];
+
+	/** Unreduced product of two elements */
+	private final long[] t = new long[19];
+
+	private Curve25519()
+	{
+	}
+
+	/**
+	 * Multiply the base point by a scalar, which is how public keys are made.
+	 * 
+	 * @param result 32 bytes of u-coordinate
+	 * @param scalar 32 bytes of private key, clamped here
+	 */
+	public static void scalarMultBase(byte[] result, byte[] scalar)
+	{
+		byte[] base = new byte[KEY_SIZE];
+		base[0] = 9;
+		scalarMult(result, scalar, base);
+	}
+
+	/**
+	 * Multiply a point by a scalar.
+	 * 
+	 * @param result 32 bytes of u-coordinate
+	 * @param scalar 32 bytes of private key, clamped here
+	 * @param u 32 bytes of u-coordinate of the point
+	 */
+	public static void scalarMult(byte[] result, byte[] scalar, byte[] u)
+	{
+		if (scalar.length != KEY_SIZE || u.length != KEY_SIZE || result.length != KEY_SIZE)
+			throw new IllegalArgumentException("Curve25519 keys are " + KEY_SIZE + " bytes");
+
+		new Curve25519().ladder(result, scalar, u);
+	}
+
+	private void ladder(byte[] result, byte[] scalar, byte[] u)
+	{
+		byte[] k = new byte[KEY_SIZE];
+		System.arraycopy(scalar, 0, k, 0, KEY_SIZE);
+		k[0] &= 248;
+		k[31] &= 127;
+		k[31] |= 64;
+
+		decode(x1, u);
+		x2[0] = 1;
+		System.arraycopy(x1, 0, x3, 0, 10);
+		z3[0] = 1;
+
+		int swap = 0;
+
+		for (int pos = 254; pos >= 0; pos--)
+		{
+			int bit = (k[pos >>> 3] >>> (pos & 7)) & 1;
+			swap ^= bit;
+			swap(x2, x3, swap);
+			swap(z2, z3, swap);
+			swap = bit;
+
+			add(a, x2, z2);
+			sub(b, x2, z2);
+			add(c, x3, z3);
+			sub(d, x3, z3);
+			mul(d, d, a);
+			mul(c, c, b);
+			mul(aa, a, a);
+			mul(bb, b, b);
+
+			/* x3 = (DA + CB)^2, z3 = x1 * (DA - CB)^2 */
+			add(x3, d, c);
+			mul(x3, x3, x3);
+			sub(z3, d, c);
+			mul(z3, z3, z3);
+			mul(z3, z3, x1);
+
+			/* x2 = AA * BB, z2 = E * (AA + a24 * E) */
+			mul(x2, aa, bb);
+			sub(e, aa, bb);
+			mulSmall(z2, e, A24);
+			add(z2, z2, aa);
+			mul(z2, z2, e);
+		}
+
+		swap(x2, x3, swap);
+		swap(z2, z3, swap);
+
+		invert(z2, z2);
+		mul(x2, x2, z2);
+		encode(result, x2);
+
+		for (int i = 0; i < KEY_SIZE; i++)
+			k[i] = 0;
+	}
+
+	private static void add(long[] h, long[] f, long[] g)
+	{
+		for (int i = 0; i < 10; i++)
+			h[i] = f[i] + g[i];
+	}
+
+	private static void sub(long[] h, long[] f, long[] g)
+	{
+		for (int i = 0; i < 10; i++)
+			h[i] = f[i] - g[i];
+	}
+
+	/**
+	 * Swap two elements if <code>swap</code> is 1, leave them if it is 0.
+	 */
+	private static void swap(long[] f, long[] g, int swap)
+	{
+		long mask = -swap;
+
+		for (int i = 0; i < 10; i++)
+		{
+			long x = mask & (f[i] ^ g[i]);
+			f[i] ^= x;
+			g[i] ^= x;
+		}
+	}
+
+	/**
+	 * h = f * g, any of which may be the same array. The inputs may be sums
+	 * or differences of two reduced elements, the output is reduced.
+	 */
+	private void mul(long[] h, long[] f, long[] g)
+	{
+		for (int i = 0; i < 19; i++)
+			t[i] = 0;
+
+		for (int i = 0; i < 10; i++)
+		{
+			long fi = f[i];
+
+			/*
+			 * A limb at an odd position is half a bit further up than the
+			 * sum of the positions says, so the product of two of them
+			 * counts twice.
+			 */
+
+			if ((i & 1) == 0)
+			{
+				for (int j = 0; j < 10; j++)
+					t[i + j] += fi * g[j];
+			}
+			else
+			{
+				long fi2 = fi << 1;
+
+				for (int j = 0; j < 10; j += 2)
+				{
+					t[i + j] += fi * g[j];
+					t[i + j + 1] += fi2 * g[j + 1];
+				}
+			}
+		}
+
+		/* 2^255 = 19 */
+
+		for (int i = 0; i < 9; i++)
+			h[i] = t[i] + 19 * t[i + 10];
+		h[9] = t[9];
+
+		carry(h);
+	}
+
+	private static void mulSmall(long[] h, long[] f, int n)
+	{
+		for (int i = 0; i < 10; i++)
+			h[i] = f[i] * n;
+
+		carry(h);
+	}
+
+	/**
+	 * Bring every limb back to its width, after which h[1] may still be a
+	 * few bits over.
+	 */
+	private static void carry(long[] h)
+	{
+		for (int i = 0; i < 9; i++)
+		{
+			long carry = h[i] >> LIMB_BITS[i];
+			h[i] -= carry << LIMB_BITS[i];
+			h[i + 1] += carry;
+		}
+
+		long carry = h[9] >> 25;
+		h[9] -= carry << 25;
+		h[0] += 19 * carry;
+
+		carry = h[0] >> 26;
+		h[0] -= carry << 26;
+		h[1] += carry;
+	}
+
+	/**
+	 * h = z^(p - 2) = 1 / z. The exponent is public, so the branch on its
+	 * bits gives nothing away.
+	 */
+	private void invert(long[] h, long[] z)
+	{
+		long[] r = new long[10];
+		r[0] = 1;
+
+		/* p - 2 = 2^255 - 21, all ones except for bits 2 and 4 */
+
+		for (int pos = 254; pos >= 0; pos--)
+		{
+			mul(r, r, r);
+
+			if (pos != 2 && pos != 4)
+				mul(r, r, z);
+		}
+
+		System.arraycopy(r, 0, h, 0, 10);
+	}
+
+	private static void decode(long[] h, byte[] in)
+	{
+		int pos = 0;
+
+		for (int i = 0; i < 10; i++)
+		{
+			long v = 0;
+
+			for (int j = 0; j < 5 && (pos >>> 3) + j < KEY_SIZE; j++)
+				v |= (long) (in[(pos >>> 3) + j] & 0xff) << (8 * j);
+
+			/* the top bit of the last byte is ignored */
+
+			h[i] = (v >>> (pos & 7)) & ((1L << LIMB_BITS[i]) - 1);
+			pos += LIMB_BITS[i];
+		}
+	}
+
+	/**
+	 * Write the fully reduced value of h, which must come out of
+	 * {@link #mul}.
+	 */
+	private static void encode(byte[] out, long[] h)
+	{
+		/* twice more, so that every limb is in range and h < 2^255 */
+
+		carry(h);
+		carry(h);
+
+		/* h + 19 >= 2^255 exactly when h >= p, and then h - p is its low bits */
+
+		long[] g = new long[10];
+		System.arraycopy(h, 0, g, 0, 10);
+		g[0] += 19;
+
+		for (int i = 0; i < 9; i++)
+		{
+			g[i + 1] += g[i] >> LIMB_BITS[i];
+			g[i] &= (1L << LIMB_BITS[i]) - 1;
+		}
+
+		long mask = -(g[9] >> 25);
+		g[9] &= (1L << 25) - 1;
+
+		for (int i = 0; i < 10; i++)
+			h[i] ^= mask & (h[i] ^ g[i]);
+
+		long acc = 0;
+		int accBits = 0;
+		int pos = 0;
+
+		for (int i = 0; i < 10; i++)
+		{
+			acc |= h[i] << accBits;
+			accBits += LIMB_BITS[i];
+
+			while (accBits >= 8)
+			{
+				out[pos++] = (byte) acc;
+				acc >>>= 8;
+				accBits -= 8;
+			}
+		}
+
+		out[pos] = (byte) acc;
+	}
+}
@@ -0,0 +1,54 @@
+package com.trilead.ssh2.crypto.dh;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Curve25519Exchange. <code>curve25519-sha256</code> with the bundled
+ * {@link Curve25519}, which takes about a millisecond where a 2048 bit
+ * <code>modPow()</code> takes hundreds.
+ */
+public class Curve25519Exchange extends EcdhExchange
+{
+	/* Client private */
+
+	byte[] x;
+
+	public void init(SecureRandom rnd)
+	{
+		k = null;
+
+		x = new byte[Curve25519.KEY_SIZE];
+		rnd.nextBytes(x);
+
+		clientPublic = new byte[Curve25519.KEY_SIZE];
+		Curve25519.scalarMultBase(clientPublic, x);
+	}
+
+	public void setF(byte[] f)
+	{
+		if (clientPublic == null)
+			throw new IllegalStateException("EcdhExchange not initialized!");
+
+		if (f.length != Curve25519.KEY_SIZE)
+			throw new IllegalArgumentException("Invalid f specified!");
+
+		byte[] secret = new byte[Curve25519.KEY_SIZE];
+		Curve25519.scalarMult(secret, x, f);
+
+		/* a point of small order gives zero, whatever our key is */
+
+		int bits = 0;
+		for (int i = 0; i < secret.length; i++)
+			bits |= secret[i];
+
+		if (bits == 0)
+			throw new IllegalArgumentException("Invalid f specified!");
+
+		this.serverPublic = f;
+
+		/* RFC 8731 reads the secret as a big endian number, unlike the curve */
+
+		this.k = new BigInteger(1, secret);
+	}
+}
@@ -76,6 +76,15 @@ public class DhExchange
 		else
 			throw new IllegalArgumentException("Unknown DH group " + group);
 
+		BigInteger[] pair = DhKeyPairPool.take(p, g);
+
+		if (pair != null)
+		{
+			x = pair[0];
+			e = pair[1];
+			return;
+		}
+
 		x = new BigInteger(p.bitLength() - 1, rnd);
 
 		e = g.modPow(x, p);
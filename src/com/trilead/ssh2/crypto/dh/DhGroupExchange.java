@@ -44,6 +44,15 @@ public class DhGroupExchange
 	{
 		k = null;
 
+		BigInteger[] pair = DhKeyPairPool.take(p, g);
+
+		if (pair != null)
+		{
+			x = pair[0];
+			e = pair[1];
+			return;
+		}
+
 		x = new BigInteger(p.bitLength() - 1, rnd);
 		e = g.modPow(x, p);
 	}
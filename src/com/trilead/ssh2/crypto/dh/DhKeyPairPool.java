@@ -0,0 +1,251 @@
+package com.trilead.ssh2.crypto.dh;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import com.trilead.ssh2.log.Logger;
+
+/**
+ * DhKeyPairPool. Diffie-Hellman key pairs worked out ahead of time, so that
+ * {@link DhExchange} and {@link DhGroupExchange} don't have to wait for a
+ * 2048 bit <code>modPow()</code> while connecting.
+ * <p>
+ * A low priority background thread keeps up to {@link #PAIRS_PER_GROUP}
+ * pairs ready for the last few groups a key exchange actually used. With the
+ * elliptic curve methods preferred that is usually none, and then nothing is
+ * worked out at all. Every pair is given out once, and pairs and groups
+ * unused for {@link #MAX_AGE} are forgotten. When the pool is empty the
+ * exchange computes its own pair as before.
+ */
+public class DhKeyPairPool
+{
+	private static final Logger log = Logger.getLogger(DhKeyPairPool.class);
+
+	/** Pairs kept ready for each group */
+	public static final int PAIRS_PER_GROUP = 2;
+
+	/** Groups remembered */
+	public static final int MAX_GROUPS = 4;
+
+	/** Milliseconds before an unused pair or group is forgotten */
+	public static final long MAX_AGE = 60 * 60 * 1000L;
+
+	private static class Group
+	{
+		final BigInteger p;
+		final BigInteger g;
+		final LinkedList<Pair> pairs = new LinkedList<Pair>();
+		long used;
+
+		Group(BigInteger p, BigInteger g)
+		{
+			this.p = p;
+			this.g = g;
+		}
+	}
+
+	private static class Pair
+	{
+		final BigInteger x;
+		final BigInteger e;
+		final long created;
+
+		Pair(BigInteger x, BigInteger e, long created)
+		{
+			this.x = x;
+			this.e = e;
+			this.created = created;
+		}
+	}
+
+	/** Most recently used group first */
+	private static final LinkedList<Group> groups = new LinkedList<Group>();
+
+	private static SecureRandom rnd;
+
+	private static Thread worker;
+
+	/**
+	 * Fill the pool in the background, e.g. while the user is still typing a
+	 * hostname or while the network is down. Does nothing unless a recent
+	 * key exchange used Diffie-Hellman.
+	 */
+	public static synchronized void prepare()
+	{
+		expire(System.currentTimeMillis());
+
+		if (groups.isEmpty() == false)
+			startWorker();
+	}
+
+	/**
+	 * Remember a group and fill the pool for it in the background.
+	 */
+	public static synchronized void prepare(BigInteger p, BigInteger g)
+	{
+		findGroup(p, g);
+		prepare();
+	}
+
+	/**
+	 * @return how many pairs are ready for the group
+	 */
+	public static synchronized int getAvailable(BigInteger p, BigInteger g)
+	{
+		expire(System.currentTimeMillis());
+
+		for (Group group : groups)
+		{
+			if (group.p.equals(p) && group.g.equals(g))
+				return group.pairs.size();
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Forget every group and throw away every pair that is ready.
+	 */
+	public static synchronized void clear()
+	{
+		groups.clear();
+	}
+
+	/**
+	 * Take a pair for the group out of the pool, and have it topped up again
+	 * for the next connection or key exchange. This is what puts a group
+	 * into the pool in the first place.
+	 * 
+	 * @return <code>{ x, e }</code>, or <code>null</code> if none is ready
+	 */
+	static synchronized BigInteger[] take(BigInteger p, BigInteger g)
+	{
+		long now = System.currentTimeMillis();
+		expire(now);
+
+		Group group = findGroup(p, g);
+		BigInteger[] pair = null;
+
+		if (group.pairs.size() > 0)
+		{
+			Pair ready = group.pairs.removeFirst();
+			pair = new BigInteger[] { ready.x, ready.e };
+		}
+
+		if (log.isEnabled())
+			log.log(50, "DH key pair for " + p.bitLength() + " bit group " + ((pair != null) ? "from pool" : "not ready"));
+
+		startWorker();
+
+		return pair;
+	}
+
+	/**
+	 * Move the group to the front of the list, adding it and dropping the
+	 * least recently used one if it is new.
+	 */
+	private static Group findGroup(BigInteger p, BigInteger g)
+	{
+		long now = System.currentTimeMillis();
+
+		for (Iterator<Group> i = groups.iterator(); i.hasNext();)
+		{
+			Group group = i.next();
+
+			if (group.p.equals(p) && group.g.equals(g))
+			{
+				i.remove();
+				groups.addFirst(group);
+				group.used = now;
+				return group;
+			}
+		}
+
+		Group group = new Group(p, g);
+		group.used = now;
+		groups.addFirst(group);
+
+		if (groups.size() > MAX_GROUPS)
+			groups.removeLast();
+
+		return group;
+	}
+
+	private static void expire(long now)
+	{
+		for (Iterator<Group> g = groups.iterator(); g.hasNext();)
+		{
+			Group group = g.next();
+
+			if (now - group.used > MAX_AGE)
+			{
+				g.remove();
+				continue;
+			}
+
+			for (Iterator<Pair> i = group.pairs.iterator(); i.hasNext();)
+			{
+				if (now - i.next().created > MAX_AGE)
+					i.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return a group that is short of pairs, or <code>null</code> when the
+	 *         pool is full
+	 */
+	private static synchronized Group nextGroup()
+	{
+		expire(System.currentTimeMillis());
+
+		for (Group group : groups)
+		{
+			if (group.pairs.size() < PAIRS_PER_GROUP)
+				return group;
+		}
+
+		worker = null;
+		return null;
+	}
+
+	private static synchronized void add(Group group, Pair pair)
+	{
+		/* the group may have been dropped meanwhile, then so is the pair */
+
+		if (group.pairs.size() < PAIRS_PER_GROUP)
+			group.pairs.addLast(pair);
+	}
+
+	private static void startWorker()
+	{
+		if (worker != null)
+			return;
+
+		if (rnd == null)
+			rnd = new SecureRandom();
+
+		worker = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				Group group;
+
+				while ((group = nextGroup()) != null)
+				{
+					BigInteger x = new BigInteger(group.p.bitLength() - 1, rnd);
+					BigInteger e = group.g.modPow(x, group.p);
+
+					add(group, new Pair(x, e, System.currentTimeMillis()));
+				}
+			}
+		});
+
+		worker.setName("DhKeyPairPool");
+		worker.setDaemon(true);
+		worker.setPriority(Thread.MIN_PRIORITY);
+		worker.start();
+	}
+}
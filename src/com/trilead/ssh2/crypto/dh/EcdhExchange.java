@@ -0,0 +1,128 @@
+package com.trilead.ssh2.crypto.dh;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import com.trilead.ssh2.crypto.digest.HashForSSH2Types;
+import com.trilead.ssh2.log.Logger;
+
+/**
+ * EcdhExchange. The client side of the elliptic curve key exchanges,
+ * <code>curve25519-sha256</code> from RFC 8731 and
+ * <code>ecdh-sha2-nistp256</code> from RFC 5656. Both send the public keys
+ * as strings and hash the exchange with SHA-256; they differ in the curve
+ * and in how the shared secret becomes K.
+ */
+public abstract class EcdhExchange
+{
+	private static final Logger log = Logger.getLogger(EcdhExchange.class);
+
+	/* Client public */
+
+	byte[] clientPublic;
+
+	/* Server public */
+
+	byte[] serverPublic;
+
+	/* Shared secret */
+
+	BigInteger k;
+
+	/**
+	 * @return whether <code>algo</code> is an elliptic curve key exchange
+	 *         that can be done here
+	 */
+	public static boolean isSupported(String algo)
+	{
+		if ("curve25519-sha256".equals(algo) || "curve25519-sha256@libssh.org".equals(algo))
+			return true;
+
+		if ("ecdh-sha2-nistp256".equals(algo))
+			return JceEcdhExchange.isAvailable();
+
+		return false;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the algorithm is not supported
+	 */
+	public static EcdhExchange getInstance(String algo)
+	{
+		if ("curve25519-sha256".equals(algo) || "curve25519-sha256@libssh.org".equals(algo))
+			return new Curve25519Exchange();
+
+		if ("ecdh-sha2-nistp256".equals(algo) && JceEcdhExchange.isAvailable())
+			return new JceEcdhExchange();
+
+		throw new IllegalArgumentException("Unknown ECDH algorithm " + algo);
+	}
+
+	/**
+	 * Make a new key pair.
+	 */
+	public abstract void init(SecureRandom rnd);
+
+	/**
+	 * Work out the shared secret from the server's public key.
+	 * 
+	 * @throws IllegalArgumentException if the key is not a point we accept
+	 */
+	public abstract void setF(byte[] serverPublic);
+
+	/**
+	 * @return Returns the client's public key, Q_C.
+	 * @throws IllegalStateException
+	 */
+	public byte[] getE()
+	{
+		if (clientPublic == null)
+			throw new IllegalStateException("EcdhExchange not initialized!");
+
+		return clientPublic;
+	}
+
+	/**
+	 * @return Returns the shared secret k.
+	 * @throws IllegalStateException
+	 */
+	public BigInteger getK()
+	{
+		if (k == null)
+			throw new IllegalStateException("Shared secret not yet known, need f first!");
+
+		return k;
+	}
+
+	/**
+	 * @return the hash for the exchange hash and the key derivation
+	 */
+	public String getHashType()
+	{
+		return "SHA256";
+	}
+
+	public byte[] calculateH(byte[] clientversion, byte[] serverversion, byte[] clientKexPayload,
+			byte[] serverKexPayload, byte[] hostKey) throws UnsupportedEncodingException
+	{
+		HashForSSH2Types hash = new HashForSSH2Types(getHashType());
+
+		if (log.isEnabled())
+		{
+			log.log(90, "Client: '" + new String(clientversion, "ISO-8859-1") + "'");
+			log.log(90, "Server: '" + new String(serverversion, "ISO-8859-1") + "'");
+		}
+
+		hash.updateByteString(clientversion);
+		hash.updateByteString(serverversion);
+		hash.updateByteString(clientKexPayload);
+		hash.updateByteString(serverKexPayload);
+		hash.updateByteString(hostKey);
+		hash.updateByteString(clientPublic);
+		hash.updateByteString(serverPublic);
+		hash.updateBigInt(k);
+
+		return hash.getDigest();
+	}
+}
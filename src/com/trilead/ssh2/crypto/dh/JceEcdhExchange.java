@@ -0,0 +1,195 @@
+package com.trilead.ssh2.crypto.dh;
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.EllipticCurve;
+import java.util.Arrays;
+
+import javax.crypto.KeyAgreement;
+
+import com.trilead.ssh2.log.Logger;
+
+/**
+ * JceEcdhExchange. <code>ecdh-sha2-nistp256</code> through the platform's
+ * <code>KeyAgreement</code>. There is no bundled P-256, so this is only
+ * offered where the platform has a working one, which is checked once by
+ * letting two of its key pairs agree.
+ */
+public class JceEcdhExchange extends EcdhExchange
+{
+	private static final Logger log = Logger.getLogger(JceEcdhExchange.class);
+
+	private static final String CURVE = "secp256r1";
+
+	private static final int FIELD_SIZE = 32;
+
+	/** <code>null</code> until checked, then whether the platform is usable */
+	private static Boolean usable;
+
+	/* Client private */
+
+	PrivateKey x;
+
+	ECParameterSpec params;
+
+	static synchronized boolean isAvailable()
+	{
+		if (usable == null)
+		{
+			usable = Boolean.valueOf(check());
+
+			if (log.isEnabled())
+				log.log(20, (usable.booleanValue() ? "Using" : "Not using") + " platform ECDH for " + CURVE);
+		}
+
+		return usable.booleanValue();
+	}
+
+	private static boolean check()
+	{
+		try
+		{
+			SecureRandom rnd = new SecureRandom();
+			KeyPair a = generate(rnd);
+			KeyPair b = generate(rnd);
+
+			byte[] ab = agree(a.getPrivate(), b.getPublic());
+			byte[] ba = agree(b.getPrivate(), a.getPublic());
+
+			return ab.length == FIELD_SIZE && Arrays.equals(ab, ba);
+		}
+		catch (Exception e)
+		{
+			return false;
+		}
+		catch (LinkageError e)
+		{
+			return false;
+		}
+	}
+
+	private static KeyPair generate(SecureRandom rnd) throws Exception
+	{
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+		kpg.initialize(new ECGenParameterSpec(CURVE), rnd);
+		return kpg.generateKeyPair();
+	}
+
+	private static byte[] agree(PrivateKey priv, PublicKey pub) throws Exception
+	{
+		KeyAgreement ka = KeyAgreement.getInstance("ECDH");
+		ka.init(priv);
+		ka.doPhase(pub, true);
+		return ka.generateSecret();
+	}
+
+	public void init(SecureRandom rnd)
+	{
+		k = null;
+
+		KeyPair kp;
+
+		try
+		{
+			kp = generate(rnd);
+		}
+		catch (Exception e)
+		{
+			throw new IllegalStateException("Cannot generate " + CURVE + " key pair: " + e.getMessage());
+		}
+
+		ECPublicKey pub = (ECPublicKey) kp.getPublic();
+
+		x = kp.getPrivate();
+		params = pub.getParams();
+		clientPublic = encodePoint(pub.getW());
+	}
+
+	public void setF(byte[] f)
+	{
+		if (clientPublic == null)
+			throw new IllegalStateException("EcdhExchange not initialized!");
+
+		ECPoint w = decodePoint(f);
+
+		if (!isOnCurve(w, params.getCurve()))
+			throw new IllegalArgumentException("Invalid f specified!");
+
+		byte[] secret;
+
+		try
+		{
+			PublicKey pub = KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(w, params));
+			secret = agree(x, pub);
+		}
+		catch (Exception e)
+		{
+			throw (IllegalArgumentException) new IllegalArgumentException("Invalid f specified!").initCause(e);
+		}
+
+		this.serverPublic = f;
+		this.k = new BigInteger(1, secret);
+	}
+
+	/**
+	 * Uncompressed point, 0x04 || X || Y.
+	 */
+	private static byte[] encodePoint(ECPoint w)
+	{
+		byte[] out = new byte[1 + 2 * FIELD_SIZE];
+		out[0] = 4;
+		writeCoordinate(w.getAffineX(), out, 1);
+		writeCoordinate(w.getAffineY(), out, 1 + FIELD_SIZE);
+		return out;
+	}
+
+	private static void writeCoordinate(BigInteger v, byte[] out, int off)
+	{
+		byte[] b = v.toByteArray();
+		int len = Math.min(b.length, FIELD_SIZE);
+		System.arraycopy(b, b.length - len, out, off + FIELD_SIZE - len, len);
+	}
+
+	private static ECPoint decodePoint(byte[] in)
+	{
+		if (in.length != 1 + 2 * FIELD_SIZE || in[0] != 4)
+			throw new IllegalArgumentException("Invalid f specified!");
+
+		byte[] x = new byte[FIELD_SIZE];
+		byte[] y = new byte[FIELD_SIZE];
+		System.arraycopy(in, 1, x, 0, FIELD_SIZE);
+		System.arraycopy(in, 1 + FIELD_SIZE, y, 0, FIELD_SIZE);
+
+		return new ECPoint(new BigInteger(1, x), new BigInteger(1, y));
+	}
+
+	/**
+	 * Not every platform checks the points it is given, so a server can't
+	 * get us to compute on another curve.
+	 */
+	private static boolean isOnCurve(ECPoint w, EllipticCurve curve)
+	{
+		BigInteger p = ((ECFieldFp) curve.getField()).getP();
+		BigInteger x = w.getAffineX();
+		BigInteger y = w.getAffineY();
+
+		if (x.compareTo(p) >= 0 || y.compareTo(p) >= 0)
+			return false;
+
+		BigInteger lhs = y.multiply(y).mod(p);
+		BigInteger rhs = x.multiply(x).add(curve.getA()).multiply(x).add(curve.getB()).mod(p);
+
+		return lhs.equals(rhs);
+	}
+}
@@ -24,7 +24,8 @@ public final class HMAC implements Digest
 
 		tmp = new byte[md.getDigestLength()];
 
-		final int BLOCKSIZE = 64;
+		/* SHA-512 works on 128 byte blocks, the others on 64 byte blocks */
+		final int BLOCKSIZE = (md instanceof SHA512) ? 128 : 64;
 
 		k_xor_ipad = new byte[BLOCKSIZE];
 		k_xor_opad = new byte[BLOCKSIZE];
@@ -0,0 +1,157 @@
+package com.trilead.ssh2.crypto.digest;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.trilead.ssh2.log.Logger;
+
+/**
+ * JceHMAC. An HMAC computed by a platform {@link Mac}, truncated to the
+ * size SSH asks for. Each algorithm is compared once with the bundled
+ * {@link HMAC} before it is used.
+ */
+public final class JceHMAC implements Digest
+{
+	private static final Logger log = Logger.getLogger(JceHMAC.class);
+
+	/** Algorithms that passed or failed the check, by JCE name. */
+	private static final Hashtable<String, Boolean> checked = new Hashtable<String, Boolean>();
+
+	private final Mac mac;
+	private final byte[] tmp;
+	private final int size;
+
+	private JceHMAC(String algorithm, byte[] key, int size) throws Exception
+	{
+		mac = Mac.getInstance(algorithm);
+		mac.init(new SecretKeySpec(key, algorithm));
+		tmp = new byte[mac.getMacLength()];
+		this.size = size;
+	}
+
+	/**
+	 * Create a platform HMAC if the platform has a working one.
+	 *
+	 * @param algorithm JCE name, e.g., "HmacSHA1"
+	 * @param reference fresh bundled hash to check the platform against
+	 * @param key the MAC key
+	 * @param size number of bytes of the MAC to keep
+	 * @return the HMAC or <code>null</code> if the platform can't do it
+	 */
+	static Digest create(String algorithm, Digest reference, byte[] key, int size)
+	{
+		Boolean usable = checked.get(algorithm);
+
+		if (usable == null)
+		{
+			usable = Boolean.valueOf(check(algorithm, reference, key.length));
+			checked.put(algorithm, usable);
+
+			if (log.isEnabled())
+				log.log(20, (usable.booleanValue() ? "Using" : "Not using") + " platform MAC for " + algorithm);
+		}
+
+		if (!usable.booleanValue())
+			return null;
+
+		try
+		{
+			return new JceHMAC(algorithm, key, size);
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+
+	private static boolean check(String algorithm, Digest reference, int keyLength)
+	{
+		byte[] key = new byte[keyLength];
+		for (int i = 0; i < keyLength; i++)
+			key[i] = (byte) (i * 13 + 7);
+
+		byte[] data = new byte[200];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 31 + 1);
+
+		try
+		{
+			HMAC expected = new HMAC(reference, key, reference.getDigestLength());
+			JceHMAC actual = new JceHMAC(algorithm, key, reference.getDigestLength());
+
+			byte[] expectedMac = new byte[expected.getDigestLength()];
+			byte[] actualMac = new byte[expected.getDigestLength()];
+
+			/* twice, to make sure the platform MAC is ready for reuse */
+			for (int round = 0; round < 2; round++)
+			{
+				expected.reset();
+				expected.update((byte) round);
+				expected.update(data, 0, data.length);
+				expected.digest(expectedMac);
+
+				actual.reset();
+				actual.update((byte) round);
+				actual.update(data, 0, data.length);
+				actual.digest(actualMac);
+
+				if (!Arrays.equals(expectedMac, actualMac))
+					return false;
+			}
+
+			return true;
+		}
+		catch (Exception e)
+		{
+			return false;
+		}
+	}
+
+	public final int getDigestLength()
+	{
+		return size;
+	}
+
+	public final void update(byte b)
+	{
+		mac.update(b);
+	}
+
+	public final void update(byte[] b)
+	{
+		mac.update(b);
+	}
+
+	public final void update(byte[] b, int off, int len)
+	{
+		mac.update(b, off, len);
+	}
+
+	public final void reset()
+	{
+		mac.reset();
+	}
+
+	public final void digest(byte[] out)
+	{
+		digest(out, 0);
+	}
+
+	public final void digest(byte[] out, int off)
+	{
+		try
+		{
+			mac.doFinal(tmp, 0);
+		}
+		catch (ShortBufferException e)
+		{
+			throw new IllegalStateException("MAC output buffer too small");
+		}
+
+		System.arraycopy(tmp, 0, out, off, size);
+	}
+}
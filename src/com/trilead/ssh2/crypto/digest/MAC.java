@@ -1,6 +1,8 @@
 
 package com.trilead.ssh2.crypto.digest;
 
+import com.trilead.ssh2.crypto.PlatformCrypto;
+
 /**
  * MAC.
  * 
@@ -16,7 +18,28 @@ public final class MAC
 	{
 		/* Higher Priority First */
 
-		return new String[] { "hmac-sha1-96", "hmac-sha1", "hmac-md5-96", "hmac-md5" };
+		return new String[] { "hmac-sha2-256-etm@openssh.com", "hmac-sha2-512-etm@openssh.com",
+				"hmac-sha1-etm@openssh.com", "hmac-sha2-256", "hmac-sha2-512", "hmac-sha1-96", "hmac-sha1",
+				"hmac-md5-96", "hmac-md5" };
+	}
+
+	/**
+	 * @return whether the MAC is computed over the encrypted packet, with
+	 *         the packet length left unencrypted
+	 */
+	public final static boolean isEncryptThenMac(String type)
+	{
+		return type.endsWith("-etm@openssh.com");
+	}
+
+	/**
+	 * @return the MAC without an "-etm@openssh.com" suffix
+	 */
+	private static String getBaseType(String type)
+	{
+		if (isEncryptThenMac(type))
+			return type.substring(0, type.length() - "-etm@openssh.com".length());
+		return type;
 	}
 
 	public final static void checkMacList(String[] macs)
@@ -27,6 +50,12 @@ public final class MAC
 
 	public final static int getKeyLen(String type)
 	{
+		type = getBaseType(type);
+
+		if (type.equals("hmac-sha2-256"))
+			return 32;
+		if (type.equals("hmac-sha2-512"))
+			return 64;
 		if (type.equals("hmac-sha1"))
 			return 20;
 		if (type.equals("hmac-sha1-96"))
@@ -40,21 +69,31 @@ public final class MAC
 
 	public MAC(String type, byte[] key)
 	{
-		if (type.equals("hmac-sha1"))
+		type = getBaseType(type);
+
+		if (type.equals("hmac-sha2-256"))
 		{
-			mac = new HMAC(new SHA1(), key, 20);
+			mac = createHMAC("HmacSHA256", new SHA256(), key, 32);
+		}
+		else if (type.equals("hmac-sha2-512"))
+		{
+			mac = createHMAC("HmacSHA512", new SHA512(), key, 64);
+		}
+		else if (type.equals("hmac-sha1"))
+		{
+			mac = createHMAC("HmacSHA1", new SHA1(), key, 20);
 		}
 		else if (type.equals("hmac-sha1-96"))
 		{
-			mac = new HMAC(new SHA1(), key, 12);
+			mac = createHMAC("HmacSHA1", new SHA1(), key, 12);
 		}
 		else if (type.equals("hmac-md5"))
 		{
-			mac = new HMAC(new MD5(), key, 16);
+			mac = createHMAC("HmacMD5", new MD5(), key, 16);
 		}
 		else if (type.equals("hmac-md5-96"))
 		{
-			mac = new HMAC(new MD5(), key, 12);
+			mac = createHMAC("HmacMD5", new MD5(), key, 12);
 		}
 		else
 			throw new IllegalArgumentException("Unkown algorithm " + type);
@@ -62,6 +101,23 @@ public final class MAC
 		size = mac.getDigestLength();
 	}
 
+	/**
+	 * Use the platform's HMAC when allowed and available, otherwise ours.
+	 */
+	private static Digest createHMAC(String algorithm, Digest md, byte[] key, int size)
+	{
+		if (PlatformCrypto.isEnabled())
+		{
+			Digest platform = JceHMAC.create(algorithm, md, key, size);
+			if (platform != null)
+				return platform;
+
+			md.reset();
+		}
+
+		return new HMAC(md, key, size);
+	}
+
 	public final void initMac(int seq)
 	{
 		mac.reset();
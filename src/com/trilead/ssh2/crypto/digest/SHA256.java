@@ -0,0 +1,197 @@
+package com.trilead.ssh2.crypto.digest;
+
+/**
+ * SHA-256 implementation based on FIPS PUB 180-4.
+ * <p>
+ * Whole blocks are hashed straight from the caller's array, only a trailing
+ * partial block is copied. The message schedule is expanded into a reused
+ * array and the round state lives in local variables.
+ */
+public final class SHA256 implements Digest
+{
+	private static final int[] K = {
+		0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+		0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+		0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+		0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+		0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+		0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+		0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+		0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2 };
+
+	private int H0, H1, H2, H3, H4, H5, H6, H7;
+
+	private final int[] w = new int[64];
+	private final byte[] block = new byte[64];
+	private int blockPos;
+	private long byteCount;
+
+	public SHA256()
+	{
+		reset();
+	}
+
+	public final int getDigestLength()
+	{
+		return 32;
+	}
+
+	public final void reset()
+	{
+		H0 = 0x6a09e667;
+		H1 = 0xbb67ae85;
+		H2 = 0x3c6ef372;
+		H3 = 0xa54ff53a;
+		H4 = 0x510e527f;
+		H5 = 0x9b05688c;
+		H6 = 0x1f83d9ab;
+		H7 = 0x5be0cd19;
+
+		blockPos = 0;
+		byteCount = 0;
+	}
+
+	public final void update(byte b)
+	{
+		block[blockPos++] = b;
+		byteCount++;
+
+		if (blockPos == 64)
+		{
+			perform(block, 0);
+			blockPos = 0;
+		}
+	}
+
+	public final void update(byte[] b)
+	{
+		update(b, 0, b.length);
+	}
+
+	public final void update(byte[] b, int off, int len)
+	{
+		byteCount += len;
+
+		if (blockPos > 0)
+		{
+			int copy = Math.min(64 - blockPos, len);
+			System.arraycopy(b, off, block, blockPos, copy);
+			blockPos += copy;
+			off += copy;
+			len -= copy;
+
+			if (blockPos < 64)
+				return;
+
+			perform(block, 0);
+			blockPos = 0;
+		}
+
+		while (len >= 64)
+		{
+			perform(b, off);
+			off += 64;
+			len -= 64;
+		}
+
+		System.arraycopy(b, off, block, 0, len);
+		blockPos = len;
+	}
+
+	public final void digest(byte[] out)
+	{
+		digest(out, 0);
+	}
+
+	public final void digest(byte[] out, int off)
+	{
+		long bitCount = byteCount << 3;
+
+		block[blockPos++] = (byte) 0x80;
+
+		if (blockPos > 56)
+		{
+			while (blockPos < 64)
+				block[blockPos++] = 0;
+			perform(block, 0);
+			blockPos = 0;
+		}
+
+		while (blockPos < 56)
+			block[blockPos++] = 0;
+
+		putInt(block, 56, (int) (bitCount >>> 32));
+		putInt(block, 60, (int) bitCount);
+		perform(block, 0);
+
+		putInt(out, off, H0);
+		putInt(out, off + 4, H1);
+		putInt(out, off + 8, H2);
+		putInt(out, off + 12, H3);
+		putInt(out, off + 16, H4);
+		putInt(out, off + 20, H5);
+		putInt(out, off + 24, H6);
+		putInt(out, off + 28, H7);
+
+		reset();
+	}
+
+	private static void putInt(byte[] b, int pos, int val)
+	{
+		b[pos] = (byte) (val >> 24);
+		b[pos + 1] = (byte) (val >> 16);
+		b[pos + 2] = (byte) (val >> 8);
+		b[pos + 3] = (byte) val;
+	}
+
+	private void perform(byte[] b, int off)
+	{
+		for (int t = 0; t < 16; t++, off += 4)
+			w[t] = ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8)
+					| (b[off + 3] & 0xff);
+
+		for (int t = 16; t < 64; t++)
+		{
+			int x = w[t - 2];
+			int y = w[t - 15];
+			int s1 = ((x >>> 17) | (x << 15)) ^ ((x >>> 19) | (x << 13)) ^ (x >>> 10);
+			int s0 = ((y >>> 7) | (y << 25)) ^ ((y >>> 18) | (y << 14)) ^ (y >>> 3);
+			w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+		}
+
+		int A = H0;
+		int B = H1;
+		int C = H2;
+		int D = H3;
+		int E = H4;
+		int F = H5;
+		int G = H6;
+		int H = H7;
+
+		for (int t = 0; t < 64; t++)
+		{
+			int t1 = H + (((E >>> 6) | (E << 26)) ^ ((E >>> 11) | (E << 21)) ^ ((E >>> 25) | (E << 7)))
+					+ ((E & F) ^ (~E & G)) + K[t] + w[t];
+			int t2 = (((A >>> 2) | (A << 30)) ^ ((A >>> 13) | (A << 19)) ^ ((A >>> 22) | (A << 10)))
+					+ ((A & B) ^ (A & C) ^ (B & C));
+
+			H = G;
+			G = F;
+			F = E;
+			E = D + t1;
+			D = C;
+			C = B;
+			B = A;
+			A = t1 + t2;
+		}
+
+		H0 += A;
+		H1 += B;
+		H2 += C;
+		H3 += D;
+		H4 += E;
+		H5 += F;
+		H6 += G;
+		H7 += H;
+	}
+}
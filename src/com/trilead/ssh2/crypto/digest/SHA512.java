@@ -0,0 +1,214 @@
+package com.trilead.ssh2.crypto.digest;
+
+/**
+ * SHA-512 implementation based on FIPS PUB 180-4.
+ * <p>
+ * Same structure as {@link SHA256}, on 64 bit words and 128 byte blocks.
+ * The message length is kept in bytes, so only the low half of the 128 bit
+ * length field is ever non-zero.
+ */
+public final class SHA512 implements Digest
+{
+	private static final long[] K = {
+		0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+		0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+		0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+		0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+		0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+		0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+		0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+		0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+		0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+		0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+		0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+		0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+		0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+		0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+		0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+		0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+		0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+		0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+		0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+		0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L };
+
+	private long H0, H1, H2, H3, H4, H5, H6, H7;
+
+	private final long[] w = new long[80];
+	private final byte[] block = new byte[128];
+	private int blockPos;
+	private long byteCount;
+
+	public SHA512()
+	{
+		reset();
+	}
+
+	public final int getDigestLength()
+	{
+		return 64;
+	}
+
+	public final void reset()
+	{
+		H0 = 0x6a09e667f3bcc908L;
+		H1 = 0xbb67ae8584caa73bL;
+		H2 = 0x3c6ef372fe94f82bL;
+		H3 = 0xa54ff53a5f1d36f1L;
+		H4 = 0x510e527fade682d1L;
+		H5 = 0x9b05688c2b3e6c1fL;
+		H6 = 0x1f83d9abfb41bd6bL;
+		H7 = 0x5be0cd19137e2179L;
+
+		blockPos = 0;
+		byteCount = 0;
+	}
+
+	public final void update(byte b)
+	{
+		block[blockPos++] = b;
+		byteCount++;
+
+		if (blockPos == 128)
+		{
+			perform(block, 0);
+			blockPos = 0;
+		}
+	}
+
+	public final void update(byte[] b)
+	{
+		update(b, 0, b.length);
+	}
+
+	public final void update(byte[] b, int off, int len)
+	{
+		byteCount += len;
+
+		if (blockPos > 0)
+		{
+			int copy = Math.min(128 - blockPos, len);
+			System.arraycopy(b, off, block, blockPos, copy);
+			blockPos += copy;
+			off += copy;
+			len -= copy;
+
+			if (blockPos < 128)
+				return;
+
+			perform(block, 0);
+			blockPos = 0;
+		}
+
+		while (len >= 128)
+		{
+			perform(b, off);
+			off += 128;
+			len -= 128;
+		}
+
+		System.arraycopy(b, off, block, 0, len);
+		blockPos = len;
+	}
+
+	public final void digest(byte[] out)
+	{
+		digest(out, 0);
+	}
+
+	public final void digest(byte[] out, int off)
+	{
+		long bitCount = byteCount << 3;
+
+		block[blockPos++] = (byte) 0x80;
+
+		if (blockPos > 112)
+		{
+			while (blockPos < 128)
+				block[blockPos++] = 0;
+			perform(block, 0);
+			blockPos = 0;
+		}
+
+		while (blockPos < 120)
+			block[blockPos++] = 0;
+
+		putLong(block, 120, bitCount);
+		perform(block, 0);
+
+		putLong(out, off, H0);
+		putLong(out, off + 8, H1);
+		putLong(out, off + 16, H2);
+		putLong(out, off + 24, H3);
+		putLong(out, off + 32, H4);
+		putLong(out, off + 40, H5);
+		putLong(out, off + 48, H6);
+		putLong(out, off + 56, H7);
+
+		reset();
+	}
+
+	private static void putLong(byte[] b, int pos, long val)
+	{
+		for (int i = 7; i >= 0; i--)
+		{
+			b[pos + i] = (byte) val;
+			val >>>= 8;
+		}
+	}
+
+	private void perform(byte[] b, int off)
+	{
+		for (int t = 0; t < 16; t++, off += 8)
+		{
+			int hi = ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8)
+					| (b[off + 3] & 0xff);
+			int lo = ((b[off + 4] & 0xff) << 24) | ((b[off + 5] & 0xff) << 16) | ((b[off + 6] & 0xff) << 8)
+					| (b[off + 7] & 0xff);
+			w[t] = ((long) hi << 32) | (lo & 0xffffffffL);
+		}
+
+		for (int t = 16; t < 80; t++)
+		{
+			long x = w[t - 2];
+			long y = w[t - 15];
+			long s1 = ((x >>> 19) | (x << 45)) ^ ((x >>> 61) | (x << 3)) ^ (x >>> 6);
+			long s0 = ((y >>> 1) | (y << 63)) ^ ((y >>> 8) | (y << 56)) ^ (y >>> 7);
+			w[t] = s1 + w[t - 7] + s0 + w[t - 16];
+		}
+
+		long A = H0;
+		long B = H1;
+		long C = H2;
+		long D = H3;
+		long E = H4;
+		long F = H5;
+		long G = H6;
+		long H = H7;
+
+		for (int t = 0; t < 80; t++)
+		{
+			long t1 = H + (((E >>> 14) | (E << 50)) ^ ((E >>> 18) | (E << 46)) ^ ((E >>> 41) | (E << 23)))
+					+ ((E & F) ^ (~E & G)) + K[t] + w[t];
+			long t2 = (((A >>> 28) | (A << 36)) ^ ((A >>> 34) | (A << 30)) ^ ((A >>> 39) | (A << 25)))
+					+ ((A & B) ^ (A & C) ^ (B & C));
+
+			H = G;
+			G = F;
+			F = E;
+			E = D + t1;
+			D = C;
+			C = B;
+			B = A;
+			A = t1 + t2;
+		}
+
+		H0 += A;
+		H1 += B;
+		H2 += C;
+		H3 += D;
+		H4 += E;
+		H5 += F;
+		H6 += G;
+		H7 += H;
+	}
+}
@@ -0,0 +1,28 @@
+package com.trilead.ssh2.packets;
+
+/**
+ * PacketKexECDHInit.
+ */
+public class PacketKexECDHInit
+{
+	byte[] payload;
+
+	byte[] publicKey;
+
+	public PacketKexECDHInit(byte[] publicKey)
+	{
+		this.publicKey = publicKey;
+	}
+
+	public byte[] getPayload()
+	{
+		if (payload == null)
+		{
+			TypesWriter tw = new TypesWriter();
+			tw.writeByte(Packets.SSH_MSG_KEX_ECDH_INIT);
+			tw.writeString(publicKey, 0, publicKey.length);
+			payload = tw.getBytes();
+		}
+		return payload;
+	}
+}
@@ -11,10 +11,13 @@ import com.trilead.ssh2.compression.CompressionFactory;
 import com.trilead.ssh2.compression.ICompressor;
 import com.trilead.ssh2.crypto.CryptoWishList;
 import com.trilead.ssh2.crypto.KeyMaterial;
+import com.trilead.ssh2.crypto.cipher.AEADCipher;
 import com.trilead.ssh2.crypto.cipher.BlockCipher;
 import com.trilead.ssh2.crypto.cipher.BlockCipherFactory;
+import com.trilead.ssh2.crypto.cipher.EncryptThenMac;
 import com.trilead.ssh2.crypto.dh.DhExchange;
 import com.trilead.ssh2.crypto.dh.DhGroupExchange;
+import com.trilead.ssh2.crypto.dh.EcdhExchange;
 import com.trilead.ssh2.crypto.digest.MAC;
 import com.trilead.ssh2.log.Logger;
 import com.trilead.ssh2.packets.PacketKexDHInit;
@@ -24,6 +27,8 @@ import com.trilead.ssh2.packets.PacketKexDhGexInit;
 import com.trilead.ssh2.packets.PacketKexDhGexReply;
 import com.trilead.ssh2.packets.PacketKexDhGexRequest;
 import com.trilead.ssh2.packets.PacketKexDhGexRequestOld;
+import com.trilead.ssh2.packets.PacketKexECDHInit;
+import com.trilead.ssh2.packets.PacketKexECDHReply;
 import com.trilead.ssh2.packets.PacketKexInit;
 import com.trilead.ssh2.packets.PacketNewKeys;
 import com.trilead.ssh2.packets.Packets;
@@ -185,10 +190,14 @@ public class KexManager
 			log.log(20, "enc_algo_client_to_server=" + np.enc_algo_client_to_server);
 			log.log(20, "enc_algo_server_to_client=" + np.enc_algo_server_to_client);
 
-			np.mac_algo_client_to_server = getFirstMatch(client.mac_algorithms_client_to_server,
-					server.mac_algorithms_client_to_server);
-			np.mac_algo_server_to_client = getFirstMatch(client.mac_algorithms_server_to_client,
-					server.mac_algorithms_server_to_client);
+			/* AEAD ciphers authenticate packets themselves, there is no MAC to agree on */
+
+			if (BlockCipherFactory.isAEAD(np.enc_algo_client_to_server) == false)
+				np.mac_algo_client_to_server = getFirstMatch(client.mac_algorithms_client_to_server,
+						server.mac_algorithms_client_to_server);
+			if (BlockCipherFactory.isAEAD(np.enc_algo_server_to_client) == false)
+				np.mac_algo_server_to_client = getFirstMatch(client.mac_algorithms_server_to_client,
+						server.mac_algorithms_server_to_client);
 
 			log.log(20, "mac_algo_client_to_server=" + np.mac_algo_client_to_server);
 			log.log(20, "mac_algo_server_to_client=" + np.mac_algo_server_to_client);
@@ -253,15 +262,19 @@ public class KexManager
 	{
 		try
 		{
-			int mac_cs_key_len = MAC.getKeyLen(kxs.np.mac_algo_client_to_server);
+			int mac_cs_key_len = (kxs.np.mac_algo_client_to_server != null) ? MAC
+					.getKeyLen(kxs.np.mac_algo_client_to_server) : 0;
 			int enc_cs_key_len = BlockCipherFactory.getKeySize(kxs.np.enc_algo_client_to_server);
-			int enc_cs_block_len = BlockCipherFactory.getBlockSize(kxs.np.enc_algo_client_to_server);
+			int enc_cs_block_len = BlockCipherFactory.getIVSize(kxs.np.enc_algo_client_to_server);
 
-			int mac_sc_key_len = MAC.getKeyLen(kxs.np.mac_algo_server_to_client);
+			int mac_sc_key_len = (kxs.np.mac_algo_server_to_client != null) ? MAC
+					.getKeyLen(kxs.np.mac_algo_server_to_client) : 0;
 			int enc_sc_key_len = BlockCipherFactory.getKeySize(kxs.np.enc_algo_server_to_client);
-			int enc_sc_block_len = BlockCipherFactory.getBlockSize(kxs.np.enc_algo_server_to_client);
+			int enc_sc_block_len = BlockCipherFactory.getIVSize(kxs.np.enc_algo_server_to_client);
+
+			String hashType = (kxs.ecdh != null) ? kxs.ecdh.getHashType() : "SHA1";
 
-			km = KeyMaterial.create("SHA1", kxs.H, kxs.K, sessionId, enc_cs_key_len, enc_cs_block_len, mac_cs_key_len,
+			km = KeyMaterial.create(hashType, kxs.H, kxs.K, sessionId, enc_cs_key_len, enc_cs_block_len, mac_cs_key_len,
 					enc_sc_key_len, enc_sc_block_len, mac_sc_key_len);
 		}
 		catch (IllegalArgumentException e)
@@ -283,16 +296,28 @@ public class KexManager
 		PacketNewKeys ign = new PacketNewKeys();
 		tm.sendKexMessage(ign.getPayload());
 
-		BlockCipher cbc;
-		MAC mac;
+		BlockCipher cbc = null;
+		AEADCipher aead = null;
+		MAC mac = null;
 		ICompressor comp;
 
 		try
 		{
-			cbc = BlockCipherFactory.createCipher(kxs.np.enc_algo_client_to_server, true, km.enc_key_client_to_server,
-					km.initial_iv_client_to_server);
+			if (BlockCipherFactory.isAEAD(kxs.np.enc_algo_client_to_server))
+			{
+				aead = BlockCipherFactory.createAEADCipher(kxs.np.enc_algo_client_to_server, true,
+						km.enc_key_client_to_server, km.initial_iv_client_to_server);
+			}
+			else
+			{
+				cbc = BlockCipherFactory.createCipher(kxs.np.enc_algo_client_to_server, true,
+						km.enc_key_client_to_server, km.initial_iv_client_to_server);
 
-			mac = new MAC(kxs.np.mac_algo_client_to_server, km.integrity_key_client_to_server);
+				mac = new MAC(kxs.np.mac_algo_client_to_server, km.integrity_key_client_to_server);
+
+				if (MAC.isEncryptThenMac(kxs.np.mac_algo_client_to_server))
+					aead = new EncryptThenMac(cbc, mac);
+			}
 			
 			comp = CompressionFactory.createCompressor(kxs.np.comp_algo_client_to_server);
 
@@ -302,7 +327,10 @@ public class KexManager
 			throw new IOException("Fatal error during MAC startup!");
 		}
 
-		tm.changeSendCipher(cbc, mac);
+		if (aead != null)
+			tm.changeSendCipher(aead);
+		else
+			tm.changeSendCipher(cbc, mac);
 		tm.changeSendCompression(comp);
 		tm.kexFinished();
 	}
@@ -323,8 +351,14 @@ public class KexManager
 
 	public static final String[] getDefaultKexAlgorithmList()
 	{
-		return new String[] { "diffie-hellman-group-exchange-sha1", "diffie-hellman-group14-sha1",
-				"diffie-hellman-group1-sha1" };
+		/* The elliptic curves go first, they are much quicker than modPow() */
+
+		if (EcdhExchange.isSupported("ecdh-sha2-nistp256"))
+			return new String[] { "curve25519-sha256", "curve25519-sha256@libssh.org", "ecdh-sha2-nistp256",
+					"diffie-hellman-group-exchange-sha1", "diffie-hellman-group14-sha1", "diffie-hellman-group1-sha1" };
+
+		return new String[] { "curve25519-sha256", "curve25519-sha256@libssh.org",
+				"diffie-hellman-group-exchange-sha1", "diffie-hellman-group14-sha1", "diffie-hellman-group1-sha1" };
 	}
 
 	public static final void checkKexAlgorithmList(String[] algos)
@@ -340,6 +374,9 @@ public class KexManager
 			if ("diffie-hellman-group1-sha1".equals(algos[i]))
 				continue;
 
+			if (EcdhExchange.isSupported(algos[i]))
+				continue;
+
 			throw new IllegalArgumentException("Unknown kex algorithm '" + algos[i] + "'");
 		}
 	}
@@ -460,6 +497,17 @@ public class KexManager
 				return;
 			}
 
+			if (EcdhExchange.isSupported(kxs.np.kex_algo))
+			{
+				kxs.ecdh = EcdhExchange.getInstance(kxs.np.kex_algo);
+				kxs.ecdh.init(rnd);
+
+				PacketKexECDHInit kp = new PacketKexECDHInit(kxs.ecdh.getE());
+				tm.sendKexMessage(kp.getPayload());
+				kxs.state = 1;
+				return;
+			}
+
 			throw new IllegalStateException("Unkown KEX method!");
 		}
 
@@ -468,16 +516,28 @@ public class KexManager
 			if (km == null)
 				throw new IOException("Peer sent SSH_MSG_NEWKEYS, but I have no key material ready!");
 
-			BlockCipher cbc;
-			MAC mac;
+			BlockCipher cbc = null;
+			AEADCipher aead = null;
+			MAC mac = null;
 			ICompressor comp;
 
 			try
 			{
-				cbc = BlockCipherFactory.createCipher(kxs.np.enc_algo_server_to_client, false,
-						km.enc_key_server_to_client, km.initial_iv_server_to_client);
+				if (BlockCipherFactory.isAEAD(kxs.np.enc_algo_server_to_client))
+				{
+					aead = BlockCipherFactory.createAEADCipher(kxs.np.enc_algo_server_to_client, false,
+							km.enc_key_server_to_client, km.initial_iv_server_to_client);
+				}
+				else
+				{
+					cbc = BlockCipherFactory.createCipher(kxs.np.enc_algo_server_to_client, false,
+							km.enc_key_server_to_client, km.initial_iv_server_to_client);
 
-				mac = new MAC(kxs.np.mac_algo_server_to_client, km.integrity_key_server_to_client);
+					mac = new MAC(kxs.np.mac_algo_server_to_client, km.integrity_key_server_to_client);
+
+					if (MAC.isEncryptThenMac(kxs.np.mac_algo_server_to_client))
+						aead = new EncryptThenMac(cbc, mac);
+				}
 				
 				comp = CompressionFactory.createCompressor(kxs.np.comp_algo_server_to_client);
 			}
@@ -486,7 +546,10 @@ public class KexManager
 				throw new IOException("Fatal error during MAC startup!");
 			}
 
-			tm.changeRecvCipher(cbc, mac);
+			if (aead != null)
+				tm.changeRecvCipher(aead);
+			else
+				tm.changeRecvCipher(cbc, mac);
 			tm.changeRecvCompression(comp);
 
 			ConnectionInfo sci = new ConnectionInfo();
@@ -497,8 +560,10 @@ public class KexManager
 			sci.keyExchangeCounter = kexCount;
 			sci.clientToServerCryptoAlgorithm = kxs.np.enc_algo_client_to_server;
 			sci.serverToClientCryptoAlgorithm = kxs.np.enc_algo_server_to_client;
-			sci.clientToServerMACAlgorithm = kxs.np.mac_algo_client_to_server;
-			sci.serverToClientMACAlgorithm = kxs.np.mac_algo_server_to_client;
+			sci.clientToServerMACAlgorithm = (kxs.np.mac_algo_client_to_server != null) ? kxs.np.mac_algo_client_to_server
+					: "<implicit>";
+			sci.serverToClientMACAlgorithm = (kxs.np.mac_algo_server_to_client != null) ? kxs.np.mac_algo_server_to_client
+					: "<implicit>";
 			sci.serverHostKeyAlgorithm = kxs.np.server_host_key_algo;
 			sci.serverHostKey = kxs.hostkey;
 
@@ -633,6 +698,57 @@ public class KexManager
 			}
 		}
 
+		if (EcdhExchange.isSupported(kxs.np.kex_algo))
+		{
+			if (kxs.state == 1)
+			{
+				PacketKexECDHReply ecdhr = new PacketKexECDHReply(msg, 0, msglen);
+
+				kxs.hostkey = ecdhr.getHostKey();
+
+				if (verifier != null)
+				{
+					boolean vres = false;
+
+					try
+					{
+						vres = verifier.verifyServerHostKey(hostname, port, kxs.np.server_host_key_algo, kxs.hostkey);
+					}
+					catch (Exception e)
+					{
+						throw (IOException) new IOException(
+								"The server hostkey was not accepted by the verifier callback.").initCause(e);
+					}
+
+					if (vres == false)
+						throw new IOException("The server hostkey was not accepted by the verifier callback");
+				}
+
+				try
+				{
+					kxs.ecdh.setF(ecdhr.getF());
+
+					kxs.H = kxs.ecdh.calculateH(csh.getClientString(), csh.getServerString(), kxs.localKEX.getPayload(),
+							kxs.remoteKEX.getPayload(), ecdhr.getHostKey());
+				}
+				catch (IllegalArgumentException e)
+				{
+					throw (IOException) new IOException("KEX error.").initCause(e);
+				}
+
+				boolean res = verifySignature(ecdhr.getSignature(), kxs.hostkey);
+
+				if (res == false)
+					throw new IOException("Hostkey signature sent by remote is wrong!");
+
+				kxs.K = kxs.ecdh.getK();
+
+				finishKex();
+				kxs.state = -1;
+				return;
+			}
+		}
+
 		throw new IllegalStateException("Unkown KEX method! (" + kxs.np.kex_algo + ")");
 	}
 }
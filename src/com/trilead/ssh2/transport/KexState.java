@@ -6,6 +6,7 @@ import java.math.BigInteger;
 import com.trilead.ssh2.DHGexParameters;
 import com.trilead.ssh2.crypto.dh.DhExchange;
 import com.trilead.ssh2.crypto.dh.DhGroupExchange;
+import com.trilead.ssh2.crypto.dh.EcdhExchange;
 import com.trilead.ssh2.packets.PacketKexInit;
 
 /**
@@ -28,5 +29,6 @@ public class KexState
 	
 	public DhExchange dhx;
 	public DhGroupExchange dhgx;
+	public EcdhExchange ecdh;
 	public DHGexParameters dhgexParameters;
 }
@@ -10,5 +10,13 @@ import java.io.IOException;
  */
 public interface MessageHandler
 {
-	public void handleMessage(byte[] msg, int msglen) throws IOException;
+	/**
+	 * Called with each message for this handler, or with <code>msg</code>
+	 * set to <code>null</code> when the connection shuts down.
+	 * <p>
+	 * The message starts at <code>off</code> in a buffer that is reused for
+	 * the next packet as soon as this returns, so anything kept from it must
+	 * be copied.
+	 */
+	public void handleMessage(byte[] msg, int off, int msglen) throws IOException;
 }
@@ -0,0 +1,52 @@
+package com.trilead.ssh2.transport;
+
+/**
+ * PacketBufferPool. Receive buffers big enough for any packet, shared by all
+ * connections. A connection only holds one from the moment the first bytes
+ * of a packet arrive until the packet has been handled, so idle connections
+ * don't sit on 35 KB each and busy ones don't allocate.
+ */
+public class PacketBufferPool
+{
+	/** Longest packet we accept, its length field and the longest MAC */
+	public static final int BUFFER_SIZE = 4 + 35000 + 64;
+
+	/** Buffers kept for reuse, the rest are left to the garbage collector */
+	public static final int MAX_POOLED = 8;
+
+	private static final byte[][] pool = new byte[MAX_POOLED][];
+
+	private static int pooled = 0;
+
+	public static synchronized byte[] take()
+	{
+		if (pooled == 0)
+			return new byte[BUFFER_SIZE];
+
+		byte[] buffer = pool[--pooled];
+		pool[pooled] = null;
+		return buffer;
+	}
+
+	public static synchronized void release(byte[] buffer)
+	{
+		if (buffer.length != BUFFER_SIZE || pooled == MAX_POOLED)
+			return;
+
+		for (int i = 0; i < pooled; i++)
+		{
+			if (pool[i] == buffer)
+				throw new IllegalStateException("Packet buffer released twice");
+		}
+
+		pool[pooled++] = buffer;
+	}
+
+	/**
+	 * @return how many buffers are waiting to be reused
+	 */
+	public static synchronized int getPooled()
+	{
+		return pooled;
+	}
+}
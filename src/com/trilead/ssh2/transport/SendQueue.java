@@ -0,0 +1,104 @@
+package com.trilead.ssh2.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * SendQueue. A bounded queue of messages that any number of threads may add
+ * to without locking and that a single writer thread takes from in batches.
+ * <p>
+ * Producers claim a slot by advancing <code>tail</code> and then publish the
+ * message in it; the writer only takes messages up to the first slot that is
+ * still empty, so a claimed but not yet published slot just ends the batch.
+ */
+public class SendQueue
+{
+	private final AtomicReferenceArray<byte[]> slots;
+
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	/* Only written by the writer thread */
+
+	private volatile long head = 0;
+
+	/**
+	 * @param capacity a power of two
+	 */
+	public SendQueue(int capacity)
+	{
+		if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+			throw new IllegalArgumentException("Capacity must be a power of two");
+
+		slots = new AtomicReferenceArray<byte[]>(capacity);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return <code>false</code> if the queue is full
+	 */
+	public boolean offer(byte[] msg)
+	{
+		if (msg == null)
+			throw new NullPointerException();
+
+		while (true)
+		{
+			long t = tail.get();
+
+			if (t - head > mask)
+				return false;
+
+			if (tail.compareAndSet(t, t + 1))
+			{
+				slots.set((int) t & mask, msg);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Take as many messages as there are, up to the size of
+	 * <code>batch</code>. Must only be called by one thread.
+	 * 
+	 * @return how many messages were put into <code>batch</code>
+	 */
+	public int drain(byte[][] batch)
+	{
+		long h = head;
+		int n = 0;
+
+		while (n < batch.length)
+		{
+			int index = (int) h & mask;
+			byte[] msg = slots.get(index);
+
+			if (msg == null)
+				break;
+
+			/* empty the slot before handing it back to the producers */
+			slots.set(index, null);
+			batch[n++] = msg;
+			h++;
+		}
+
+		head = h;
+		return n;
+	}
+
+	public boolean isEmpty()
+	{
+		return tail.get() == head;
+	}
+
+	public int size()
+	{
+		return (int) (tail.get() - head);
+	}
+
+	public int getCapacity()
+	{
+		return mask + 1;
+	}
+}
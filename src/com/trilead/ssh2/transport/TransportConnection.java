@@ -7,9 +7,8 @@ import java.io.OutputStream;
 import java.security.SecureRandom;
 
 import com.trilead.ssh2.compression.ICompressor;
+import com.trilead.ssh2.crypto.cipher.AEADCipher;
 import com.trilead.ssh2.crypto.cipher.BlockCipher;
-import com.trilead.ssh2.crypto.cipher.CipherInputStream;
-import com.trilead.ssh2.crypto.cipher.CipherOutputStream;
 import com.trilead.ssh2.crypto.cipher.NullCipher;
 import com.trilead.ssh2.crypto.digest.MAC;
 import com.trilead.ssh2.log.Logger;
@@ -30,27 +29,41 @@ public class TransportConnection
 
 	int recv_seq_number = 0;
 
-	CipherInputStream cis;
+	/* Packets are decrypted where they are read to, this only buffers the socket */
 
-	CipherOutputStream cos;
+	final InputStream is;
+
+	final byte[] recv_input_buffer = new byte[2048];
+
+	int recv_input_pos = 0;
+
+	int recv_input_size = 0;
+
+	final OutputStream os;
 
 	boolean useRandomPadding = false;
 
 	/* Depends on current MAC and CIPHER */
 
-	MAC send_mac;
+	BlockCipher send_cipher;
 
-	byte[] send_mac_buffer;
+	MAC send_mac;
 
 	int send_padd_blocksize = 8;
 
-	MAC recv_mac;
+	BlockCipher recv_cipher;
 
-	byte[] recv_mac_buffer;
+	MAC recv_mac;
 
 	byte[] recv_mac_buffer_cmp;
 
 	int recv_padd_blocksize = 8;
+
+	/* Take the place of cipher and MAC for AEAD ciphers and encrypt-then-MAC */
+
+	AEADCipher send_aead;
+
+	AEADCipher recv_aead;
 	
 	ICompressor recv_comp = null;
 	
@@ -59,20 +72,36 @@ public class TransportConnection
 	boolean can_compress = false;
 
 	byte[] recv_comp_buffer;
-	
+
 	byte[] send_comp_buffer;
 
-	/* won't change */
+	/*
+	 * Whole packets are put together here, header, payload, padding and MAC,
+	 * encrypted in place and written with one call. Packets queued without a
+	 * flush pile up behind each other, the first send_buffered bytes.
+	 */
+
+	byte[] send_packet_buffer = new byte[4 + 1024 + 64];
+
+	int send_buffered = 0;
 
-	final byte[] send_padding_buffer = new byte[256];
+	/* Queued packets are written out before the buffer grows beyond this */
 
-	final byte[] send_packet_header_buffer = new byte[5];
+	static final int MAX_SEND_BUFFERED = 32768;
 
-	final byte[] recv_padding_buffer = new byte[256];
+	/* The packet being handled, in a buffer from the PacketBufferPool */
 
-	final byte[] recv_packet_header_buffer = new byte[5];
+	byte[] recv_packet_buffer;
 
-	boolean recv_packet_header_present = false;
+	byte[] recv_payload_buffer;
+
+	int recv_payload_length;
+
+	boolean recv_packet_present = false;
+
+	/* won't change */
+
+	final byte[] recv_packet_header_buffer = new byte[16];
 
 	ClientServerHello csh;
 
@@ -80,16 +109,18 @@ public class TransportConnection
 
 	public TransportConnection(InputStream is, OutputStream os, SecureRandom rnd)
 	{
-		this.cis = new CipherInputStream(new NullCipher(), is);
-		this.cos = new CipherOutputStream(new NullCipher(), os);
+		this.is = is;
+		this.os = os;
+		this.send_cipher = new NullCipher();
+		this.recv_cipher = new NullCipher();
 		this.rnd = rnd;
 	}
 
 	public void changeRecvCipher(BlockCipher bc, MAC mac)
 	{
-		cis.changeCipher(bc);
+		recv_cipher = bc;
+		recv_aead = null;
 		recv_mac = mac;
-		recv_mac_buffer = (mac != null) ? new byte[mac.size()] : null;
 		recv_mac_buffer_cmp = (mac != null) ? new byte[mac.size()] : null;
 		recv_padd_blocksize = bc.getBlockSize();
 		if (recv_padd_blocksize < 8)
@@ -105,13 +136,32 @@ public class TransportConnection
 			/* Once we start encrypting, there is no way back */
 		}
 
-		cos.changeCipher(bc);
+		send_cipher = bc;
+		send_aead = null;
 		send_mac = mac;
-		send_mac_buffer = (mac != null) ? new byte[mac.size()] : null;
 		send_padd_blocksize = bc.getBlockSize();
 		if (send_padd_blocksize < 8)
 			send_padd_blocksize = 8;
 	}
+
+	public void changeRecvCipher(AEADCipher aead)
+	{
+		recv_cipher = new NullCipher();
+		recv_aead = aead;
+		recv_mac = null;
+		recv_mac_buffer_cmp = null;
+		recv_padd_blocksize = aead.getBlockSize();
+	}
+
+	public void changeSendCipher(AEADCipher aead)
+	{
+		useRandomPadding = true;
+
+		send_cipher = new NullCipher();
+		send_aead = aead;
+		send_mac = null;
+		send_padd_blocksize = aead.getBlockSize();
+	}
 	
 	public void changeRecvCompression(ICompressor comp)
 	{
@@ -142,10 +192,21 @@ public class TransportConnection
 	public int getPacketOverheadEstimate()
 	{
 		// return an estimate for the paket overhead (for send operations)
-		return 5 + 4 + (send_padd_blocksize - 1) + send_mac_buffer.length;
+		int mac_len = (send_aead != null) ? send_aead.getTagSize() : ((send_mac != null) ? send_mac.size() : 0);
+		return 5 + 4 + (send_padd_blocksize - 1) + mac_len;
 	}
 
 	public void sendMessage(byte[] message, int off, int len, int padd) throws IOException
+	{
+		queueMessage(message, off, len, padd);
+		flush();
+	}
+
+	/**
+	 * Put the message into a packet behind any already queued, to be sent
+	 * with the next {@link #flush()}.
+	 */
+	public void queueMessage(byte[] message, int off, int len, int padd) throws IOException
 	{
 		if (padd < 4)
 			padd = 4;
@@ -159,6 +220,12 @@ public class TransportConnection
 			message = send_comp_buffer;
 		}
 
+		if (send_aead != null)
+		{
+			queueAEADMessage(message, off, len, padd);
+			return;
+		}
+
 		int packet_len = 5 + len + padd; /* Minimum allowed padding is 4 */
 
 		int slack = packet_len % send_padd_blocksize;
@@ -173,58 +240,88 @@ public class TransportConnection
 
 		int padd_len = packet_len - (5 + len);
 
-		if (useRandomPadding)
+		int mac_len = (send_mac != null) ? send_mac.size() : 0;
+
+		byte[] buf = getSendPacketBuffer(packet_len + mac_len);
+		int pos = send_buffered;
+
+		buf[pos] = (byte) ((packet_len - 4) >> 24);
+		buf[pos + 1] = (byte) ((packet_len - 4) >> 16);
+		buf[pos + 2] = (byte) ((packet_len - 4) >> 8);
+		buf[pos + 3] = (byte) ((packet_len - 4));
+		buf[pos + 4] = (byte) padd_len;
+
+		System.arraycopy(message, off, buf, pos + 5, len);
+
+		fillPadding(buf, pos + 5 + len, padd_len);
+
+		/* the MAC is over the plaintext and goes after the packet unencrypted */
+
+		if (send_mac != null)
 		{
-			for (int i = 0; i < padd_len; i = i + 4)
-			{
-				/*
-				 * don't waste calls to rnd.nextInt() (by using only 8bit of the
-				 * output). just believe me: even though we may write here up to 3
-				 * bytes which won't be used, there is no "buffer overflow" (i.e.,
-				 * arrayindexoutofbounds). the padding buffer is big enough =) (256
-				 * bytes, and that is bigger than any current cipher block size + 64).
-				 */
-
-				int r = rnd.nextInt();
-				send_padding_buffer[i] = (byte) r;
-				send_padding_buffer[i + 1] = (byte) (r >> 8);
-				send_padding_buffer[i + 2] = (byte) (r >> 16);
-				send_padding_buffer[i + 3] = (byte) (r >> 24);
-			}
+			send_mac.initMac(send_seq_number);
+			send_mac.update(buf, pos, packet_len);
+			send_mac.getMac(buf, pos + packet_len);
 		}
-		else
+
+		try
 		{
-			/* use zero padding for unencrypted traffic */
-			for (int i = 0; i < padd_len; i++)
-				send_padding_buffer[i] = 0;
-			/* Actually this code is paranoid: we never filled any
-			 * bytes into the padding buffer so far, therefore it should
-			 * consist of zeros only.
-			 */
+			send_cipher.transform(buf, pos, buf, pos, packet_len);
+		}
+		catch (Exception e)
+		{
+			throw (IOException) new IOException("Error while encrypting block.").initCause(e);
 		}
 
-		send_packet_header_buffer[0] = (byte) ((packet_len - 4) >> 24);
-		send_packet_header_buffer[1] = (byte) ((packet_len - 4) >> 16);
-		send_packet_header_buffer[2] = (byte) ((packet_len - 4) >> 8);
-		send_packet_header_buffer[3] = (byte) ((packet_len - 4));
-		send_packet_header_buffer[4] = (byte) padd_len;
-
-		cos.write(send_packet_header_buffer, 0, 5);
-		cos.write(message, off, len);
-		cos.write(send_padding_buffer, 0, padd_len);
+		send_buffered += packet_len + mac_len;
 
-		if (send_mac != null)
+		if (log.isEnabled())
 		{
-			send_mac.initMac(send_seq_number);
-			send_mac.update(send_packet_header_buffer, 0, 5);
-			send_mac.update(message, off, len);
-			send_mac.update(send_padding_buffer, 0, padd_len);
+			log.log(90, "Sent " + Packets.getMessageName(message[off] & 0xff) + " " + len + " bytes payload");
+		}
+
+		send_seq_number++;
+	}
 
-			send_mac.getMac(send_mac_buffer, 0);
-			cos.writePlain(send_mac_buffer, 0, send_mac_buffer.length);
+	/**
+	 * Build the whole packet in one buffer, which the AEAD cipher encrypts
+	 * and authenticates in place. Padding is computed without the length
+	 * field, which is not part of the encrypted blocks.
+	 */
+	private void queueAEADMessage(byte[] message, int off, int len, int padd) throws IOException
+	{
+		int packet_len = 1 + len + padd;
+
+		int slack = packet_len % send_padd_blocksize;
+
+		if (slack != 0)
+		{
+			packet_len += (send_padd_blocksize - slack);
 		}
 
-		cos.flush();
+		if (packet_len < 16)
+			packet_len = 16;
+
+		int padd_len = packet_len - (1 + len);
+
+		int total = 4 + packet_len + send_aead.getTagSize();
+
+		byte[] buf = getSendPacketBuffer(total);
+		int pos = send_buffered;
+
+		buf[pos] = (byte) (packet_len >> 24);
+		buf[pos + 1] = (byte) (packet_len >> 16);
+		buf[pos + 2] = (byte) (packet_len >> 8);
+		buf[pos + 3] = (byte) (packet_len);
+		buf[pos + 4] = (byte) padd_len;
+
+		System.arraycopy(message, off, buf, pos + 5, len);
+
+		fillPadding(buf, pos + 5 + len, padd_len);
+
+		send_aead.encryptPacket(send_seq_number, buf, pos, packet_len);
+
+		send_buffered += total;
 
 		if (log.isEnabled())
 		{
@@ -234,99 +331,300 @@ public class TransportConnection
 		send_seq_number++;
 	}
 
-	public int peekNextMessageLength() throws IOException
+	/**
+	 * Make room for a packet of <code>len</code> bytes at
+	 * <code>send_buffered</code>, writing out what is queued first if the
+	 * buffer would grow too large.
+	 */
+	private byte[] getSendPacketBuffer(int len) throws IOException
 	{
-		if (recv_packet_header_present == false)
+		if (send_buffered > 0 && send_buffered + len > MAX_SEND_BUFFERED)
+			writeBuffered();
+
+		if (send_packet_buffer.length < send_buffered + len)
 		{
-			cis.read(recv_packet_header_buffer, 0, 5);
-			recv_packet_header_present = true;
+			byte[] buf = new byte[send_buffered + len];
+			System.arraycopy(send_packet_buffer, 0, buf, 0, send_buffered);
+			send_packet_buffer = buf;
 		}
 
-		int packet_length = ((recv_packet_header_buffer[0] & 0xff) << 24)
-				| ((recv_packet_header_buffer[1] & 0xff) << 16) | ((recv_packet_header_buffer[2] & 0xff) << 8)
-				| ((recv_packet_header_buffer[3] & 0xff));
+		return send_packet_buffer;
+	}
 
-		int padding_length = recv_packet_header_buffer[4] & 0xff;
+	private void writeBuffered() throws IOException
+	{
+		int len = send_buffered;
 
-		if (packet_length > 35000 || packet_length < 12)
-			throw new IOException("Illegal packet size! (" + packet_length + ")");
+		/* even if the write fails the packets are gone */
+		send_buffered = 0;
 
-		int payload_length = packet_length - padding_length - 1;
+		os.write(send_packet_buffer, 0, len);
+	}
 
-		if (payload_length < 0)
-			throw new IOException("Illegal padding_length in packet from remote (" + padding_length + ")");
+	/**
+	 * @return how many bytes of queued packets wait for {@link #flush()}
+	 */
+	public int getSendBuffered()
+	{
+		return send_buffered;
+	}
 
-		return payload_length;
+	/**
+	 * Write all queued packets to the socket in one go.
+	 */
+	public void flush() throws IOException
+	{
+		if (send_buffered > 0)
+			writeBuffered();
+
+		os.flush();
 	}
 
-	public int receiveMessage(byte buffer[], int off, int len) throws IOException
+	private void fillPadding(byte[] buf, int off, int padd_len)
 	{
-		if (recv_packet_header_present == false)
+		if (useRandomPadding == false)
 		{
-			cis.read(recv_packet_header_buffer, 0, 5);
+			/* use zero padding for unencrypted traffic */
+			for (int i = 0; i < padd_len; i++)
+				buf[off + i] = 0;
+			return;
 		}
-		else
-			recv_packet_header_present = false;
 
-		int packet_length = ((recv_packet_header_buffer[0] & 0xff) << 24)
-				| ((recv_packet_header_buffer[1] & 0xff) << 16) | ((recv_packet_header_buffer[2] & 0xff) << 8)
-				| ((recv_packet_header_buffer[3] & 0xff));
+		/* don't waste calls to rnd.nextInt(), each one pads four bytes */
 
-		int padding_length = recv_packet_header_buffer[4] & 0xff;
+		for (int i = 0; i < padd_len; i += 4)
+		{
+			int r = rnd.nextInt();
+			for (int j = i; (j < i + 4) && (j < padd_len); j++)
+			{
+				buf[off + j] = (byte) r;
+				r >>= 8;
+			}
+		}
+	}
 
-		if (packet_length > 35000 || packet_length < 12)
-			throw new IOException("Illegal packet size! (" + packet_length + ")");
+	/**
+	 * Read a whole packet into a buffer from the {@link PacketBufferPool} and
+	 * decrypt and check it there. With a block cipher the first block is
+	 * decrypted on its own to learn the length, the rest in one go after it.
+	 * The payload ends up at offset 5, or in the decompressor's buffer.
+	 */
+	private void readPacket() throws IOException
+	{
+		releasePacket();
 
-		int payload_length = packet_length - padding_length - 1;
+		byte[] header = recv_packet_header_buffer;
+		int first = (recv_aead != null) ? 4 : recv_padd_blocksize;
 
-		if (payload_length < 0)
-			throw new IOException("Illegal padding_length in packet from remote (" + padding_length + ")");
+		readFully(header, 0, first);
 
-		if (payload_length >= len)
-			throw new IOException("Receive buffer too small (" + len + ", need " + payload_length + ")");
+		int packet_length;
 
-		cis.read(buffer, off, payload_length);
-		cis.read(recv_padding_buffer, 0, padding_length);
+		if (recv_aead != null)
+		{
+			packet_length = recv_aead.decryptLength(recv_seq_number, header, 0);
 
-		if (recv_mac != null)
+			if (packet_length > 35000 || packet_length < 12 || (packet_length % recv_padd_blocksize) != 0)
+				throw new IOException("Illegal packet size! (" + packet_length + ")");
+		}
+		else
 		{
-			cis.readPlain(recv_mac_buffer, 0, recv_mac_buffer.length);
+			decrypt(header, 0, first);
 
-			recv_mac.initMac(recv_seq_number);
-			recv_mac.update(recv_packet_header_buffer, 0, 5);
-			recv_mac.update(buffer, off, payload_length);
-			recv_mac.update(recv_padding_buffer, 0, padding_length);
-			recv_mac.getMac(recv_mac_buffer_cmp, 0);
+			packet_length = ((header[0] & 0xff) << 24) | ((header[1] & 0xff) << 16) | ((header[2] & 0xff) << 8)
+					| (header[3] & 0xff);
+
+			if (packet_length > 35000 || packet_length < 12)
+				throw new IOException("Illegal packet size! (" + packet_length + ")");
+
+			if (((4 + packet_length) % first) != 0 && (recv_cipher instanceof NullCipher) == false)
+				throw new IOException("Illegal packet size! (" + packet_length + ")");
+		}
 
-			for (int i = 0; i < recv_mac_buffer.length; i++)
+		byte[] buf = PacketBufferPool.take();
+		recv_packet_buffer = buf;
+
+		System.arraycopy(header, 0, buf, 0, first);
+
+		if (recv_aead != null)
+		{
+			readFully(buf, first, packet_length + recv_aead.getTagSize());
+
+			recv_aead.decryptPacket(recv_seq_number, buf, 0, packet_length);
+		}
+		else
+		{
+			int mac_len = (recv_mac != null) ? recv_mac_buffer_cmp.length : 0;
+			int rest = 4 + packet_length - first;
+
+			readFully(buf, first, rest + mac_len);
+
+			decrypt(buf, first, rest);
+
+			if (recv_mac != null)
 			{
-				if (recv_mac_buffer[i] != recv_mac_buffer_cmp[i])
+				recv_mac.initMac(recv_seq_number);
+				recv_mac.update(buf, 0, 4 + packet_length);
+				recv_mac.getMac(recv_mac_buffer_cmp, 0);
+
+				int diff = 0;
+				for (int i = 0; i < mac_len; i++)
+					diff |= recv_mac_buffer_cmp[i] ^ buf[4 + packet_length + i];
+
+				if (diff != 0)
 					throw new IOException("Remote sent corrupt MAC.");
 			}
 		}
 
+		int padding_length = buf[4] & 0xff;
+
+		int payload_length = packet_length - padding_length - 1;
+
+		if (payload_length < 0)
+			throw new IOException("Illegal padding_length in packet from remote (" + padding_length + ")");
+
 		recv_seq_number++;
 
 		if (log.isEnabled())
 		{
-			log.log(90, "Received " + Packets.getMessageName(buffer[off] & 0xff) + " " + payload_length
+			log.log(90, "Received " + Packets.getMessageName(buf[5] & 0xff) + " " + payload_length
 					+ " bytes payload");
 		}
 
-		if (recv_comp != null && can_compress) {
+		recv_payload_buffer = buf;
+		recv_payload_length = payload_length;
+
+		if (recv_comp != null && can_compress)
+		{
 			int[] uncomp_len = new int[] { payload_length };
-			buffer = recv_comp.uncompress(buffer, off, uncomp_len);
-			
-			if (buffer == null) {
+			recv_payload_buffer = recv_comp.uncompress(buf, 5, uncomp_len);
+
+			if (recv_payload_buffer == null)
 				throw new IOException("Error while inflating remote data");
-			} else {
-				return uncomp_len[0];
+
+			recv_payload_length = uncomp_len[0];
+		}
+	}
+
+	private void readFully(byte[] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			int avail = recv_input_size - recv_input_pos;
+			int cnt;
+
+			if (avail > 0)
+			{
+				/* what is buffered first */
+				cnt = (len > avail) ? avail : len;
+				System.arraycopy(recv_input_buffer, recv_input_pos, b, off, cnt);
+				recv_input_pos += cnt;
+			}
+			else if (len >= recv_input_buffer.length)
+			{
+				/* plenty to read, skip the copy */
+				cnt = is.read(b, off, len);
+				if (cnt < 0)
+					throw new IOException("Cannot fill buffer, EOF reached.");
 			}
-		} else {
-			return payload_length;
+			else
+			{
+				int n = is.read(recv_input_buffer, 0, recv_input_buffer.length);
+				if (n < 0)
+					throw new IOException("Cannot fill buffer, EOF reached.");
+				recv_input_pos = 0;
+				recv_input_size = n;
+				continue;
+			}
+
+			off += cnt;
+			len -= cnt;
+		}
+	}
+
+	private void decrypt(byte[] buf, int off, int len) throws IOException
+	{
+		try
+		{
+			recv_cipher.transform(buf, off, buf, off, len);
+		}
+		catch (Exception e)
+		{
+			throw (IOException) new IOException("Error while decrypting block.").initCause(e);
+		}
+	}
+
+	public int peekNextMessageLength() throws IOException
+	{
+		if (recv_packet_present == false)
+		{
+			readPacket();
+			recv_packet_present = true;
+		}
+
+		return recv_payload_length;
+	}
+
+	/**
+	 * Read the next packet, unless {@link #peekNextMessageLength()} already
+	 * did, and leave it opened where it was read. The payload is in
+	 * {@link #getPayloadBuffer()} from {@link #getPayloadOffset()} until
+	 * {@link #releasePacket()} is called.
+	 * 
+	 * @return the payload length
+	 */
+	public int receivePacket() throws IOException
+	{
+		if (recv_packet_present == false)
+			readPacket();
+		else
+			recv_packet_present = false;
+
+		return recv_payload_length;
+	}
+
+	public byte[] getPayloadBuffer()
+	{
+		return recv_payload_buffer;
+	}
+
+	public int getPayloadOffset()
+	{
+		return 5;
+	}
+
+	/**
+	 * Give the buffer of the last packet back to the pool.
+	 */
+	public void releasePacket()
+	{
+		if (recv_packet_buffer != null)
+		{
+			PacketBufferPool.release(recv_packet_buffer);
+			recv_packet_buffer = null;
+			recv_payload_buffer = null;
 		}
 	}
 
+	public int receiveMessage(byte buffer[], int off, int len) throws IOException
+	{
+		int payload_length = receivePacket();
+
+		try
+		{
+			if (payload_length >= len)
+				throw new IOException("Receive buffer too small (" + len + ", need " + payload_length + ")");
+
+			System.arraycopy(recv_payload_buffer, getPayloadOffset(), buffer, off, payload_length);
+		}
+		finally
+		{
+			releasePacket();
+		}
+
+		return payload_length;
+	}
+
 	/**
 	 * 
 	 */
@@ -3,6 +3,7 @@ package com.trilead.ssh2.transport;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -10,6 +11,7 @@ import java.net.Socket;
 import java.net.UnknownHostException;
 import java.security.SecureRandom;
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
 
 import com.trilead.ssh2.ConnectionInfo;
 import com.trilead.ssh2.ConnectionMonitor;
@@ -21,6 +23,7 @@ import com.trilead.ssh2.ServerHostKeyVerifier;
 import com.trilead.ssh2.compression.ICompressor;
 import com.trilead.ssh2.crypto.Base64;
 import com.trilead.ssh2.crypto.CryptoWishList;
+import com.trilead.ssh2.crypto.cipher.AEADCipher;
 import com.trilead.ssh2.crypto.cipher.BlockCipher;
 import com.trilead.ssh2.crypto.digest.MAC;
 import com.trilead.ssh2.log.Logger;
@@ -63,47 +66,107 @@ public class TransportManager
 		int high;
 	}
 
-	private final Vector<byte[]> asynchronousQueue = new Vector<byte[]>();
-	private Thread asynchronousThread = null;
+	/* Messages the receive thread needs sent, it must never block on the socket */
 
+	static final int ASYNC_QUEUE_SIZE = 128;
+
+	/* Most messages written to the socket with one flush */
+
+	static final int ASYNC_BATCH_SIZE = 16;
+
+	/* How long a full queue may hold up the receive thread */
+
+	static final long ASYNC_SEND_TIMEOUT = 10000;
+
+	private final SendQueue asynchronousQueue = new SendQueue(ASYNC_QUEUE_SIZE);
+	private volatile Thread asynchronousThread = null;
+	private volatile boolean asynchronousWaiting = false;
+
+	/* Producers waiting for room in the queue wait on this */
+
+	private final Object asynchronousSpace = new Object();
+	private volatile int asynchronousBlocked = 0;
+
+	/*
+	 * Write coalescing: a message sent soon after the last flush waits in the
+	 * send buffer, up to coalesceDelay after that flush or until
+	 * COALESCE_THRESHOLD bytes are waiting. A message after a quiet spell,
+	 * such as a single keystroke, still goes out at once. 0 turns it off.
+	 */
+
+	static final int COALESCE_THRESHOLD = 1400;
+
+	long coalesceDelay = 0; /* nanoseconds, protected by connectionSemaphore */
+	long lastFlushTime = 0; /* protected by connectionSemaphore */
+
+	/* When the asynchronous worker has to flush what is waiting, or 0 */
+
+	private volatile long flushDeadline = 0;
+
+	/**
+	 * Sends the asynchronous messages and flushes coalesced writes when
+	 * their time is up.
+	 */
 	class AsynchronousWorker extends Thread
 	{
 		public void run()
 		{
+			byte[][] batch = new byte[ASYNC_BATCH_SIZE][];
+
 			while (true)
 			{
-				byte[] msg = null;
+				int n = asynchronousQueue.drain(batch);
 
-				synchronized (asynchronousQueue)
+				if (n > 0 && asynchronousBlocked > 0)
 				{
-					if (asynchronousQueue.size() == 0)
+					synchronized (asynchronousSpace)
 					{
-						/* After the queue is empty for about 2 seconds, stop this thread */
+						asynchronousSpace.notifyAll();
+					}
+				}
+
+				if (n == 0)
+				{
+					if (isConnectionClosed())
+						return;
+
+					/* Tell the producers to wake us, then look once more */
+
+					asynchronousWaiting = true;
+
+					long deadline = flushDeadline;
+					long wait = deadline - System.nanoTime();
+
+					if (deadline != 0 && wait <= 0)
+					{
+						asynchronousWaiting = false;
 
 						try
 						{
-							asynchronousQueue.wait(2000);
-						}
-						catch (InterruptedException e)
-						{
-							/* OKOK, if somebody interrupts us, then we may die earlier. */
+							flushCoalesced();
 						}
-
-						if (asynchronousQueue.size() == 0)
+						catch (IOException e)
 						{
-							asynchronousThread = null;
 							return;
 						}
+						continue;
 					}
 
-					msg = asynchronousQueue.remove(0);
+					if (asynchronousQueue.isEmpty() == false)
+						Thread.yield(); /* a message is on its way into its slot */
+					else if (deadline != 0)
+						LockSupport.parkNanos(wait);
+					else
+						LockSupport.park();
+
+					asynchronousWaiting = false;
+					continue;
 				}
 
 				/* The following invocation may throw an IOException.
 				 * There is no point in handling it - it simply means
 				 * that the connection has a problem and we should stop
-				 * sending asynchronously messages. We do not need to signal that
-				 * we have exited (asynchronousThread = null): further
+				 * sending asynchronously messages. Further
 				 * messages in the queue cannot be sent by this or any
 				 * other thread.
 				 * Other threads will sooner or later (when receiving or
@@ -113,12 +176,15 @@ public class TransportManager
 
 				try
 				{
-					sendMessage(msg);
+					sendMessages(batch, n);
 				}
 				catch (IOException e)
 				{
 					return;
 				}
+
+				for (int i = 0; i < n; i++)
+					batch[i] = null;
 			}
 		}
 	}
@@ -139,6 +205,17 @@ public class TransportManager
 
 	Vector<HandlerEntry> messageHandlers = new Vector<HandlerEntry>();
 
+	/*
+	 * Handler for each message type, rebuilt from messageHandlers whenever
+	 * that changes so the receive thread can look it up without locking.
+	 */
+
+	volatile MessageHandler[] dispatchTable = new MessageHandler[256];
+
+	/* Only written by the receive thread */
+
+	final int[] receivedMessageCounts = new int[256];
+
 	Thread receiveThread;
 
 	Vector connectionMonitors = new Vector();
@@ -298,6 +375,15 @@ public class TransportManager
 			connectionSemaphore.notifyAll();
 		}
 
+		Thread worker = asynchronousThread;
+		if (worker != null)
+			LockSupport.unpark(worker);
+
+		synchronized (asynchronousSpace)
+		{
+			asynchronousSpace.notifyAll();
+		}
+
 		/* No check if we need to inform the monitors */
 
 		Vector monitors = null;
@@ -498,12 +584,14 @@ public class TransportManager
 					HandlerEntry he = messageHandlers.elementAt(i);
 					try
 					{
-						he.mh.handleMessage(null, 0);
+						he.mh.handleMessage(null, 0, 0);
 					}
 					catch (Exception ignore)
 					{
 					}
 				}
+
+				tc.releasePacket();
 			}
 		});
 
@@ -521,6 +609,7 @@ public class TransportManager
 		synchronized (messageHandlers)
 		{
 			messageHandlers.addElement(he);
+			updateDispatchTable();
 		}
 	}
 
@@ -534,12 +623,54 @@ public class TransportManager
 				if ((he.mh == mh) && (he.low == low) && (he.high == high))
 				{
 					messageHandlers.removeElementAt(i);
+					updateDispatchTable();
 					break;
 				}
 			}
 		}
 	}
 
+	/**
+	 * Must be called with the messageHandlers lock held. The first handler
+	 * registered for a type gets it, as when the list was searched.
+	 */
+	private void updateDispatchTable()
+	{
+		MessageHandler[] table = new MessageHandler[256];
+
+		for (int i = messageHandlers.size() - 1; i >= 0; i--)
+		{
+			HandlerEntry he = messageHandlers.elementAt(i);
+
+			for (int type = Math.max(he.low, 0); type <= Math.min(he.high, 255); type++)
+				table[type] = he.mh;
+		}
+
+		dispatchTable = table;
+	}
+
+	/**
+	 * @return the handler messages of this type are dispatched to, or
+	 *         <code>null</code> if there is none
+	 */
+	public MessageHandler getMessageHandler(int type)
+	{
+		return dispatchTable[type & 0xff];
+	}
+
+	/**
+	 * How many messages of each type have been received so far, for
+	 * diagnostics.
+	 * 
+	 * @return a copy of the counters, indexed by message type
+	 */
+	public int[] getReceivedMessageCounts()
+	{
+		int[] counts = new int[256];
+		System.arraycopy(receivedMessageCounts, 0, counts, 0, counts.length);
+		return counts;
+	}
+
 	public void sendKexMessage(byte[] msg) throws IOException
 	{
 		synchronized (connectionSemaphore)
@@ -587,6 +718,16 @@ public class TransportManager
 		tc.changeSendCipher(bc, mac);
 	}
 
+	public void changeRecvCipher(AEADCipher aead)
+	{
+		tc.changeRecvCipher(aead);
+	}
+
+	public void changeSendCipher(AEADCipher aead)
+	{
+		tc.changeSendCipher(aead);
+	}
+
 	/**
 	 * @param comp
 	 */
@@ -608,32 +749,167 @@ public class TransportManager
 		tc.startCompression();
 	}
 
+	private boolean isConnectionClosed()
+	{
+		synchronized (connectionSemaphore)
+		{
+			return connectionClosed;
+		}
+	}
+
 	public void sendAsynchronousMessage(byte[] msg) throws IOException
 	{
-		synchronized (asynchronousQueue)
+		/* When the peer is not reading what we send (and keeps sending us
+		 * global requests and other stuff where we have to reply with an
+		 * asynchronous message) the queue fills up. Then the caller, normally
+		 * the receive thread, waits, which stops us reading from the peer
+		 * for a while. If that does not help, give up rather than letting
+		 * the queue grow and grow. */
+
+		if (asynchronousQueue.offer(msg) == false)
+			waitForAsynchronousSpace(msg);
+
+		wakeAsynchronousWorker();
+	}
+
+	/**
+	 * Block until the worker has made room for <code>msg</code> and it is
+	 * queued. The worker signals asynchronousSpace after every drain while
+	 * somebody is blocked here, and close() signals it too.
+	 */
+	private void waitForAsynchronousSpace(byte[] msg) throws IOException
+	{
+		long deadline = System.nanoTime() + ASYNC_SEND_TIMEOUT * 1000000L;
+
+		synchronized (asynchronousSpace)
 		{
-			asynchronousQueue.addElement(msg);
+			/* Announced before trying again, so a drain after the failed
+			 * offer below is sure to see us and notify */
+
+			asynchronousBlocked++;
+
+			try
+			{
+				while (asynchronousQueue.offer(msg) == false)
+				{
+					if (isConnectionClosed())
+						throw (IOException) new IOException("Sorry, this connection is closed.")
+								.initCause(reasonClosedCause);
 
-			/* This limit should be flexible enough. We need this, otherwise the peer
-			 * can flood us with global requests (and other stuff where we have to reply
-			 * with an asynchronous message) and (if the server just sends data and does not
-			 * read what we send) this will probably put us in a low memory situation
-			 * (our send queue would grow and grow and...) */
+					long wait = deadline - System.nanoTime();
 
-			if (asynchronousQueue.size() > 100)
-				throw new IOException("Error: the peer is not consuming our asynchronous replies.");
+					if (wait <= 0)
+						throw new IOException("Error: the peer is not consuming our asynchronous replies.");
 
-			/* Check if we have an asynchronous sending thread */
+					/* the worker may be waiting for us to wake it */
+					wakeAsynchronousWorker();
 
-			if (asynchronousThread == null)
+					try
+					{
+						asynchronousSpace.wait(wait / 1000000L + 1);
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting to queue an asynchronous message.");
+					}
+				}
+			}
+			finally
 			{
-				asynchronousThread = new AsynchronousWorker();
-				asynchronousThread.setDaemon(true);
-				asynchronousThread.start();
+				asynchronousBlocked--;
+			}
+		}
+	}
 
-				/* The thread will stop after 2 seconds of inactivity (i.e., empty queue) */
+	private void wakeAsynchronousWorker()
+	{
+		Thread worker = asynchronousThread;
+
+		if (worker == null)
+		{
+			synchronized (asynchronousQueue)
+			{
+				worker = asynchronousThread;
+
+				if (worker == null)
+				{
+					/* Lives as long as the connection */
+
+					worker = new AsynchronousWorker();
+					worker.setDaemon(true);
+					worker.start();
+					asynchronousThread = worker;
+				}
 			}
 		}
+
+		if (asynchronousWaiting)
+			LockSupport.unpark(worker);
+	}
+
+	/**
+	 * Let messages sent shortly after each other share socket writes.
+	 * 
+	 * @param delay
+	 *            how long a message may wait for others, in milliseconds,
+	 *            0 to write every message at once
+	 */
+	public void setSendCoalescing(int delay)
+	{
+		synchronized (connectionSemaphore)
+		{
+			coalesceDelay = delay * 1000000L;
+		}
+
+		/* anything still waiting is flushed by the worker */
+	}
+
+	/**
+	 * Flush now unless coalescing says the message may wait, in which case
+	 * the asynchronous worker flushes it later. Must be called with the
+	 * connectionSemaphore held.
+	 */
+	private void flushOrDefer() throws IOException
+	{
+		long now = System.nanoTime();
+
+		if (coalesceDelay == 0 || tc.getSendBuffered() >= COALESCE_THRESHOLD
+				|| now - lastFlushTime >= coalesceDelay)
+		{
+			tc.flush();
+			lastFlushTime = now;
+			flushDeadline = 0;
+			return;
+		}
+
+		if (flushDeadline == 0)
+		{
+			flushDeadline = lastFlushTime + coalesceDelay;
+			wakeAsynchronousWorker();
+		}
+	}
+
+	void flushCoalesced() throws IOException
+	{
+		synchronized (connectionSemaphore)
+		{
+			if (flushDeadline == 0 || connectionClosed)
+				return;
+
+			try
+			{
+				tc.flush();
+			}
+			catch (IOException e)
+			{
+				close(e, false);
+				throw e;
+			}
+
+			lastFlushTime = System.nanoTime();
+			flushDeadline = 0;
+		}
 	}
 
 	public void setConnectionMonitors(Vector monitors)
@@ -673,7 +949,8 @@ public class TransportManager
 
 			try
 			{
-				tc.sendMessage(msg);
+				tc.queueMessage(msg, 0, msg.length, 0);
+				flushOrDefer();
 			}
 			catch (IOException e)
 			{
@@ -683,15 +960,64 @@ public class TransportManager
 		}
 	}
 
-	public void receiveLoop() throws IOException
+	/**
+	 * Send several messages with a single flush, without letting a key
+	 * exchange in between.
+	 */
+	void sendMessages(byte[][] msgs, int count) throws IOException
 	{
-		byte[] msg = new byte[35000];
+		synchronized (connectionSemaphore)
+		{
+			while (true)
+			{
+				if (connectionClosed)
+				{
+					throw (IOException) new IOException("Sorry, this connection is closed.")
+							.initCause(reasonClosedCause);
+				}
+
+				if (flagKexOngoing == false)
+					break;
+
+				try
+				{
+					connectionSemaphore.wait();
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+
+			try
+			{
+				for (int i = 0; i < count; i++)
+					tc.queueMessage(msgs[i], 0, msgs[i].length, 0);
+				flushOrDefer();
+			}
+			catch (IOException e)
+			{
+				close(e, false);
+				throw e;
+			}
+		}
+	}
 
+	public void receiveLoop() throws IOException
+	{
 		while (true)
 		{
-			int msglen = tc.receiveMessage(msg, 0, msg.length);
+			/*
+			 * The message is handed out where it was decrypted, the buffer
+			 * goes back to the pool when the next packet is read.
+			 */
+
+			int msglen = tc.receivePacket();
+			byte[] msg = tc.getPayloadBuffer();
+			int off = tc.getPayloadOffset();
 
-			int type = msg[0] & 0xff;
+			int type = msg[off] & 0xff;
+
+			receivedMessageCounts[type]++;
 
 			if (type == Packets.SSH_MSG_IGNORE)
 				continue;
@@ -700,7 +1026,7 @@ public class TransportManager
 			{
 				if (log.isEnabled())
 				{
-					TypesReader tr = new TypesReader(msg, 0, msglen);
+					TypesReader tr = new TypesReader(msg, off, msglen);
 					tr.readByte();
 					tr.readBoolean();
 					StringBuffer debugMessageBuffer = new StringBuffer();
@@ -727,7 +1053,7 @@ public class TransportManager
 
 			if (type == Packets.SSH_MSG_DISCONNECT)
 			{
-				TypesReader tr = new TypesReader(msg, 0, msglen);
+				TypesReader tr = new TypesReader(msg, off, msglen);
 				tr.readByte();
 				int reason_code = tr.readUINT32();
 				StringBuffer reasonBuffer = new StringBuffer();
@@ -773,7 +1099,9 @@ public class TransportManager
 			if ((type == Packets.SSH_MSG_KEXINIT) || (type == Packets.SSH_MSG_NEWKEYS)
 					|| ((type >= 30) && (type <= 49)))
 			{
-				km.handleMessage(msg, msglen);
+				byte[] kexmsg = new byte[msglen];
+				System.arraycopy(msg, off, kexmsg, 0, msglen);
+				km.handleMessage(kexmsg, msglen);
 				continue;
 			}
 
@@ -781,22 +1109,12 @@ public class TransportManager
 				tc.startCompression();
 			}
 			
-			MessageHandler mh = null;
-
-			for (int i = 0; i < messageHandlers.size(); i++)
-			{
-				HandlerEntry he = messageHandlers.elementAt(i);
-				if ((he.low <= type) && (type <= he.high))
-				{
-					mh = he.mh;
-					break;
-				}
-			}
+			MessageHandler mh = dispatchTable[type];
 
 			if (mh == null)
 				throw new IOException("Unexpected SSH message (type " + type + ")");
 
-			mh.handleMessage(msg, msglen);
+			mh.handleMessage(msg, off, msglen);
 		}
 	}
 }
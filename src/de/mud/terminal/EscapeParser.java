@@ -0,0 +1,444 @@
+/*
+ * This file is part of "JTA - Telnet/SSH for the JAVA(tm) platform".
+ *
+ * (c) Matthias L. Jugel, Marcus Meiner 1996-2005. All Rights Reserved.
+ *
+ * Please visit http://javatelnet.org/ for updates and contact.
+ *
+ * --LICENSE NOTICE--
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ * --LICENSE NOTICE--
+ *
+ */
+
+package de.mud.terminal;
+
+/**
+ * Table driven parser for the escape sequences understood by {@link vt320},
+ * modelled on the DEC ANSI parser state machine described at
+ * http://vt100.net/emu/dec_ansi_parser.
+ * <P>
+ * Every character is looked up in a table by the current state, giving the
+ * action to take and the next state. Parameters go straight into the
+ * parameter array of the terminal, OSC and DCS strings into a buffer of
+ * bounded size, so no objects are created while a sequence is parsed. Once
+ * a sequence is complete it is carried out by the handlers of the original
+ * parser in {@link vt320}.
+ * <P>
+ * Malformed input is handled the DEC way: control characters inside a
+ * sequence are executed, sequences with unknown private markers or
+ * intermediates are dropped instead of spilling their final character on
+ * the screen, and CAN or SUB abort a sequence.
+ */
+class EscapeParser {
+
+  /* states */
+  private final static int GROUND = 0;
+  private final static int ESCAPE = 1;
+  private final static int ESCAPE_INTERMEDIATE = 2;
+  private final static int CSI_ENTRY = 3;
+  private final static int CSI_PARAM = 4;
+  private final static int CSI_INTERMEDIATE = 5;
+  private final static int CSI_IGNORE = 6;
+  private final static int OSC_STRING = 7;
+  private final static int DCS_STRING = 8;
+  private final static int IGNORE_STRING = 9;  /* SOS, PM and APC */
+  private final static int VT52_ROW = 10;      /* ESC Y */
+  private final static int STATES = 11;
+
+  /* actions */
+  private final static int NONE = 0;
+  private final static int PRINT = 1;
+  private final static int EXECUTE = 2;
+  private final static int CLEAR = 3;
+  private final static int COLLECT = 4;
+  private final static int PARAM = 5;
+  private final static int ESC_DISPATCH = 6;
+  private final static int CSI_DISPATCH = 7;
+  private final static int STRING_START = 8;
+  private final static int STRING_PUT = 9;
+  private final static int OSC_END = 10;
+  private final static int DCS_END = 11;
+  private final static int VT52 = 12;
+
+  /** Table entries leave the state, running its exit and entry actions. */
+  private final static int TRANSITION = 0x100;
+
+  /** Characters from here on share one column of the table. */
+  private final static int CLASSES = 0xa1;
+
+  /** Largest value a single parameter can take. */
+  private final static int MAX_PARAM = 65535;
+
+  /** Longest OSC or DCS string we keep; the rest is dropped. */
+  private final static int MAX_STRING = 4096;
+
+  private final static char ESC = 27;
+  private final static char DCS = 144;
+  private final static char CSI = 155;
+  private final static char OSC = 157;
+
+  /** action << 4 | next state, indexed by state * CLASSES + class */
+  private final static short[] TABLE = new short[STATES * CLASSES];
+
+  /** Actions run when entering and leaving each state. */
+  private final static int[] ENTRY = new int[STATES];
+  private final static int[] EXIT = new int[STATES];
+
+  static {
+    for (int state = 0; state < STATES; state++) {
+      // control characters are executed inside sequences
+      set(state, 0x00, 0x1f, EXECUTE, -1);
+
+      switch (state) {
+        case GROUND:
+          set(state, 0x20, 0xa0, PRINT, -1);
+          break;
+        case ESCAPE:
+          set(state, 0x20, 0x2f, COLLECT, ESCAPE_INTERMEDIATE);
+          set(state, 0x30, 0x7e, ESC_DISPATCH, GROUND);
+          set(state, 0x7f, 0x7f, NONE, -1);
+          set(state, 0xa0, 0xa0, ESC_DISPATCH, GROUND);
+          set(state, '[', '[', NONE, CSI_ENTRY);
+          set(state, ']', ']', NONE, OSC_STRING);
+          set(state, 'P', 'P', NONE, DCS_STRING);
+          set(state, 'X', 'X', NONE, IGNORE_STRING);
+          set(state, '^', '_', NONE, IGNORE_STRING);
+          set(state, 'Y', 'Y', NONE, VT52_ROW);
+          break;
+        case ESCAPE_INTERMEDIATE:
+          set(state, 0x20, 0x2f, COLLECT, -1);
+          set(state, 0x30, 0x7e, ESC_DISPATCH, GROUND);
+          set(state, 0x7f, 0x7f, NONE, -1);
+          set(state, 0xa0, 0xa0, ESC_DISPATCH, GROUND);
+          break;
+        case CSI_ENTRY:
+          set(state, 0x20, 0x2f, COLLECT, CSI_INTERMEDIATE);
+          set(state, 0x30, 0x39, PARAM, CSI_PARAM);
+          set(state, 0x3a, 0x3a, NONE, CSI_IGNORE);
+          set(state, 0x3b, 0x3b, PARAM, CSI_PARAM);
+          set(state, 0x3c, 0x3f, COLLECT, CSI_PARAM);
+          set(state, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+          set(state, 0x7f, 0x7f, NONE, -1);
+          set(state, 0xa0, 0xa0, NONE, CSI_IGNORE);
+          break;
+        case CSI_PARAM:
+          set(state, 0x20, 0x2f, COLLECT, CSI_INTERMEDIATE);
+          set(state, 0x30, 0x39, PARAM, -1);
+          set(state, 0x3a, 0x3a, NONE, CSI_IGNORE);
+          set(state, 0x3b, 0x3b, PARAM, -1);
+          set(state, 0x3c, 0x3f, NONE, CSI_IGNORE);
+          set(state, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+          set(state, 0x7f, 0x7f, NONE, -1);
+          set(state, 0xa0, 0xa0, NONE, CSI_IGNORE);
+          break;
+        case CSI_INTERMEDIATE:
+          set(state, 0x20, 0x2f, COLLECT, -1);
+          set(state, 0x30, 0x3f, NONE, CSI_IGNORE);
+          set(state, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+          set(state, 0x7f, 0x7f, NONE, -1);
+          set(state, 0xa0, 0xa0, NONE, CSI_IGNORE);
+          break;
+        case CSI_IGNORE:
+          set(state, 0x20, 0x3f, NONE, -1);
+          set(state, 0x40, 0x7e, NONE, GROUND);
+          set(state, 0x7f, 0xa0, NONE, -1);
+          break;
+        case OSC_STRING:
+          set(state, 0x00, 0x1f, NONE, -1);
+          set(state, 0x07, 0x07, NONE, GROUND);  /* xterm ends OSC with BEL */
+          set(state, 0x20, 0xa0, STRING_PUT, -1);
+          break;
+        case DCS_STRING:
+          set(state, 0x00, 0x1f, NONE, -1);
+          set(state, 0x20, 0xa0, STRING_PUT, -1);
+          break;
+        case IGNORE_STRING:
+          set(state, 0x00, 0xa0, NONE, -1);
+          break;
+        case VT52_ROW:
+          set(state, 0x00, 0xa0, VT52, GROUND);
+          break;
+      }
+
+      // these work from anywhere
+      set(state, 0x18, 0x18, NONE, GROUND);
+      set(state, 0x1a, 0x1a, NONE, GROUND);
+      set(state, ESC, ESC, NONE, ESCAPE);
+      set(state, 0x80, 0x9f, EXECUTE, GROUND);
+      set(state, 0x98, 0x98, NONE, IGNORE_STRING);
+      set(state, 0x9c, 0x9c, NONE, GROUND);
+      set(state, 0x9e, 0x9f, NONE, IGNORE_STRING);
+      set(state, CSI, CSI, NONE, CSI_ENTRY);
+      set(state, DCS, DCS, NONE, DCS_STRING);
+      set(state, OSC, OSC, NONE, OSC_STRING);
+    }
+
+    // the original parser shows stray CAN, SUB and C1 characters like any
+    // other, so keep doing that outside of sequences
+    set(GROUND, 0x18, 0x18, EXECUTE, -1);
+    set(GROUND, 0x1a, 0x1a, EXECUTE, -1);
+    set(GROUND, 0x80, 0x8f, EXECUTE, -1);
+    set(GROUND, 0x91, 0x9a, EXECUTE, -1);
+    set(GROUND, 0x9c, 0x9c, EXECUTE, -1);
+    set(GROUND, 0x9e, 0x9f, EXECUTE, -1);
+
+    ENTRY[ESCAPE] = CLEAR;
+    ENTRY[CSI_ENTRY] = CLEAR;
+    ENTRY[OSC_STRING] = STRING_START;
+    ENTRY[DCS_STRING] = STRING_START;
+    EXIT[OSC_STRING] = OSC_END;
+    EXIT[DCS_STRING] = DCS_END;
+  }
+
+  /**
+   * Fill in part of the table.
+   * @param state state to set the entries of
+   * @param from first character class
+   * @param to last character class, inclusive
+   * @param action action to take
+   * @param next state to go to, -1 to stay without a transition
+   */
+  private static void set(int state, int from, int to, int action, int next) {
+    short entry;
+    if (next < 0)
+      entry = (short) (action << 4 | state);
+    else
+      entry = (short) (TRANSITION | action << 4 | next);
+    for (int i = from; i <= to; i++)
+      TABLE[state * CLASSES + i] = entry;
+  }
+
+  private final vt320 terminal;
+
+  private int state = GROUND;
+
+  /* private marker and intermediate of the current sequence, 0 if none */
+  private char prefix;
+  private char intermediate;
+  private boolean tooManyIntermediates;
+  private boolean tooManyParams;
+
+  /* OSC or DCS string collected so far */
+  private char[] string = new char[64];
+  private int stringLength;
+
+  EscapeParser(vt320 terminal) {
+    this.terminal = terminal;
+  }
+
+  /**
+   * Drop any sequence in progress.
+   */
+  void reset() {
+    state = GROUND;
+    stringLength = 0;
+  }
+
+  /**
+   * @return whether no sequence is in progress
+   */
+  boolean isGround() {
+    return state == GROUND;
+  }
+
+  /**
+   * Feed one character from the host.
+   * @param c character to parse
+   * @param isWide whether the character takes up two cells
+   */
+  void putChar(char c, boolean isWide) {
+    int entry;
+    if (state == GROUND && (c == DCS || c == OSC) && terminal.useibmcharset)
+      entry = PRINT << 4 | GROUND;
+    else
+      entry = TABLE[state * CLASSES + (c < CLASSES ? c : CLASSES - 1)];
+
+    int action = (entry >> 4) & 0xf;
+    if ((entry & TRANSITION) == 0) {
+      perform(action, c, isWide);
+      return;
+    }
+
+    int next = entry & 0xf;
+    perform(EXIT[state], c, isWide);
+    perform(action, c, isWide);
+    state = next;
+    perform(ENTRY[next], c, isWide);
+  }
+
+  private void perform(int action, char c, boolean isWide) {
+    switch (action) {
+      case NONE:
+        break;
+      case PRINT:
+      case EXECUTE:
+        terminal.dispatch(vt320.TSTATE_DATA, c, isWide);
+        break;
+      case CLEAR:
+        prefix = 0;
+        intermediate = 0;
+        tooManyIntermediates = false;
+        tooManyParams = false;
+        terminal.DCEvar = 0;
+        terminal.DCEvars[0] = 0;
+        terminal.DCEvars[1] = 0;
+        terminal.DCEvars[2] = 0;
+        terminal.DCEvars[3] = 0;
+        break;
+      case COLLECT:
+        if (c >= 0x3c && c <= 0x3f)
+          prefix = c;
+        else if (intermediate == 0)
+          intermediate = c;
+        else
+          tooManyIntermediates = true;
+        break;
+      case PARAM:
+        param(c);
+        break;
+      case ESC_DISPATCH:
+        escDispatch(c, isWide);
+        break;
+      case CSI_DISPATCH:
+        csiDispatch(c, isWide);
+        break;
+      case STRING_START:
+        stringLength = 0;
+        break;
+      case STRING_PUT:
+        if (stringLength == string.length && stringLength < MAX_STRING) {
+          char[] grown = new char[Math.min(2 * string.length, MAX_STRING)];
+          System.arraycopy(string, 0, grown, 0, stringLength);
+          string = grown;
+        }
+        if (stringLength < string.length)
+          string[stringLength++] = c;
+        break;
+      case OSC_END:
+        terminal.handle_osc(new String(string, 0, stringLength));
+        break;
+      case DCS_END:
+        terminal.handle_dcs(new String(string, 0, stringLength));
+        break;
+      case VT52:
+        terminal.dispatch(vt320.TSTATE_VT52Y, c, isWide);
+        break;
+    }
+  }
+
+  /**
+   * Add a digit to the current parameter, or start the next one on ';'.
+   * Values are capped and parameters beyond what the terminal can hold are
+   * ignored.
+   */
+  private void param(char c) {
+    int[] params = terminal.DCEvars;
+    if (c == ';') {
+      if (terminal.DCEvar < params.length - 1) {
+        terminal.DCEvar++;
+        params[terminal.DCEvar] = 0;
+      } else
+        tooManyParams = true;
+    } else if (!tooManyParams) {
+      int value = params[terminal.DCEvar] * 10 + c - '0';
+      params[terminal.DCEvar] = value > MAX_PARAM ? MAX_PARAM : value;
+    }
+  }
+
+  private void escDispatch(char c, boolean isWide) {
+    int target;
+    if (tooManyIntermediates)
+      target = -1;
+    else {
+      switch (intermediate) {
+        case 0:
+          target = vt320.TSTATE_ESC;
+          break;
+        case ' ':
+          target = vt320.TSTATE_ESCSPACE;
+          break;
+        case '#':
+          target = vt320.TSTATE_ESCSQUARE;
+          break;
+        case '(':
+          target = vt320.TSTATE_SETG0;
+          break;
+        case ')':
+          target = vt320.TSTATE_SETG1;
+          break;
+        case '*':
+          target = vt320.TSTATE_SETG2;
+          break;
+        case '+':
+          target = vt320.TSTATE_SETG3;
+          break;
+        default:
+          target = -1;
+          break;
+      }
+    }
+
+    if (target < 0) {
+      terminal.debug("ESC " + intermediate + " " + c + " unsupported.");
+      return;
+    }
+
+    /* designating a character set switches on character set mapping */
+    if (target >= vt320.TSTATE_SETG0 && target <= vt320.TSTATE_SETG3)
+      terminal.usedcharsets = true;
+
+    terminal.dispatch(target, c, isWide);
+  }
+
+  private void csiDispatch(char c, boolean isWide) {
+    int target = -1;
+    if (!tooManyIntermediates) {
+      if (intermediate == 0) {
+        switch (prefix) {
+          case 0:
+            target = vt320.TSTATE_CSI;
+            break;
+          case '?':
+            target = vt320.TSTATE_DCEQ;
+            break;
+          case '=':
+            target = vt320.TSTATE_CSI_EQUAL;
+            break;
+        }
+      } else if (prefix == 0) {
+        switch (intermediate) {
+          case '"':
+            target = vt320.TSTATE_CSI_TICKS;
+            break;
+          case '$':
+            target = vt320.TSTATE_CSI_DOLLAR;
+            break;
+          case '!':
+            target = vt320.TSTATE_CSI_EX;
+            break;
+        }
+      }
+    }
+
+    if (target < 0) {
+      terminal.debug("ESC [ " + prefix + " " + terminal.DCEvars[0] + " "
+          + intermediate + " " + c + " unsupported.");
+      return;
+    }
+
+    terminal.dispatch(target, c, isWide);
+  }
+}
@@ -45,8 +45,21 @@ public class VDUBuffer {
 
   public int height, width;                          /* rows and columns */
   public boolean[] update;        /* contains the lines that need update */
-  public char[][] charArray;                  /* contains the characters */
-  public int[][] charAttributes;             /* contains character attrs */
+  public int scrollTop, scrollBottom;      /* region of a pending scroll */
+  public int scrollAmount;       /* lines scrolled up, negative if down */
+  protected char[] charArray;       /* characters of all lines, packed */
+  protected int[] charAttributes;    /* attribute rows of the screen, packed */
+  private int[] lineOffsets;       /* ring of where each line starts */
+  private int[] attributeOffsets;  /* ring of attribute rows, -1 if packed */
+  private int[][] attributeRuns;   /* ring of scrollback attribute runs */
+  private int bufferHead;             /* ring index of the first line */
+  private int allocatedLines;        /* lines of storage handed out */
+  private int allocatedAttributeRows; /* attribute rows handed out */
+  private int[] freeAttributeRows;    /* attribute rows given back */
+  private int freeAttributeCount;
+  private int[] cachedSlots;  /* ring slot unpacked into each cache row */
+  private int[] scratchOffsets;        /* line shuffling while scrolling */
+  private int[] scratchAttributeOffsets;
   public int bufSize;
   public int maxBufSize;                                 /* buffer sizes */
   public int screenBase;                      /* the actual screen start */
@@ -60,6 +73,9 @@ public class VDUBuffer {
   protected boolean showcursor = true;
   protected int cursorX, cursorY;
 
+  /** Attribute runs of a line without any attributes set. */
+  private final static int[] NO_ATTRIBUTES = { 0 };
+
   /** Scroll up when inserting a line. */
   public final static boolean SCROLL_UP = false;
   /** Scroll down when inserting a line. */
@@ -158,8 +174,32 @@ public class VDUBuffer {
    */
 
   public void putChar(int c, int l, char ch, int attributes) {
-    charArray[screenBase + l][c] = ch;
-    charAttributes[screenBase + l][c] = attributes;
+    int index = ringIndex(screenBase + l);
+    charArray[lineOffsets[index] + c] = ch;
+    charAttributes[attributeOffsets[index] + c] = attributes;
+    if (l < height)
+      update[l + 1] = true;
+  }
+
+  /**
+   * Put a run of characters with the same attributes on one line of the
+   * screen. This is the same as calling putChar() for each of them, but
+   * copies the whole run at once. The run must fit on the line.
+   * You need to call redraw() to update the screen.
+   * @param c x-coordinate (column) of the first character
+   * @param l y-coordinate (line)
+   * @param s array holding the characters
+   * @param offset where the run starts in the array
+   * @param length amount of characters
+   * @param attributes the character attributes
+   * @see #putChar
+   * @see #redraw
+   */
+  public void putRun(int c, int l, char[] s, int offset, int length, int attributes) {
+    int index = ringIndex(screenBase + l);
+    System.arraycopy(s, offset, charArray, lineOffsets[index] + c, length);
+    int start = attributeOffsets[index] + c;
+    Arrays.fill(charAttributes, start, start + length, attributes);
     if (l < height)
       update[l + 1] = true;
   }
@@ -171,7 +211,7 @@ public class VDUBuffer {
    * @see #putChar
    */
   public char getChar(int c, int l) {
-    return charArray[screenBase + l][c];
+    return charArray[lineOffsets[ringIndex(screenBase + l)] + c];
   }
 
   /**
@@ -181,7 +221,293 @@ public class VDUBuffer {
    * @see #putChar
    */
   public int getAttributes(int c, int l) {
-    return charAttributes[screenBase + l][c];
+    return charAttributes[getAttributeOffset(screenBase + l) + c];
+  }
+
+  /**
+   * Get the packed characters of all lines in the buffer. Each line takes
+   * width characters starting at its {@link #getLineOffset offset}. The
+   * array may be replaced when the buffer grows, so hold the lock on the
+   * buffer while using it.
+   * @see #getAttributeArray
+   */
+  public char[] getCharArray() {
+    return charArray;
+  }
+
+  /**
+   * Get the packed attribute rows. Each row takes width attributes starting
+   * at the {@link #getAttributeOffset offset} of its line. Hold the lock on
+   * the buffer while using it.
+   * @see #getCharArray
+   */
+  public int[] getAttributeArray() {
+    return charAttributes;
+  }
+
+  /**
+   * Get where a line starts in the character array. Lines are counted from
+   * the start of the scrollback, so the visible screen starts at
+   * windowBase. The offset is only valid until the buffer scrolls.
+   * @param line line in the buffer, from 0 to bufSize - 1
+   * @see #getCharArray
+   */
+  public int getLineOffset(int line) {
+    return lineOffsets[ringIndex(line)];
+  }
+
+  /**
+   * Get where the attributes of a line start in the attribute array.
+   * Lines in the scrollback only keep runs of equal attributes, so they
+   * are unpacked into a row that stays valid until another scrollback
+   * line is looked at or the buffer scrolls.
+   * @param line line in the buffer, from 0 to bufSize - 1
+   * @see #getAttributeArray
+   */
+  public int getAttributeOffset(int line) {
+    int index = ringIndex(line);
+    if (attributeOffsets[index] >= 0)
+      return attributeOffsets[index];
+
+    // scrollback lines share a screen's worth of cache rows
+    int row = index % cachedSlots.length;
+    int offset = row * width;
+    if (cachedSlots[row] != index) {
+      unpackAttributes(attributeRuns[index], charAttributes, offset, width);
+      cachedSlots[row] = index;
+    }
+    return offset;
+  }
+
+  /**
+   * Map a line in the buffer to its slot in the ring of lines.
+   * @param line line counted from the start of the scrollback
+   */
+  private int ringIndex(int line) {
+    int index = bufferHead + line;
+    if (index >= lineOffsets.length)
+      index -= lineOffsets.length;
+    return index;
+  }
+
+  /**
+   * Make sure the ring slot for a line has storage and blank it.
+   * @param line line counted from the start of the scrollback
+   */
+  private void clearLine(int line) {
+    int index = ringIndex(line);
+    if (lineOffsets[index] < 0)
+      lineOffsets[index] = allocateLine();
+    if (attributeOffsets[index] < 0) {
+      attributeOffsets[index] = allocateAttributeRow();
+      attributeRuns[index] = null;
+      int row = index % cachedSlots.length;
+      if (cachedSlots[row] == index)
+        cachedSlots[row] = -1;
+    }
+    int offset = lineOffsets[index];
+    Arrays.fill(charArray, offset, offset + width, ' ');
+    offset = attributeOffsets[index];
+    Arrays.fill(charAttributes, offset, offset + width, 0);
+  }
+
+  /**
+   * Replace the attribute row of a line that scrolled off the screen with
+   * runs of equal attributes and give the row back.
+   * @param line line counted from the start of the scrollback
+   */
+  private void packLine(int line) {
+    int index = ringIndex(line);
+    int offset = attributeOffsets[index];
+    attributeRuns[index] = packAttributes(charAttributes, offset, width);
+    attributeOffsets[index] = -1;
+
+    if (freeAttributeCount == freeAttributeRows.length) {
+      int[] rows = new int[freeAttributeCount * 2];
+      System.arraycopy(freeAttributeRows, 0, rows, 0, freeAttributeCount);
+      freeAttributeRows = rows;
+    }
+    freeAttributeRows[freeAttributeCount++] = offset;
+  }
+
+  /**
+   * Hand out an attribute row for a line on the screen, reusing one given
+   * back by a line that scrolled off if possible.
+   * @return offset of the row in the attribute array
+   */
+  private int allocateAttributeRow() {
+    if (freeAttributeCount > 0)
+      return freeAttributeRows[--freeAttributeCount];
+
+    int offset = allocatedAttributeRows * width;
+    if (offset + width > charAttributes.length) {
+      int[] abuf = new int[(allocatedAttributeRows + height) * width];
+      System.arraycopy(charAttributes, 0, abuf, 0, offset);
+      charAttributes = abuf;
+    }
+    allocatedAttributeRows++;
+    return offset;
+  }
+
+  /**
+   * Pack a row of attributes into runs. The runs are stored as the
+   * attribute of the first run followed by column and attribute of each
+   * next one; the last run extends to the end of the line.
+   * @param attributes array holding the row
+   * @param offset where the row starts
+   * @param w length of the row
+   * @return the runs
+   */
+  private static int[] packAttributes(int[] attributes, int offset, int w) {
+    int runs = 1;
+    for (int i = 1; i < w; i++)
+      if (attributes[offset + i] != attributes[offset + i - 1])
+        runs++;
+
+    if (runs == 1 && attributes[offset] == 0)
+      return NO_ATTRIBUTES;
+
+    int[] packed = new int[runs * 2 - 1];
+    packed[0] = attributes[offset];
+    for (int i = 1, j = 1; i < w; i++)
+      if (attributes[offset + i] != attributes[offset + i - 1]) {
+        packed[j++] = i;
+        packed[j++] = attributes[offset + i];
+      }
+    return packed;
+  }
+
+  /**
+   * Cut attribute runs to a new line length. Cells added to the end of the
+   * line start out without attributes.
+   * @param runs the runs as made by packAttributes
+   * @param oldWidth the line length the runs were made for
+   * @param newWidth the new line length
+   * @return the runs for the new length
+   */
+  private static int[] resizeRuns(int[] runs, int oldWidth, int newWidth) {
+    int length = runs.length;
+    while (length > 1 && runs[length - 2] >= newWidth)
+      length -= 2;
+    boolean extend = newWidth > oldWidth && runs[length - 1] != 0;
+    if (length == runs.length && !extend)
+      return runs;
+
+    int[] resized = new int[extend ? length + 2 : length];
+    System.arraycopy(runs, 0, resized, 0, length);
+    if (extend) {
+      resized[length] = oldWidth;
+      resized[length + 1] = 0;
+    }
+    return resized;
+  }
+
+  /**
+   * Unpack attribute runs into a row.
+   * @param runs the runs as made by packAttributes
+   * @param attributes array to unpack to
+   * @param offset where the row starts
+   * @param w length of the row
+   */
+  private static void unpackAttributes(int[] runs, int[] attributes,
+                                       int offset, int w) {
+    int start = 0;
+    for (int i = 0; i < runs.length && start < w; i += 2) {
+      int end = i + 1 < runs.length ? runs[i + 1] : w;
+      if (end > w)
+        end = w;
+      Arrays.fill(attributes, offset + start, offset + end, runs[i]);
+      start = end;
+    }
+  }
+
+  /**
+   * Hand out storage for the characters of one more line, growing the
+   * packed array when it is full. Storage is never given back until the
+   * buffer is resized.
+   * @return offset of the new line in the character array
+   */
+  private int allocateLine() {
+    int offset = allocatedLines * width;
+    if (offset + width > charArray.length) {
+      // grow by half, but never beyond what the ring can hold
+      int lines = allocatedLines + (allocatedLines >> 1) + 1;
+      if (lines > lineOffsets.length)
+        lines = lineOffsets.length;
+      char[] cbuf = new char[lines * width];
+      System.arraycopy(charArray, 0, cbuf, 0, offset);
+      charArray = cbuf;
+    }
+    allocatedLines++;
+    return offset;
+  }
+
+  /**
+   * Replace the storage with a new ring, packing the lines that are kept
+   * into fresh arrays. Lines that were not in the buffer start out blank.
+   * @param capacity the amount of slots in the ring
+   * @param w the width of a line in the new storage
+   * @param h the height of the screen
+   * @param first the first line of the buffer to keep
+   * @param count the amount of lines in the new buffer
+   * @param screenStart the first kept line that will be on the screen
+   */
+  private void resizeRing(int capacity, int w, int h, int first, int count,
+                          int screenStart) {
+    int[] offsets = new int[capacity];
+    int[] rowOffsets = new int[capacity];
+    int[][] runs = new int[capacity][];
+    Arrays.fill(offsets, -1);
+    Arrays.fill(rowOffsets, -1);
+    char[] cbuf = new char[count * w];
+    Arrays.fill(cbuf, ' ');
+    // a screen's worth of cache rows goes first, then one row per screen line
+    int rows = h + count - screenStart;
+    int[] abuf = new int[rows * w];
+
+    int rowLength = w < width ? w : width;
+    for (int i = 0; i < count; i++) {
+      offsets[i] = i * w;
+      if (i >= screenStart)
+        rowOffsets[i] = (h + i - screenStart) * w;
+
+      int line = first + i;
+      if (lineOffsets == null || line >= bufSize
+          || lineOffsets[ringIndex(line)] < 0) {
+        if (i < screenStart)
+          runs[i] = NO_ATTRIBUTES;
+        continue;
+      }
+
+      int index = ringIndex(line);
+      System.arraycopy(charArray, lineOffsets[index], cbuf, i * w, rowLength);
+
+      int offset = attributeOffsets[index];
+      if (offset >= 0 && i >= screenStart)
+        System.arraycopy(charAttributes, offset, abuf, rowOffsets[i], rowLength);
+      else {
+        int[] packed = offset < 0 ? attributeRuns[index]
+            : packAttributes(charAttributes, offset, width);
+        packed = resizeRuns(packed, width, w);
+        if (i < screenStart)
+          runs[i] = packed;
+        else
+          unpackAttributes(packed, abuf, rowOffsets[i], w);
+      }
+    }
+
+    charArray = cbuf;
+    charAttributes = abuf;
+    lineOffsets = offsets;
+    attributeOffsets = rowOffsets;
+    attributeRuns = runs;
+    bufferHead = 0;
+    allocatedLines = count;
+    allocatedAttributeRows = rows;
+    freeAttributeRows = new int[h];
+    freeAttributeCount = 0;
+    cachedSlots = new int[h];
+    Arrays.fill(cachedSlots, -1);
   }
 
   /**
@@ -203,10 +529,13 @@ public class VDUBuffer {
    * @see #redraw
    */
   public void insertChar(int c, int l, char ch, int attributes) {
-    System.arraycopy(charArray[screenBase + l], c,
-                     charArray[screenBase + l], c + 1, width - c - 1);
-    System.arraycopy(charAttributes[screenBase + l], c,
-                     charAttributes[screenBase + l], c + 1, width - c - 1);
+    int index = ringIndex(screenBase + l);
+    int offset = lineOffsets[index];
+    System.arraycopy(charArray, offset + c,
+                     charArray, offset + c + 1, width - c - 1);
+    offset = attributeOffsets[index];
+    System.arraycopy(charAttributes, offset + c,
+                     charAttributes, offset + c + 1, width - c - 1);
     putChar(c, l, ch, attributes);
   }
 
@@ -222,10 +551,13 @@ public class VDUBuffer {
    */
   public void deleteChar(int c, int l) {
     if (c < width - 1) {
-      System.arraycopy(charArray[screenBase + l], c + 1,
-                       charArray[screenBase + l], c, width - c - 1);
-      System.arraycopy(charAttributes[screenBase + l], c + 1,
-                       charAttributes[screenBase + l], c, width - c - 1);
+      int index = ringIndex(screenBase + l);
+      int offset = lineOffsets[index];
+      System.arraycopy(charArray, offset + c + 1,
+                       charArray, offset + c, width - c - 1);
+      offset = attributeOffsets[index];
+      System.arraycopy(charAttributes, offset + c + 1,
+                       charAttributes, offset + c, width - c - 1);
     }
     putChar(width - 1, l, (char) 0);
   }
@@ -327,15 +659,8 @@ public class VDUBuffer {
    * @see #redraw
    */
   public synchronized void insertLine(int l, int n, boolean scrollDown) {
-    char cbuf[][] = null;
-    int abuf[][] = null;
-    int offset = 0;
-    int oldBase = screenBase;
-
-    int newScreenBase = screenBase;
-    int newWindowBase = windowBase;
-    int newBufSize = bufSize;
-
+    if (n < 1)
+      return;
     if (l > bottomMargin) /* We do not scroll below bottom margin (below the scrolling region). */
       return;
     int top = (l < topMargin ?
@@ -347,141 +672,117 @@ public class VDUBuffer {
             (topMargin > 0 ?
             topMargin - 1 : 0) : bottomMargin));
 
-    // System.out.println("l is "+l+", top is "+top+", bottom is "+bottom+", bottomargin is "+bottomMargin+", topMargin is "+topMargin);
-
     if (scrollDown) {
       if (n > (bottom - top)) n = (bottom - top);
-      int size = bottom - l - (n - 1);
-      if(size < 0) size = 0;
-      cbuf = new char[size][];
-      abuf = new int[size][];
-
-      System.arraycopy(charArray, oldBase + l, cbuf, 0, bottom - l - (n - 1));
-      System.arraycopy(charAttributes, oldBase + l,
-                       abuf, 0, bottom - l - (n - 1));
-      System.arraycopy(cbuf, 0, charArray, oldBase + l + n,
-                       bottom - l - (n - 1));
-      System.arraycopy(abuf, 0, charAttributes, oldBase + l + n,
-                       bottom - l - (n - 1));
-      cbuf = charArray;
-      abuf = charAttributes;
+      if (n > bottom - l + 1) n = bottom - l + 1;
+
+      // rotate lines l..bottom down; the ones falling off become blank
+      for (int i = 0; i < n; i++)
+        saveLine(i, screenBase + bottom - i);
+      for (int i = bottom; i >= l + n; i--)
+        copyLine(screenBase + i - n, screenBase + i);
+      for (int i = 0; i < n; i++) {
+        restoreLine(i, screenBase + l + i);
+        clearLine(screenBase + l + i);
+      }
     } else {
-      try {
-        if (n > (bottom - top) + 1) n = (bottom - top) + 1;
-        if (bufSize < maxBufSize) {
-          if (bufSize + n > maxBufSize) {
-            offset = n - (maxBufSize - bufSize);
-            scrollMarker += offset;
-            newBufSize = maxBufSize;
-            newScreenBase = maxBufSize - height - 1;
-            newWindowBase = screenBase;
-          } else {
-            scrollMarker += n;
-            newScreenBase += n;
-            newWindowBase += n;
-            newBufSize += n;
-          }
-
-          cbuf = new char[newBufSize][];
-          abuf = new int[newBufSize][];
-        } else {
-          offset = n;
-          cbuf = charArray;
-          abuf = charAttributes;
-        }
-        // copy anything from the top of the buffer (+offset) to the new top
-        // up to the screenBase.
-        if (oldBase > 0) {
-          System.arraycopy(charArray, offset,
-                           cbuf, 0,
-                           oldBase - offset);
-          System.arraycopy(charAttributes, offset,
-                           abuf, 0,
-                           oldBase - offset);
-        }
-        // copy anything from the top of the screen (screenBase) up to the
-        // topMargin to the new screen
-        if (top > 0) {
-          System.arraycopy(charArray, oldBase,
-                           cbuf, newScreenBase,
-                           top);
-          System.arraycopy(charAttributes, oldBase,
-                           abuf, newScreenBase,
-                           top);
-        }
-        // copy anything from the topMargin up to the amount of lines inserted
-        // to the gap left over between scrollback buffer and screenBase
-        if (oldBase >= 0) {
-          System.arraycopy(charArray, oldBase + top,
-                           cbuf, oldBase - offset,
-                           n);
-          System.arraycopy(charAttributes, oldBase + top,
-                           abuf, oldBase - offset,
-                           n);
-        }
-        // copy anything from topMargin + n up to the line linserted to the
-        // topMargin
-        System.arraycopy(charArray, oldBase + top + n,
-                         cbuf, newScreenBase + top,
-                         l - top - (n - 1));
-        System.arraycopy(charAttributes, oldBase + top + n,
-                         abuf, newScreenBase + top,
-                         l - top - (n - 1));
-        //
-        // copy the all lines next to the inserted to the new buffer
-        if (l < height - 1) {
-          System.arraycopy(charArray, oldBase + l + 1,
-                           cbuf, newScreenBase + l + 1,
-                           (height - 1) - l);
-          System.arraycopy(charAttributes, oldBase + l + 1,
-                           abuf, newScreenBase + l + 1,
-                           (height - 1) - l);
-        }
-      } catch (ArrayIndexOutOfBoundsException e) {
-        // this should not happen anymore, but I will leave the code
-        // here in case something happens anyway. That code above is
-        // so complex I always have a hard time understanding what
-        // I did, even though there are comments
-        System.err.println("*** Error while scrolling up:");
-        System.err.println("--- BEGIN STACK TRACE ---");
-        e.printStackTrace();
-        System.err.println("--- END STACK TRACE ---");
-        System.err.println("bufSize=" + bufSize + ", maxBufSize=" + maxBufSize);
-        System.err.println("top=" + top + ", bottom=" + bottom);
-        System.err.println("n=" + n + ", l=" + l);
-        System.err.println("screenBase=" + screenBase + ", windowBase=" + windowBase);
-        System.err.println("newScreenBase=" + newScreenBase + ", newWindowBase=" + newWindowBase);
-        System.err.println("oldBase=" + oldBase);
-        System.err.println("size.width=" + width + ", size.height=" + height);
-        System.err.println("abuf.length=" + abuf.length + ", cbuf.length=" + cbuf.length);
-        System.err.println("*** done dumping debug information");
+      if (n > (bottom - top) + 1) n = (bottom - top) + 1;
+      if (n > l - top + 1) n = l - top + 1;
+
+      // the spare lines right after the buffer become the new blank lines
+      for (int i = 0; i < n; i++)
+        clearLine(bufSize + i);
+
+      if (top > 0 || l < height - 1) {
+        // Lines scrolled out of the region go to the end of the scrollback
+        // while lines outside of the region keep their place on screen:
+        // [top, top + n) [0, top) [top + n, l] blank [l + 1, height)
+        int count = height + n;
+        for (int i = 0; i < count; i++)
+          saveLine(i, screenBase + i);
+        int line = screenBase;
+        line = moveLines(line, top, n);
+        line = moveLines(line, 0, top);
+        line = moveLines(line, top + n, l - top - n + 1);
+        line = moveLines(line, height, n);
+        moveLines(line, l + 1, height - l - 1);
       }
-    }
-
-    // this is a little helper to mark the scrolling
-    scrollMarker -= n;
 
-
-    for (int i = 0; i < n; i++) {
-      cbuf[(newScreenBase + l) + (scrollDown ? i : -i)] = new char[width];
-      Arrays.fill(cbuf[(newScreenBase + l) + (scrollDown ? i : -i)], ' ');
-      abuf[(newScreenBase + l) + (scrollDown ? i : -i)] = new int[width];
+      // lines that scrolled off only keep runs of equal attributes
+      for (int i = 0; i < n; i++)
+        packLine(screenBase + i);
+
+      // a plain scroll of the whole screen only moves the head of the ring
+      bufSize += n;
+      screenBase += n;
+      windowBase += n;
+      if (bufSize > maxBufSize) {
+        int drop = bufSize - maxBufSize;
+        bufferHead = (bufferHead + drop) % lineOffsets.length;
+        bufSize = maxBufSize;
+        screenBase -= drop;
+        windowBase -= drop;
+        scrollMarker -= drop;
+        if (windowBase < 0)
+          windowBase = 0;
+      }
     }
 
-    charArray = cbuf;
-    charAttributes = abuf;
-    screenBase = newScreenBase;
-    windowBase = newWindowBase;
-    bufSize = newBufSize;
-
     if (scrollDown)
-      markLine(l, bottom - l + 1);
+      markScroll(l, bottom, -n);
     else
-      markLine(top, l - top + 1);
+      markScroll(top, l, n);
 
     display.updateScrollBar();
   }
 
+  /**
+   * Put lines from the scratch area back into the ring.
+   * @param line buffer line to start at
+   * @param from first scratch line to take
+   * @param n amount of lines
+   * @return the buffer line after the last one written
+   */
+  private int moveLines(int line, int from, int n) {
+    for (int i = 0; i < n; i++)
+      restoreLine(from + i, line++);
+    return line;
+  }
+
+  /**
+   * Remember where a line on the screen is stored in the scratch area.
+   * @param scratch scratch line to use
+   * @param line buffer line to save
+   */
+  private void saveLine(int scratch, int line) {
+    int index = ringIndex(line);
+    scratchOffsets[scratch] = lineOffsets[index];
+    scratchAttributeOffsets[scratch] = attributeOffsets[index];
+  }
+
+  /**
+   * Put a line from the scratch area back into the ring.
+   * @param scratch scratch line to take
+   * @param line buffer line to restore to
+   */
+  private void restoreLine(int scratch, int line) {
+    int index = ringIndex(line);
+    lineOffsets[index] = scratchOffsets[scratch];
+    attributeOffsets[index] = scratchAttributeOffsets[scratch];
+  }
+
+  /**
+   * Move a line on the screen to another place in the ring.
+   * @param from buffer line to take
+   * @param to buffer line to put it
+   */
+  private void copyLine(int from, int to) {
+    int fromIndex = ringIndex(from);
+    int toIndex = ringIndex(to);
+    lineOffsets[toIndex] = lineOffsets[fromIndex];
+    attributeOffsets[toIndex] = attributeOffsets[fromIndex];
+  }
+
   /**
    * Delete a line at a specific position. Subsequent lines will be scrolled
    * up to fill the space and a blank line is inserted at the end of the
@@ -490,27 +791,19 @@ public class VDUBuffer {
    * @see #deleteLine
    */
   public void deleteLine(int l) {
-    int bottom = (l > bottomMargin ? height - 1:
+    int bottom = (l > bottomMargin ? height:
             (l < topMargin?topMargin:bottomMargin + 1));
     int numRows = bottom - l - 1;
 
-    char[] discardedChars = charArray[screenBase + l];
-    int[] discardedAttributes = charAttributes[screenBase + l];
+    saveLine(0, screenBase + l);
 
-    if (numRows > 0) {
-	    System.arraycopy(charArray, screenBase + l + 1,
-	                     charArray, screenBase + l, numRows);
-	    System.arraycopy(charAttributes, screenBase + l + 1,
-	                     charAttributes, screenBase + l, numRows);
-    }
+    for (int i = 0; i < numRows; i++)
+      copyLine(screenBase + l + i + 1, screenBase + l + i);
 
-    int newBottomRow = screenBase + bottom - 1;
-    charArray[newBottomRow] = discardedChars;
-    charAttributes[newBottomRow] = discardedAttributes;
-    Arrays.fill(charArray[newBottomRow], ' ');
-    Arrays.fill(charAttributes[newBottomRow], 0);
+    restoreLine(0, screenBase + bottom - 1);
+    clearLine(screenBase + bottom - 1);
 
-    markLine(l, bottom - l);
+    markScroll(l, bottom - 1, 1);
   }
 
   /**
@@ -527,11 +820,12 @@ public class VDUBuffer {
    */
   public void deleteArea(int c, int l, int w, int h, int curAttr) {
     int endColumn = c + w;
-    int targetRow = screenBase + l;
     for (int i = 0; i < h && l + i < height; i++) {
-      Arrays.fill(charAttributes[targetRow], c, endColumn, curAttr);
-      Arrays.fill(charArray[targetRow], c, endColumn, ' ');
-      targetRow++;
+      int index = ringIndex(screenBase + l + i);
+      int offset = attributeOffsets[index];
+      Arrays.fill(charAttributes, offset + c, offset + endColumn, curAttr);
+      offset = lineOffsets[index];
+      Arrays.fill(charArray, offset + c, offset + endColumn, ' ');
     }
     markLine(l, h);
   }
@@ -685,20 +979,15 @@ public class VDUBuffer {
   public void setBufferSize(int amount) {
     if (amount < height) amount = height;
     if (amount < maxBufSize) {
-      char cbuf[][] = new char[amount][width];
-      int abuf[][] = new int[amount][width];
-      int copyStart = bufSize - amount < 0 ? 0 : bufSize - amount;
-      int copyCount = bufSize - amount < 0 ? bufSize : amount;
-      if (charArray != null)
-        System.arraycopy(charArray, copyStart, cbuf, 0, copyCount);
-      if (charAttributes != null)
-        System.arraycopy(charAttributes, copyStart, abuf, 0, copyCount);
-      charArray = cbuf;
-      charAttributes = abuf;
-      bufSize = copyCount;
+      // the ring keeps a screen's worth of spare lines for scrolling into
+      int count = bufSize < amount ? bufSize : amount;
+      resizeRing(amount + height, width, height, bufSize - count, count,
+                 count - height);
+      bufSize = count;
       screenBase = bufSize - height;
       windowBase = screenBase;
-    }
+    } else if (amount > maxBufSize)
+      resizeRing(amount + height, width, height, 0, bufSize, screenBase);
     maxBufSize = amount;
 
     update[0] = true;
@@ -728,9 +1017,7 @@ public class VDUBuffer {
    * @param h of the screen
    */
   public void setScreenSize(int w, int h, boolean broadcast) {
-    char cbuf[][];
-    int abuf[][];
-    int maxSize = bufSize;
+    int oldBufSize = bufSize;
 
     if (w < 1 || h < 1) return;
 
@@ -746,34 +1033,21 @@ public class VDUBuffer {
       windowBase = 0;
     }
 
+    // lines below the screen would be lost on the next scroll anyway
+    if (screenBase + h < bufSize)
+      bufSize = screenBase + h;
+
     if (windowBase + h >= bufSize)
       windowBase = bufSize - h;
 
     if (screenBase + h >= bufSize)
       screenBase = bufSize - h;
 
-
-    cbuf = new char[bufSize][w];
-    abuf = new int[bufSize][w];
-
-
-    for (int i = 0; i < bufSize; i++) {
-      Arrays.fill(cbuf[i], ' ');
-    }
-
-    if (bufSize < maxSize)
-      maxSize = bufSize;
-
-    int rowLength;
-    if (charArray != null && charAttributes != null) {
-      for (int i = 0; i < maxSize && charArray[i] != null; i++) {
-        rowLength = charArray[i].length;
-        System.arraycopy(charArray[i], 0, cbuf[i], 0,
-                         w < rowLength ? w : rowLength);
-        System.arraycopy(charAttributes[i], 0, abuf[i], 0,
-                         w < rowLength ? w : rowLength);
-      }
-    }
+    // keep lines from the top of the buffer, the new ones start out blank
+    int count = bufSize;
+    bufSize = oldBufSize;
+    resizeRing(maxBufSize + h, w, h, 0, count, screenBase);
+    bufSize = count;
 
     int C = getCursorColumn();
     if (C < 0)
@@ -789,14 +1063,15 @@ public class VDUBuffer {
 
     setCursorPosition(C, R);
 
-    charArray = cbuf;
-    charAttributes = abuf;
+    scratchOffsets = new int[2 * h];
+    scratchAttributeOffsets = new int[2 * h];
     width = w;
     height = h;
     topMargin = 0;
     bottomMargin = h - 1;
     update = new boolean[h + 1];
     update[0] = true;
+    scrollAmount = 0;
     /*  FIXME: ???
     if(resizeStrategy == RESIZE_FONT)
       setBounds(getBounds());
@@ -828,6 +1103,50 @@ public class VDUBuffer {
       update[l + i + 1] = true;
   }
 
+  /**
+   * Note that lines of the screen moved so the display can shift what it
+   * has already drawn instead of drawing the whole region again. Only one
+   * scroll is kept; it is in scrollTop, scrollBottom and scrollAmount until
+   * the display resets scrollAmount to 0. Lines coming into view, and any
+   * line that can't simply be shifted, are marked for update.
+   * @param top first line of the region
+   * @param bottom last line of the region
+   * @param n amount of lines moved up, negative when moved down
+   * @see #markLine
+   */
+  private void markScroll(int top, int bottom, int n) {
+    int rows = bottom - top + 1;
+    if (update[0] || windowBase != screenBase
+        || Math.abs(scrollAmount + n) >= rows) {
+      markLine(top, rows);
+      return;
+    }
+
+    if (scrollAmount != 0 && (top != scrollTop || bottom != scrollBottom
+        || (n > 0) != (scrollAmount > 0))) {
+      // the earlier scroll is not shifted after all, so draw its lines too
+      markLine(scrollTop, scrollBottom - scrollTop + 1);
+      markLine(top, rows);
+      scrollAmount = 0;
+      return;
+    }
+
+    // lines still waiting for an update move along with their contents
+    if (n > 0) {
+      for (int i = top; i <= bottom - n; i++)
+        update[i + 1] = update[i + n + 1];
+      markLine(bottom - n + 1, n);
+    } else {
+      for (int i = bottom; i >= top - n; i--)
+        update[i + 1] = update[i + n + 1];
+      markLine(top, -n);
+    }
+
+    scrollTop = top;
+    scrollBottom = bottom;
+    scrollAmount += n;
+  }
+
 //  private static int checkBounds(int value, int lower, int upper) {
 //    if (value < lower)
 //      return lower;
@@ -98,6 +98,20 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
         if (c <= 0x7F) {
           if (lastChar != -1)
             putChar((char) lastChar, isWide, false);
+
+          // copy runs of printable characters to the screen in one go,
+          // all but the last one, which a combining mark could follow
+          if (canPutRun()) {
+            int end = i;
+            while (end < len && s[start + end] >= 0x20 && s[start + end] < 0x7f)
+              end++;
+            if (end - i > 1) {
+              putPrintable(s, start + i, end - i - 1);
+              i = end - 1;
+              c = s[start + i];
+            }
+          }
+
           lastChar = c;
           isWide = false;
         } else if (!Character.isLowSurrogate(c) && !Character.isHighSurrogate(c)) {
@@ -125,6 +139,45 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
     }
   }
 
+  /**
+   * Check whether printable ASCII characters would go on the screen as they
+   * are: no sequence is in progress and neither insert mode nor any
+   * character set mapping is active.
+   */
+  private boolean canPutRun() {
+    if (parser != null ? !parser.isGround() : term_state != TSTATE_DATA)
+      return false;
+    return insertmode == 0 && onegl < 0 && !useibmcharset
+        && (!usedcharsets || gx[gl] == 'B' || gx[gl] == 'A');
+  }
+
+  /**
+   * Put printable ASCII characters at the cursor, copying as much as fits
+   * on the line at once. A character that has to wrap goes through the
+   * parser on its own.
+   * @param s array holding the characters
+   * @param offset where the characters start in the array
+   * @param length amount of characters
+   */
+  private void putPrintable(char[] s, int offset, int length) {
+    lastwaslf = 0;
+    while (length > 0) {
+      if (C >= width) {
+        dispatch(TSTATE_DATA, s[offset++], false);
+        length--;
+        continue;
+      }
+
+      int n = width - C;
+      if (n > length)
+        n = length;
+      putRun(C, R, s, offset, n, attributes);
+      C += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
   protected void sendTelnetCommand(byte cmd) {
 
   }
@@ -432,6 +485,22 @@ public void setScreenSize(int c, int r, boolean broadcast) {
     useibmcharset = ibm;
   }
 
+  /**
+   * Choose between the table driven escape sequence parser and the
+   * original one built into this class. Both understand the same
+   * sequences; the table driven one keeps the state of a sequence in
+   * preallocated buffers.
+   * @param tableDriven true to parse with {@link EscapeParser}
+   * @see EscapeParser
+   */
+  public void setTableParser(boolean tableDriven) {
+    if (tableDriven)
+      parser = new EscapeParser(this);
+    else
+      parser = null;
+    term_state = TSTATE_DATA;
+  }
+
   /**
    * Override the standard key codes used by the terminal emulation.
    * @param codes a properties object containing key code definitions
@@ -622,25 +691,25 @@ public void setScreenSize(int c, int r, boolean broadcast) {
   private final static char HTS = 136;
   private final static char CSI = 155;
   private final static char OSC = 157;
-  private final static int TSTATE_DATA = 0;
-  private final static int TSTATE_ESC = 1; /* ESC */
-  private final static int TSTATE_CSI = 2; /* ESC [ */
-  private final static int TSTATE_DCS = 3; /* ESC P */
-  private final static int TSTATE_DCEQ = 4; /* ESC [? */
-  private final static int TSTATE_ESCSQUARE = 5; /* ESC # */
-  private final static int TSTATE_OSC = 6;       /* ESC ] */
-  private final static int TSTATE_SETG0 = 7;     /* ESC (? */
-  private final static int TSTATE_SETG1 = 8;     /* ESC )? */
-  private final static int TSTATE_SETG2 = 9;     /* ESC *? */
-  private final static int TSTATE_SETG3 = 10;    /* ESC +? */
-  private final static int TSTATE_CSI_DOLLAR = 11; /* ESC [ Pn $ */
-  private final static int TSTATE_CSI_EX = 12; /* ESC [ ! */
-  private final static int TSTATE_ESCSPACE = 13; /* ESC <space> */
-  private final static int TSTATE_VT52X = 14;
-  private final static int TSTATE_VT52Y = 15;
-  private final static int TSTATE_CSI_TICKS = 16;
-  private final static int TSTATE_CSI_EQUAL = 17; /* ESC [ = */
-  private final static int TSTATE_TITLE = 18; /* xterm title */
+  final static int TSTATE_DATA = 0;
+  final static int TSTATE_ESC = 1; /* ESC */
+  final static int TSTATE_CSI = 2; /* ESC [ */
+  final static int TSTATE_DCS = 3; /* ESC P */
+  final static int TSTATE_DCEQ = 4; /* ESC [? */
+  final static int TSTATE_ESCSQUARE = 5; /* ESC # */
+  final static int TSTATE_OSC = 6;       /* ESC ] */
+  final static int TSTATE_SETG0 = 7;     /* ESC (? */
+  final static int TSTATE_SETG1 = 8;     /* ESC )? */
+  final static int TSTATE_SETG2 = 9;     /* ESC *? */
+  final static int TSTATE_SETG3 = 10;    /* ESC +? */
+  final static int TSTATE_CSI_DOLLAR = 11; /* ESC [ Pn $ */
+  final static int TSTATE_CSI_EX = 12; /* ESC [ ! */
+  final static int TSTATE_ESCSPACE = 13; /* ESC <space> */
+  final static int TSTATE_VT52X = 14;
+  final static int TSTATE_VT52Y = 15;
+  final static int TSTATE_CSI_TICKS = 16;
+  final static int TSTATE_CSI_EQUAL = 17; /* ESC [ = */
+  final static int TSTATE_TITLE = 18; /* xterm title */
 
   /* Keys we support */
   public final static int KEY_PAUSE = 1;
@@ -757,17 +826,21 @@ public void setScreenSize(int c, int r, boolean broadcast) {
   private String KeyHome[], KeyEnd[], Insert[], Remove[], PrevScn[], NextScn[];
   private String Escape[], BackSpace[], NUMDot[], NUMPlus[];
 
-  private String osc,dcs;  /* to memorize OSC & DCS control sequence */
+  /* to memorize OSC & DCS control sequence */
+  private final StringBuilder osc = new StringBuilder();
+  private final StringBuilder dcs = new StringBuilder();
 
   /** vt320 state variable (internal) */
   private int term_state = TSTATE_DATA;
+  /** table driven parser, null to use the switch in putChar */
+  private EscapeParser parser = null;
   /** in vms mode, set by Terminal.VMS property */
   private boolean vms = false;
   /** Tabulators */
   private byte[] Tabs;
   /** The list of integers as used by CSI */
-  private int[] DCEvars = new int[30];
-  private int DCEvar;
+  int[] DCEvars = new int[30];
+  int DCEvar;
 
   /**
    * Replace escape code characters (backslash + identifier) with their
@@ -1188,14 +1261,14 @@ public void setScreenSize(int c, int r, boolean broadcast) {
     }
   }
 
-  private void handle_dcs(String dcs) {
+  void handle_dcs(String dcs) {
     debugStr.append("DCS: ")
       .append(dcs);
     debug(debugStr.toString());
     debugStr.setLength(0);
   }
 
-  private void handle_osc(String osc) {
+  void handle_osc(String osc) {
 	  if (osc.length() > 2 && osc.substring(0, 2).equals("4;")) {
 			// Define color palette
 			String[] colorData = osc.split(";");
@@ -1519,6 +1592,26 @@ public void setScreenSize(int c, int r, boolean broadcast) {
   }
 
   private void putChar(char c, boolean isWide, boolean doshowcursor) {
+    if (parser != null)
+      parser.putChar(c, isWide);
+    else
+      emulate(c, isWide);
+  }
+
+  /**
+   * Run a character through the original parser starting from a given
+   * state. The table driven parser uses this to carry out a sequence once
+   * it has recognized it.
+   * @param state state to handle the character in
+   * @param c character to handle
+   * @param isWide whether the character takes up two cells
+   */
+  void dispatch(int state, char c, boolean isWide) {
+    term_state = state;
+    emulate(c, isWide);
+  }
+
+  private void emulate(char c, boolean isWide) {
     int rows = this.height; //statusline
     int columns = this.width;
     // byte msg[];
@@ -1555,7 +1648,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
           boolean doneflag = true;
           switch (c) {
             case OSC:
-              osc = "";
+              osc.setLength(0);
               term_state = TSTATE_OSC;
               break;
             case RI:
@@ -1599,7 +1692,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
                 debug("HTS");
               break;
             case DCS:
-              dcs = "";
+              dcs.setLength(0);
               term_state = TSTATE_DCS;
               break;
             default:
@@ -1827,17 +1920,17 @@ public void setScreenSize(int c, int r, boolean broadcast) {
         break;
       case TSTATE_OSC:
         if ((c < 0x20) && (c != ESC)) {// NP - No printing character
-          handle_osc(osc);
+          handle_osc(osc.toString());
           term_state = TSTATE_DATA;
           break;
         }
         //but check for vt102 ESC \
-        if (c == '\\' && osc.charAt(osc.length() - 1) == ESC) {
-          handle_osc(osc);
+        if (c == '\\' && osc.length() > 0 && osc.charAt(osc.length() - 1) == ESC) {
+          handle_osc(osc.toString());
           term_state = TSTATE_DATA;
           break;
         }
-        osc = osc + c;
+        osc.append(c);
         break;
       case TSTATE_ESCSPACE:
         term_state = TSTATE_DATA;
@@ -1874,11 +1967,11 @@ public void setScreenSize(int c, int r, boolean broadcast) {
             term_state = TSTATE_CSI;
             break;
           case ']':
-            osc = "";
+            osc.setLength(0);
             term_state = TSTATE_OSC;
             break;
           case 'P':
-            dcs = "";
+            dcs.setLength(0);
             term_state = TSTATE_DCS;
             break;
           case 'A': /* CUU */
@@ -2101,12 +2194,12 @@ public void setScreenSize(int c, int r, boolean broadcast) {
         term_state = TSTATE_DATA;
         break;
       case TSTATE_DCS:
-        if (c == '\\' && dcs.charAt(dcs.length() - 1) == ESC) {
-          handle_dcs(dcs);
+        if (c == '\\' && dcs.length() > 0 && dcs.charAt(dcs.length() - 1) == ESC) {
+          handle_dcs(dcs.toString());
           term_state = TSTATE_DATA;
           break;
         }
-        dcs = dcs + c;
+        dcs.append(c);
         break;
 
       case TSTATE_DCEQ:
@@ -3022,5 +3115,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
     showCursor(true);
     /*FIXME:*/
     term_state = TSTATE_DATA;
+    if (parser != null)
+      parser.reset();
   }
 }
@@ -64,6 +64,7 @@ import android.widget.TextView;
 import android.widget.AdapterView.OnItemClickListener;
 
 import com.nullwire.trace.ExceptionHandler;
+import com.trilead.ssh2.crypto.dh.DhKeyPairPool;
 
 public class HostListActivity extends ListActivity {
 	public final static int REQUEST_EDIT = 1;
@@ -119,6 +120,9 @@ public class HostListActivity extends ListActivity {
 
 		if(this.hostdb == null)
 			this.hostdb = new HostDatabase(this);
+
+		// work out DH keys while the user picks a host, if recent connections used DH
+		DhKeyPairPool.prepare();
 	}
 
 	@Override
@@ -148,29 +148,34 @@ public class SelectionArea {
 
 		StringBuffer buffer = new StringBuffer(size);
 
-		for(int y = getTop(); y <= getBottom(); y++) {
-			int lastNonSpace = buffer.length();
+		synchronized (vb) {
+			char[] chars = vb.getCharArray();
 
-			for (int x = getLeft(); x <= getRight(); x++) {
-				// only copy printable chars
-				char c = vb.getChar(x, y);
+			for(int y = getTop(); y <= getBottom(); y++) {
+				int lastNonSpace = buffer.length();
+				int offset = vb.getLineOffset(vb.screenBase + y);
 
-				if (!Character.isDefined(c) ||
-						(Character.isISOControl(c) && c != '\t'))
-					c = ' ';
+				for (int x = getLeft(); x <= getRight(); x++) {
+					// only copy printable chars
+					char c = chars[offset + x];
 
-				if (c != ' ')
-					lastNonSpace = buffer.length();
+					if (!Character.isDefined(c) ||
+							(Character.isISOControl(c) && c != '\t'))
+						c = ' ';
 
-				buffer.append(c);
-			}
+					if (c != ' ')
+						lastNonSpace = buffer.length();
+
+					buffer.append(c);
+				}
 
-			// Don't leave a bunch of spaces in our copy buffer.
-			if (buffer.length() > lastNonSpace)
-				buffer.delete(lastNonSpace + 1, buffer.length());
+				// Don't leave a bunch of spaces in our copy buffer.
+				if (buffer.length() > lastNonSpace)
+					buffer.delete(lastNonSpace + 1, buffer.length());
 
-			if (y != bottom)
-				buffer.append("\n");
+				if (y != bottom)
+					buffer.append("\n");
+			}
 		}
 
 		return buffer.toString();
@@ -0,0 +1,274 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import java.util.Arrays;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Bitmap.Config;
+
+/**
+ * Keeps rendered terminal cells in an atlas bitmap so drawing a cell is a
+ * single bitmap copy instead of a round of text layout. Each glyph is
+ * rendered once per character, color pair and underline, complete with its
+ * background. The atlas has a fixed number of slots; when it is full the
+ * least recently used glyph makes room, approximated with a clock.
+ */
+public class GlyphCache {
+	/** Most memory we'll spend on the atlas bitmap, in bytes. */
+	private static final int MAX_ATLAS_BYTES = 1024 * 1024;
+
+	/** Bounds on the number of glyphs in the atlas. */
+	private static final int MIN_GLYPHS = 64;
+	private static final int MAX_GLYPHS = 1024;
+
+	/** Glyphs per row of the atlas. */
+	private static final int ATLAS_COLUMNS = 32;
+
+	private static final long EMPTY = -1;
+
+	private final Paint paint = new Paint();
+	private final Canvas atlasCanvas = new Canvas();
+	private final char[] glyph = new char[1];
+	private final Rect src = new Rect();
+	private final Rect dst = new Rect();
+
+	private Bitmap atlas = null;
+	private int glyphWidth = 0;
+	private int glyphHeight = 0;
+	private int glyphTop = 0;
+	private int capacity = 0;
+
+	/* key held by each atlas slot and whether it was used since the clock
+	 * hand last passed it */
+	private long[] slotKeys;
+	private boolean[] referenced;
+	private int used = 0;
+	private int hand = 0;
+
+	/* open addressing table from key to atlas slot */
+	private long[] tableKeys;
+	private int[] tableSlots;
+	private int mask;
+
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	/**
+	 * Start rendering glyphs with a new font. This throws away everything in
+	 * the atlas.
+	 *
+	 * @param source paint with the typeface and text size to use
+	 * @param width width of a terminal cell in pixels
+	 * @param height height of a terminal cell in pixels
+	 * @param top distance from the baseline to the top of a cell, negative
+	 */
+	public synchronized void setFont(Paint source, int width, int height, int top) {
+		paint.set(source);
+		glyphWidth = width;
+		glyphHeight = height;
+		glyphTop = top;
+
+		int bytesPerGlyph = Math.max(1, width * height * 4);
+		capacity = MAX_ATLAS_BYTES / bytesPerGlyph;
+		if (capacity > MAX_GLYPHS)
+			capacity = MAX_GLYPHS;
+		else if (capacity < MIN_GLYPHS)
+			capacity = MIN_GLYPHS;
+		capacity -= capacity % ATLAS_COLUMNS;
+
+		slotKeys = new long[capacity];
+		referenced = new boolean[capacity];
+
+		int tableSize = Integer.highestOneBit(capacity) * 4;
+		tableKeys = new long[tableSize];
+		tableSlots = new int[tableSize];
+		mask = tableSize - 1;
+
+		recycle();
+	}
+
+	/**
+	 * Forget all glyphs, e.g., because the color palette changed.
+	 */
+	public synchronized void clear() {
+		if (tableKeys != null)
+			Arrays.fill(tableKeys, EMPTY);
+		used = 0;
+		hand = 0;
+	}
+
+	/**
+	 * Give back the atlas bitmap. It is created again on the next draw.
+	 */
+	public synchronized void recycle() {
+		if (atlas != null)
+			atlas.recycle();
+		atlas = null;
+		clear();
+	}
+
+	/**
+	 * Draw one terminal cell.
+	 *
+	 * @param canvas canvas to draw on
+	 * @param c character to draw
+	 * @param fgIndex palette index of the foreground color
+	 * @param fg foreground color
+	 * @param bgIndex palette index of the background color
+	 * @param bg background color
+	 * @param underline whether to underline the glyph
+	 * @param x left edge of the cell
+	 * @param y top edge of the cell
+	 */
+	public synchronized void draw(Canvas canvas, char c, int fgIndex, int fg,
+			int bgIndex, int bg, boolean underline, int x, int y) {
+		if (atlas == null) {
+			atlas = Bitmap.createBitmap(ATLAS_COLUMNS * glyphWidth,
+					capacity / ATLAS_COLUMNS * glyphHeight, Config.ARGB_8888);
+			atlasCanvas.setBitmap(atlas);
+		}
+
+		long key = (long) c
+				| (long) (fgIndex & 0x1ff) << 16
+				| (long) (bgIndex & 0x1ff) << 25
+				| (underline ? 1L << 34 : 0);
+
+		int slot = find(key);
+		if (slot >= 0) {
+			hitCount++;
+			referenced[slot] = true;
+		} else {
+			missCount++;
+			slot = allocateSlot();
+			slotKeys[slot] = key;
+			insert(key, slot);
+			render(slot, c, fg, bg, underline);
+		}
+
+		int left = (slot % ATLAS_COLUMNS) * glyphWidth;
+		int top = (slot / ATLAS_COLUMNS) * glyphHeight;
+		src.set(left, top, left + glyphWidth, top + glyphHeight);
+		dst.set(x, y, x + glyphWidth, y + glyphHeight);
+		canvas.drawBitmap(atlas, src, dst, null);
+	}
+
+	private void render(int slot, char c, int fg, int bg, boolean underline) {
+		int left = (slot % ATLAS_COLUMNS) * glyphWidth;
+		int top = (slot / ATLAS_COLUMNS) * glyphHeight;
+
+		atlasCanvas.save(Canvas.CLIP_SAVE_FLAG);
+		atlasCanvas.clipRect(left, top, left + glyphWidth, top + glyphHeight);
+		atlasCanvas.drawColor(bg);
+
+		glyph[0] = c;
+		paint.setColor(fg);
+		paint.setUnderlineText(underline);
+		atlasCanvas.drawText(glyph, 0, 1, left, top - glyphTop, paint);
+
+		atlasCanvas.restore();
+	}
+
+	/**
+	 * Find a free slot, or sweep the clock hand until it finds a glyph that
+	 * wasn't used since the last time around and evict that one.
+	 */
+	private int allocateSlot() {
+		if (used < capacity)
+			return used++;
+
+		while (referenced[hand]) {
+			referenced[hand] = false;
+			hand = (hand + 1) % capacity;
+		}
+
+		int slot = hand;
+		hand = (hand + 1) % capacity;
+		remove(slotKeys[slot]);
+		evictionCount++;
+		return slot;
+	}
+
+	private int hash(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+	private int find(long key) {
+		for (int i = hash(key); tableKeys[i] != EMPTY; i = (i + 1) & mask)
+			if (tableKeys[i] == key)
+				return tableSlots[i];
+		return -1;
+	}
+
+	private void insert(long key, int slot) {
+		int i = hash(key);
+		while (tableKeys[i] != EMPTY)
+			i = (i + 1) & mask;
+		tableKeys[i] = key;
+		tableSlots[i] = slot;
+	}
+
+	private void remove(long key) {
+		int i = hash(key);
+		while (tableKeys[i] != key) {
+			if (tableKeys[i] == EMPTY)
+				return;
+			i = (i + 1) & mask;
+		}
+
+		// shift back entries that probed past the removed one
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (tableKeys[j] == EMPTY)
+				break;
+			int home = hash(tableKeys[j]);
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				tableKeys[i] = tableKeys[j];
+				tableSlots[i] = tableSlots[j];
+				i = j;
+			}
+		}
+		tableKeys[i] = EMPTY;
+	}
+
+	/**
+	 * @return number of cells drawn from a glyph already in the atlas
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return number of glyphs rendered into the atlas
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return number of glyphs thrown out to make room for another
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+}
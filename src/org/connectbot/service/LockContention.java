@@ -0,0 +1,76 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+/**
+ * Keeps track of how often, and for how long, one side had to wait for the
+ * terminal buffer lock.
+ */
+public class LockContention {
+	/** Waits shorter than this are just the cost of taking the lock. */
+	private static final long CONTENDED_NANOS = 100 * 1000;
+
+	private long acquireCount = 0;
+	private long contendedCount = 0;
+	private long waitNanos = 0;
+	private long maxWaitNanos = 0;
+
+	/**
+	 * Note that the lock was taken.
+	 *
+	 * @param waited nanoseconds spent waiting for it
+	 */
+	public synchronized void record(long waited) {
+		acquireCount++;
+		if (waited < CONTENDED_NANOS)
+			return;
+
+		contendedCount++;
+		waitNanos += waited;
+		if (waited > maxWaitNanos)
+			maxWaitNanos = waited;
+	}
+
+	/**
+	 * @return number of times the lock was taken
+	 */
+	public synchronized long getAcquireCount() {
+		return acquireCount;
+	}
+
+	/**
+	 * @return number of times the lock was held by someone else
+	 */
+	public synchronized long getContendedCount() {
+		return contendedCount;
+	}
+
+	/**
+	 * @return total time spent waiting on a held lock, in nanoseconds
+	 */
+	public synchronized long getWaitNanos() {
+		return waitNanos;
+	}
+
+	/**
+	 * @return longest single wait, in nanoseconds
+	 */
+	public synchronized long getMaxWaitNanos() {
+		return maxWaitNanos;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Paces redraws of a {@link TerminalBridge} to the display frame rate. Any
+ * number of dirty notifications between two frames collapse into a single
+ * invalidate of the parent view. While the {@link Relay} is still streaming
+ * data in, frames are skipped so the parser isn't fighting the renderer for
+ * the buffer lock, but never so many that the screen stops updating.
+ */
+public class RedrawScheduler implements Runnable {
+	/** Time between two frames in milliseconds, about 60Hz. */
+	public static final long FRAME_INTERVAL = 16;
+
+	/** Maximum number of frames we'll skip in a row while input streams in. */
+	private static final int MAX_SKIPPED_FRAMES = 5;
+
+	/** Reads this close together count as one burst of streaming input. */
+	private static final long STREAMING_INTERVAL = FRAME_INTERVAL;
+
+	/** Number of back-to-back reads before we consider input streaming. */
+	private static final int STREAMING_READS = 3;
+
+	private final TerminalBridge bridge;
+	private final Handler handler;
+
+	private boolean scheduled = false;
+	private long lastFrame = 0;
+	private long lastInput = 0;
+	private int burstReads = 0;
+	private int skippedFrames = 0;
+
+	private long requestCount = 0;
+	private long coalescedCount = 0;
+	private long droppedCount = 0;
+	private long frameCount = 0;
+
+	public RedrawScheduler(TerminalBridge bridge) {
+		this.bridge = bridge;
+		handler = new Handler(Looper.getMainLooper());
+	}
+
+	/**
+	 * Note that the terminal contents changed. Safe to call from any thread;
+	 * the redraw happens on the UI thread at the next frame.
+	 */
+	public synchronized void requestRedraw() {
+		requestCount++;
+
+		if (scheduled) {
+			coalescedCount++;
+			return;
+		}
+
+		scheduled = true;
+
+		long delay = lastFrame + FRAME_INTERVAL - SystemClock.uptimeMillis();
+		if (delay > 0)
+			handler.postDelayed(this, delay);
+		else
+			handler.post(this);
+	}
+
+	/**
+	 * Called by the {@link Relay} every time a chunk of data comes in from the
+	 * transport so we know when output is still being streamed.
+	 */
+	public synchronized void inputReceived() {
+		long now = SystemClock.uptimeMillis();
+
+		if (now - lastInput <= STREAMING_INTERVAL)
+			burstReads++;
+		else
+			burstReads = 1;
+
+		lastInput = now;
+	}
+
+	/**
+	 * Drop any pending frame, e.g., when our parent view goes away.
+	 */
+	public synchronized void cancel() {
+		handler.removeCallbacks(this);
+		scheduled = false;
+		skippedFrames = 0;
+	}
+
+	public void run() {
+		synchronized (this) {
+			long now = SystemClock.uptimeMillis();
+
+			boolean streaming = burstReads >= STREAMING_READS
+					&& now - lastInput <= STREAMING_INTERVAL;
+
+			if (streaming && skippedFrames < MAX_SKIPPED_FRAMES) {
+				skippedFrames++;
+				droppedCount++;
+				handler.postDelayed(this, FRAME_INTERVAL);
+				return;
+			}
+
+			scheduled = false;
+			skippedFrames = 0;
+			lastFrame = now;
+			frameCount++;
+		}
+
+		bridge.dispatchRedraw();
+	}
+
+	/**
+	 * @return number of redraws requested since this bridge was created
+	 */
+	public synchronized long getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * @return number of redraw requests folded into an already pending frame
+	 */
+	public synchronized long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * @return number of frames skipped because input was still streaming
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return number of frames actually handed to the view
+	 */
+	public synchronized long getFrameCount() {
+		return frameCount;
+	}
+}
@@ -22,9 +22,9 @@ import org.apache.harmony.niochar.charset.additional.IBM437;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
 
 import org.connectbot.transport.AbsTransport;
@@ -41,14 +41,18 @@ public class Relay implements Runnable {
 
 	private static final int BUFFER_SIZE = 4096;
 
-	private static boolean useJNI = true;
-
 	private TerminalBridge bridge;
 
 	private Charset currentCharset;
 	private CharsetDecoder decoder;
 	private boolean isLegacyEastAsian = false;
 
+	/**
+	 * Whether every byte below 0x80 in the current charset always stands for
+	 * the same ASCII character, so we can skip the decoder for those.
+	 */
+	private boolean asciiCompatible = false;
+
 	private AbsTransport transport;
 
 	private vt320 buffer;
@@ -59,9 +63,10 @@ public class Relay implements Runnable {
 	private byte[] byteArray;
 	private char[] charArray;
 
-	static {
-		useJNI = EastAsianWidth.useJNI;
-	}
+	private byte[] wideAttribute;
+
+	/** Width attributes for a run of plain ASCII: always a single cell. */
+	private static final byte[] NARROW = new byte[BUFFER_SIZE];
 
 	public Relay(TerminalBridge bridge, AbsTransport transport, vt320 buffer, String encoding) {
 		setCharset(encoding);
@@ -86,12 +91,60 @@ public class Relay implements Runnable {
 		newCd.onUnmappableCharacter(CodingErrorAction.REPLACE);
 		newCd.onMalformedInput(CodingErrorAction.REPLACE);
 
+		boolean newAsciiCompatible = isAsciiCompatible(charset);
+
 		currentCharset = charset;
 		synchronized (this) {
 			decoder = newCd;
+			asciiCompatible = newAsciiCompatible;
 		}
 	}
 
+	/**
+	 * Checks whether bytes 0x00 through 0x7F can be handed to the terminal
+	 * as-is. That requires they decode to themselves and that they never
+	 * appear inside a multibyte sequence, which rules out things like
+	 * Shift_JIS or Big5 whose trail bytes overlap ASCII.
+	 */
+	private static boolean isAsciiCompatible(Charset charset) {
+		String name = charset.name();
+		boolean multibyteSafe = name.equals("UTF-8") || name.startsWith("EUC-");
+
+		if (!multibyteSafe) {
+			if (!charset.canEncode())
+				return false;
+
+			try {
+				multibyteSafe = charset.newEncoder().maxBytesPerChar() == 1.0f;
+			} catch (UnsupportedOperationException e) {
+				return false;
+			}
+		}
+
+		if (!multibyteSafe)
+			return false;
+
+		byte[] ascii = new byte[0x80];
+		for (int i = 0; i < ascii.length; i++)
+			ascii[i] = (byte) i;
+
+		CharBuffer decoded;
+		try {
+			decoded = charset.newDecoder().decode(ByteBuffer.wrap(ascii));
+		} catch (CharacterCodingException e) {
+			return false;
+		}
+
+		if (decoded.remaining() != ascii.length)
+			return false;
+
+		for (int i = 0; i < ascii.length; i++)
+			if (decoded.get(i) != i)
+				return false;
+
+		return true;
+	}
+
 	public Charset getCharset() {
 		return currentCharset;
 	}
@@ -100,61 +153,55 @@ public class Relay implements Runnable {
 		byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
 		charBuffer = CharBuffer.allocate(BUFFER_SIZE);
 
-		/* for both JNI and non-JNI method */
-		byte[] wideAttribute = new byte[BUFFER_SIZE];
-
-		/* non-JNI fallback method */
-		float[] widths = null;
-
-		if (!useJNI) {
-			widths = new float[BUFFER_SIZE];
-		}
+		wideAttribute = new byte[BUFFER_SIZE];
 
 		byteArray = byteBuffer.array();
 		charArray = charBuffer.array();
 
-		CoderResult result;
-
 		int bytesRead = 0;
 		byteBuffer.limit(0);
 		int bytesToRead;
 		int offset;
-		int charWidth;
 
 		try {
 			while (true) {
-				charWidth = bridge.charWidth;
 				bytesToRead = byteBuffer.capacity() - byteBuffer.limit();
 				offset = byteBuffer.arrayOffset() + byteBuffer.limit();
 				bytesRead = transport.read(byteArray, offset, bytesToRead);
 
 				if (bytesRead > 0) {
+					bridge.redrawScheduler.inputReceived();
+
 					byteBuffer.limit(byteBuffer.limit() + bytesRead);
 
+					boolean fastPath;
 					synchronized (this) {
-						result = decoder.decode(byteBuffer, charBuffer, false);
+						fastPath = asciiCompatible;
+					}
+
+					// publish the whole chunk to the renderer at once
+					long start = System.nanoTime();
+					synchronized (buffer) {
+						bridge.parserContention.record(System.nanoTime() - start);
+
+						if (fastPath)
+							relayMixed();
+						else
+							decodeAndPut(byteBuffer.limit(), false);
 					}
 
-					if (result.isUnderflow() &&
-							byteBuffer.limit() == byteBuffer.capacity()) {
+					// answer status queries now that onDraw can have the buffer
+					bridge.flushReplies();
+
+					if (!byteBuffer.hasRemaining()) {
+						byteBuffer.position(0);
+						byteBuffer.limit(0);
+					} else if (byteBuffer.limit() == byteBuffer.capacity()) {
 						byteBuffer.compact();
 						byteBuffer.limit(byteBuffer.position());
 						byteBuffer.position(0);
 					}
 
-					offset = charBuffer.position();
-
-					if (!useJNI) {
-						bridge.defaultPaint.getTextWidths(charArray, 0, offset, widths);
-						for (int i = 0; i < offset; i++)
-							wideAttribute[i] =
-								(byte) (((int)widths[i] != charWidth) ? 1 : 0);
-					} else {
-						EastAsianWidth.measure(charArray, 0, charBuffer.position(),
-								wideAttribute, isLegacyEastAsian);
-					}
-					buffer.putString(charArray, wideAttribute, 0, charBuffer.position());
-					charBuffer.clear();
 					bridge.redraw();
 				}
 			}
@@ -162,4 +209,78 @@ public class Relay implements Runnable {
 			Log.e(TAG, "Problem while handling incoming data in relay thread", e);
 		}
 	}
+
+	/**
+	 * Walks the bytes we have so far, sending runs of 7-bit bytes straight
+	 * to the terminal with a known width of one cell and only running the
+	 * decoder and width measurement on the spans in between. Bytes at the
+	 * end that could be an incomplete sequence are left in the buffer for
+	 * the next read.
+	 */
+	private void relayMixed() {
+		final int limit = byteBuffer.limit();
+		int position = byteBuffer.position();
+
+		while (position < limit) {
+			int end = position;
+			while (end < limit && byteArray[end] >= 0)
+				end++;
+
+			// Hold back the last character before a non-ASCII span so that
+			// a combining mark at the start of it can still precompose.
+			int asciiEnd = end;
+			if (end < limit && end > position)
+				asciiEnd--;
+
+			if (asciiEnd > position) {
+				int length = asciiEnd - position;
+				for (int i = 0; i < length; i++)
+					charArray[i] = (char) byteArray[position + i];
+
+				buffer.putString(charArray, NARROW, 0, length);
+
+				position = asciiEnd;
+				byteBuffer.position(position);
+			}
+
+			while (end < limit && byteArray[end] < 0)
+				end++;
+
+			if (end > position) {
+				// A span followed by more ASCII is complete; anything left
+				// over in it is malformed rather than cut off.
+				decodeAndPut(end, end < limit);
+				position = byteBuffer.position();
+
+				if (position < end)
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Decode everything from the current position up to the given limit and
+	 * send it to the terminal along with the measured character widths.
+	 */
+	private void decodeAndPut(int end, boolean endOfInput) {
+		int limit = byteBuffer.limit();
+		byteBuffer.limit(end);
+
+		synchronized (this) {
+			decoder.decode(byteBuffer, charBuffer, endOfInput);
+			if (endOfInput) {
+				decoder.flush(charBuffer);
+				decoder.reset();
+			}
+		}
+
+		byteBuffer.limit(limit);
+
+		int length = charBuffer.position();
+
+		EastAsianWidth.measureTable(charArray, 0, length,
+				wideAttribute, isLegacyEastAsian);
+		buffer.putString(charArray, wideAttribute, 0, length);
+		charBuffer.clear();
+	}
 }
@@ -0,0 +1,92 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot.service;
+
+import de.mud.terminal.VDUBuffer;
+
+/**
+ * Copy of the lines of the visible window that changed since the last
+ * frame. The renderer only holds the buffer lock while taking the copy and
+ * paints from here afterwards, so the {@link Relay} can keep feeding the
+ * emulator while a frame is drawn.
+ */
+public class ScreenSnapshot {
+	public int width = 0;
+	public int height = 0;
+
+	/** Characters and attributes of each line, one row after the other. */
+	public char[] chars = new char[0];
+	public int[] attributes = new int[0];
+
+	/** Lines that need to be drawn. */
+	public boolean[] dirty = new boolean[0];
+
+	/** Scroll to apply to what is already drawn before drawing lines. */
+	public int scrollTop;
+	public int scrollBottom;
+	public int scrollAmount;
+
+	/**
+	 * Take the changed lines from the buffer and reset its update flags. The
+	 * caller must hold the lock on the buffer.
+	 *
+	 * @param buffer buffer to copy from
+	 * @param full whether every line should be drawn
+	 * @return whether there is anything to draw
+	 */
+	public boolean capture(VDUBuffer buffer, boolean full) {
+		if (buffer.width != width || buffer.height != height) {
+			width = buffer.width;
+			height = buffer.height;
+			chars = new char[width * height];
+			attributes = new int[width * height];
+			dirty = new boolean[height];
+			full = true;
+		}
+
+		boolean entire = full || buffer.update[0];
+		boolean changed = false;
+
+		if (!entire && buffer.scrollAmount != 0) {
+			scrollTop = buffer.scrollTop;
+			scrollBottom = buffer.scrollBottom;
+			scrollAmount = buffer.scrollAmount;
+			changed = true;
+		} else
+			scrollAmount = 0;
+		buffer.scrollAmount = 0;
+
+		for (int l = 0; l < height; l++) {
+			dirty[l] = entire || buffer.update[l + 1];
+			buffer.update[l + 1] = false;
+			if (!dirty[l])
+				continue;
+
+			int line = buffer.windowBase + l;
+			int attributeOffset = buffer.getAttributeOffset(line);
+			System.arraycopy(buffer.getCharArray(), buffer.getLineOffset(line),
+					chars, l * width, width);
+			System.arraycopy(buffer.getAttributeArray(), attributeOffset,
+					attributes, l * width, width);
+			changed = true;
+		}
+
+		buffer.update[0] = false;
+		return changed;
+	}
+}
@@ -17,6 +17,7 @@
 
 package org.connectbot.service;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.LinkedList;
@@ -38,6 +39,7 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.Bitmap.Config;
 import android.graphics.Paint.FontMetrics;
@@ -76,6 +78,8 @@ public class TerminalBridge implements VDUDisplay {
 
 	final Paint defaultPaint;
 
+	private final GlyphCache glyphCache = new GlyphCache();
+
 	private Relay relay;
 
 	private final String emulation;
@@ -86,6 +90,21 @@ public class TerminalBridge implements VDUDisplay {
 
 	private TerminalView parent = null;
 	private final Canvas canvas = new Canvas();
+	private final Rect scrollSrc = new Rect();
+	private final Rect scrollDst = new Rect();
+	private final ScreenSnapshot snapshot = new ScreenSnapshot();
+
+	/* how long the Relay and onDraw wait for each other on the buffer */
+	/* package */ final LockContention parserContention = new LockContention();
+	private final LockContention rendererContention = new LockContention();
+
+	/*
+	 * Replies vt320 makes by itself while the Relay parses under the buffer
+	 * lock (status and cursor reports, answerback). Sending them there could
+	 * block on a full remote window while onDraw waits for the lock, so they
+	 * are kept here until flushReplies() runs outside it.
+	 */
+	private final ByteArrayOutputStream pendingReplies = new ByteArrayOutputStream();
 
 	private boolean disconnected = false;
 	private boolean awaitingClose = false;
@@ -116,6 +135,8 @@ public class TerminalBridge implements VDUDisplay {
 	 */
 	private boolean fullRedraw = false;
 
+	/* package */ final RedrawScheduler redrawScheduler;
+
 	public PromptHelper promptHelper;
 
 	protected BridgeDisconnectedListener disconnectListener = null;
@@ -151,6 +172,8 @@ public class TerminalBridge implements VDUDisplay {
 
 		transport = null;
 
+		redrawScheduler = new RedrawScheduler(this);
+
 		keyListener = new TerminalKeyListener(manager, this, buffer, null);
 	}
 
@@ -169,6 +192,8 @@ public class TerminalBridge implements VDUDisplay {
 		// create prompt helper to relay password and hostkey requests up to gui
 		promptHelper = new PromptHelper(this);
 
+		redrawScheduler = new RedrawScheduler(this);
+
 		// create our default paint
 		defaultPaint = new Paint();
 		defaultPaint.setAntiAlias(true);
@@ -194,8 +219,21 @@ public class TerminalBridge implements VDUDisplay {
 
 			@Override
 			public void write(byte[] b) {
+				if (b == null)
+					return;
+
+				if (Thread.holdsLock(this)) {
+					synchronized (pendingReplies) {
+						pendingReplies.write(b, 0, b.length);
+					}
+					return;
+				}
+
+				// keep anything held back ahead of this
+				flushReplies();
+
 				try {
-					if (b != null && transport != null)
+					if (transport != null)
 						transport.write(b);
 				} catch (IOException e) {
 					Log.e(TAG, "Problem writing outgoing data in vt320() thread", e);
@@ -204,6 +242,15 @@ public class TerminalBridge implements VDUDisplay {
 
 			@Override
 			public void write(int b) {
+				if (Thread.holdsLock(this)) {
+					synchronized (pendingReplies) {
+						pendingReplies.write(b);
+					}
+					return;
+				}
+
+				flushReplies();
+
 				try {
 					if (transport != null)
 						transport.write(b);
@@ -239,6 +286,7 @@ public class TerminalBridge implements VDUDisplay {
 
 		resetColors();
 		buffer.setDisplay(this);
+		((vt320) buffer).setTableParser(true);
 
 		selectionArea = new SelectionArea();
 
@@ -260,6 +308,7 @@ public class TerminalBridge implements VDUDisplay {
 
 		// TODO make this more abstract so we don't litter on AbsTransport
 		transport.setCompression(host.getCompression());
+		transport.setCoalesce(host.getCoalesce());
 		transport.setUseAuthAgent(host.getUseAuthAgent());
 		transport.setEmulation(emulation);
 
@@ -490,6 +539,8 @@ public class TerminalBridge implements VDUDisplay {
 		charWidth = (int)Math.ceil(widths[0]);
 		charHeight = (int)Math.ceil(fm.descent - fm.top);
 
+		glyphCache.setFont(defaultPaint, charWidth, charHeight, charTop);
+
 		// refresh any bitmap with new font size
 		if(parent != null)
 			parentChanged(parent);
@@ -595,6 +646,7 @@ public class TerminalBridge implements VDUDisplay {
 			synchronized (buffer) {
 				buffer.setScreenSize(columns, rows, true);
 			}
+			flushReplies();
 
 			if(transport != null)
 				transport.setDimensions(columns, rows, width, height);
@@ -627,7 +679,9 @@ public class TerminalBridge implements VDUDisplay {
 	 */
 	public synchronized void parentDestroyed() {
 		parent = null;
+		redrawScheduler.cancel();
 		discardBitmap();
+		glyphCache.recycle();
 	}
 
 	private void discardBitmap() {
@@ -646,110 +700,207 @@ public class TerminalBridge implements VDUDisplay {
 
 	public void onDraw() {
 		int fg, bg;
+
+		// only hold the buffer long enough to copy out what changed
+		boolean changed;
+		long start = System.nanoTime();
 		synchronized (buffer) {
-			boolean entireDirty = buffer.update[0] || fullRedraw;
-			boolean isWideCharacter = false;
+			rendererContention.record(System.nanoTime() - start);
+			changed = snapshot.capture(buffer, fullRedraw);
+		}
+		fullRedraw = false;
 
-			// walk through all lines in the buffer
-			for(int l = 0; l < buffer.height; l++) {
+		if (!changed)
+			return;
 
-				// check if this line is dirty and needs to be repainted
-				// also check for entire-buffer dirty flags
-				if (!entireDirty && !buffer.update[l + 1]) continue;
+		// move what scrolled instead of drawing it again
+		if (snapshot.scrollAmount != 0)
+			scrollBitmap(snapshot.scrollTop, snapshot.scrollBottom, snapshot.scrollAmount);
 
-				// reset dirty flag for this line
-				buffer.update[l + 1] = false;
+		boolean isWideCharacter = false;
+		char[] chars = snapshot.chars;
+		int[] attributes = snapshot.attributes;
+		int width = snapshot.width;
 
-				// walk through all characters in this line
-				for (int c = 0; c < buffer.width; c++) {
-					int addr = 0;
-					int currAttr = buffer.charAttributes[buffer.windowBase + l][c];
+		// walk through all lines in the snapshot
+		for(int l = 0; l < snapshot.height; l++) {
 
-					{
-						int fgcolor = defaultFg;
+			// check if this line is dirty and needs to be repainted
+			if (!snapshot.dirty[l]) continue;
 
-						// check if foreground color attribute is set
-						if ((currAttr & VDUBuffer.COLOR_FG) != 0)
-							fgcolor = ((currAttr & VDUBuffer.COLOR_FG) >> VDUBuffer.COLOR_FG_SHIFT) - 1;
+			int offset = l * width;
 
-						if (fgcolor < 8 && (currAttr & VDUBuffer.BOLD) != 0)
-							fg = color[fgcolor + 8];
-						else
-							fg = color[fgcolor];
-					}
+			// walk through all characters in this line
+			for (int c = 0; c < width; c++) {
+				int addr = 0;
+				int currAttr = attributes[offset + c];
 
-					// check if background color attribute is set
-					if ((currAttr & VDUBuffer.COLOR_BG) != 0)
-						bg = color[((currAttr & VDUBuffer.COLOR_BG) >> VDUBuffer.COLOR_BG_SHIFT) - 1];
-					else
-						bg = color[defaultBg];
-
-					// support character inversion by swapping background and foreground color
-					if ((currAttr & VDUBuffer.INVERT) != 0) {
-						int swapc = bg;
-						bg = fg;
-						fg = swapc;
-					}
+				int fgcolor = defaultFg;
+
+				// check if foreground color attribute is set
+				if ((currAttr & VDUBuffer.COLOR_FG) != 0)
+					fgcolor = ((currAttr & VDUBuffer.COLOR_FG) >> VDUBuffer.COLOR_FG_SHIFT) - 1;
+
+				if (fgcolor < 8 && (currAttr & VDUBuffer.BOLD) != 0)
+					fgcolor += 8;
+
+				// check if background color attribute is set
+				int bgcolor = defaultBg;
+				if ((currAttr & VDUBuffer.COLOR_BG) != 0)
+					bgcolor = ((currAttr & VDUBuffer.COLOR_BG) >> VDUBuffer.COLOR_BG_SHIFT) - 1;
+
+				// support character inversion by swapping background and foreground color
+				if ((currAttr & VDUBuffer.INVERT) != 0) {
+					int swapc = bgcolor;
+					bgcolor = fgcolor;
+					fgcolor = swapc;
+				}
 
-					// set underlined attributes if requested
-					defaultPaint.setUnderlineText((currAttr & VDUBuffer.UNDERLINE) != 0);
+				fg = color[fgcolor];
+				bg = color[bgcolor];
 
-					isWideCharacter = (currAttr & VDUBuffer.FULLWIDTH) != 0;
+				boolean underline = (currAttr & VDUBuffer.UNDERLINE) != 0;
 
-					if (isWideCharacter)
+				isWideCharacter = (currAttr & VDUBuffer.FULLWIDTH) != 0;
+
+				if (isWideCharacter)
+					addr++;
+				else {
+					// determine the amount of continuous characters with the same settings and print them all at once
+					while(c + addr < width
+							&& attributes[offset + c + addr] == currAttr) {
 						addr++;
-					else {
-						// determine the amount of continuous characters with the same settings and print them all at once
-						while(c + addr < buffer.width
-								&& buffer.charAttributes[buffer.windowBase + l][c + addr] == currAttr) {
-							addr++;
-						}
 					}
+				}
 
-					// Save the current clip region
+				if (isWideCharacter) {
+					// wide glyphs span two cells, so they don't fit the atlas
 					canvas.save(Canvas.CLIP_SAVE_FLAG);
+					canvas.clipRect(c * charWidth,
+							l * charHeight,
+							(c + 2) * charWidth,
+							(l + 1) * charHeight);
 
-					// clear this dirty area with background color
 					defaultPaint.setColor(bg);
-					if (isWideCharacter) {
-						canvas.clipRect(c * charWidth,
-								l * charHeight,
-								(c + 2) * charWidth,
-								(l + 1) * charHeight);
-					} else {
-						canvas.clipRect(c * charWidth,
-								l * charHeight,
-								(c + addr) * charWidth,
-								(l + 1) * charHeight);
-					}
 					canvas.drawPaint(defaultPaint);
 
-					// write the text string starting at 'c' for 'addr' number of characters
 					defaultPaint.setColor(fg);
+					defaultPaint.setUnderlineText(underline);
 					if((currAttr & VDUBuffer.INVISIBLE) == 0)
-						canvas.drawText(buffer.charArray[buffer.windowBase + l], c,
+						canvas.drawText(chars, offset + c,
 							addr, c * charWidth, (l * charHeight) - charTop,
 							defaultPaint);
 
-					// Restore the previous clip region
 					canvas.restore();
+					c++;
+					continue;
+				}
 
-					// advance to the next text block with different characteristics
-					c += addr - 1;
-					if (isWideCharacter)
-						c++;
+				// copy each cell of the run out of the glyph atlas
+				boolean invisible = (currAttr & VDUBuffer.INVISIBLE) != 0;
+				for (int i = 0; i < addr; i++) {
+					char ch = invisible ? ' ' : chars[offset + c + i];
+					glyphCache.draw(canvas, ch, fgcolor, fg, bgcolor, bg,
+							underline, (c + i) * charWidth, l * charHeight);
 				}
+
+				// advance to the next text block with different characteristics
+				c += addr - 1;
 			}
+		}
+	}
 
-			// reset entire-buffer flags
-			buffer.update[0] = false;
+	/**
+	 * Shift rows of the bitmap up, or down for a negative amount. The copy
+	 * goes in strips no taller than the distance moved so that the source
+	 * and destination of a single copy never overlap.
+	 *
+	 * @param top first row of the region that scrolled
+	 * @param bottom last row of the region that scrolled
+	 * @param amount number of rows the region moved up
+	 */
+	private void scrollBitmap(int top, int bottom, int amount) {
+		int width = snapshot.width * charWidth;
+		int shift = Math.abs(amount) * charHeight;
+		int regionTop = top * charHeight;
+		int regionBottom = (bottom + 1) * charHeight;
+
+		if (amount > 0) {
+			for (int y = regionTop; y + shift < regionBottom; y += shift) {
+				int h = Math.min(shift, regionBottom - shift - y);
+				scrollSrc.set(0, y + shift, width, y + shift + h);
+				scrollDst.set(0, y, width, y + h);
+				canvas.drawBitmap(bitmap, scrollSrc, scrollDst, null);
+			}
+		} else {
+			for (int y = regionBottom; y - shift > regionTop; y -= shift) {
+				int h = Math.min(shift, y - shift - regionTop);
+				scrollSrc.set(0, y - shift - h, width, y - shift);
+				scrollDst.set(0, y - h, width, y);
+				canvas.drawBitmap(bitmap, scrollSrc, scrollDst, null);
+			}
 		}
-		fullRedraw = false;
 	}
 
+	/**
+	 * Schedule a redraw of our parent view. Requests are coalesced by the
+	 * {@link RedrawScheduler} into at most one per display frame.
+	 */
 	public void redraw() {
 		if (parent != null)
-			parent.postInvalidate();
+			redrawScheduler.requestRedraw();
+	}
+
+	/**
+	 * Send the replies the terminal made while the buffer was locked. Must
+	 * be called without holding the buffer lock.
+	 */
+	/* package */ void flushReplies() {
+		byte[] replies;
+		synchronized (pendingReplies) {
+			if (pendingReplies.size() == 0)
+				return;
+			replies = pendingReplies.toByteArray();
+			pendingReplies.reset();
+		}
+
+		try {
+			if (transport != null)
+				transport.write(replies);
+		} catch (IOException e) {
+			Log.e(TAG, "Problem writing terminal replies", e);
+		}
+	}
+
+	/**
+	 * Called by the {@link RedrawScheduler} on the UI thread when it's time
+	 * to actually draw a frame.
+	 */
+	/* package */ void dispatchRedraw() {
+		TerminalView view = parent;
+		if (view != null)
+			view.invalidate();
+	}
+
+	/**
+	 * @return how long the {@link Relay} waited on the buffer for onDraw
+	 */
+	public LockContention getParserContention() {
+		return parserContention;
+	}
+
+	/**
+	 * @return how long onDraw waited on the buffer for the {@link Relay}
+	 */
+	public LockContention getRendererContention() {
+		return rendererContention;
+	}
+
+	/**
+	 * @return the scheduler pacing redraws, mostly for its frame statistics
+	 */
+	public RedrawScheduler getRedrawScheduler() {
+		return redrawScheduler;
 	}
 
 	// We don't have a scroll bar.
@@ -903,8 +1054,10 @@ public class TerminalBridge implements VDUDisplay {
 	 */
 	public void setColor(int index, int red, int green, int blue) {
 		// Don't allow the system colors to be overwritten for now. May violate specs.
-		if (index < color.length && index >= 16)
+		if (index < color.length && index >= 16) {
 			color[index] = 0xff000000 | red << 16 | green << 8 | blue;
+			glyphCache.clear();
+		}
 	}
 
 	public final void resetColors() {
@@ -913,6 +1066,7 @@ public class TerminalBridge implements VDUDisplay {
 		defaultBg = defaults[1];
 
 		color = manager.hostdb.getColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME);
+		glyphCache.clear();
 	}
 
 	private static Pattern urlPattern = null;
@@ -954,10 +1108,14 @@ public class TerminalBridge implements VDUDisplay {
 			urlPattern = Pattern.compile(uriRegex);
 		}
 
-		char[] visibleBuffer = new char[buffer.height * buffer.width];
-		for (int l = 0; l < buffer.height; l++)
-			System.arraycopy(buffer.charArray[buffer.windowBase + l], 0,
-					visibleBuffer, l * buffer.width, buffer.width);
+		char[] visibleBuffer;
+		synchronized (buffer) {
+			visibleBuffer = new char[buffer.height * buffer.width];
+			char[] chars = buffer.getCharArray();
+			for (int l = 0; l < buffer.height; l++)
+				System.arraycopy(chars, buffer.getLineOffset(buffer.windowBase + l),
+						visibleBuffer, l * buffer.width, buffer.width);
+		}
 
 		Matcher urlMatcher = urlPattern.matcher(new String(visibleBuffer));
 		while (urlMatcher.find())
@@ -60,6 +60,7 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.nullwire.trace.ExceptionHandler;
+import com.trilead.ssh2.crypto.dh.DhKeyPairPool;
 
 /**
  * Manager for SSH connections that runs as a background service. This service
@@ -665,6 +666,9 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		};
 		t.setName("Disconnector");
 		t.start();
+
+		// have DH keys ready for when we reconnect, if the connections used DH
+		DhKeyPairPool.prepare();
 	}
 
 	/**
@@ -96,12 +96,19 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	private final static int AUTH_TRIES = 20;
 
+	/**
+	 * How long a write may wait for the ones right behind it when coalescing,
+	 * in milliseconds. Typing is slower than this, pastes and macros aren't.
+	 */
+	private final static int COALESCE_DELAY = 20;
+
 	static final Pattern hostmask;
 	static {
 		hostmask = Pattern.compile("^(.+)@([0-9a-z.-]+)(:(\\d+))?$", Pattern.CASE_INSENSITIVE);
 	}
 
 	private boolean compression = false;
+	private boolean coalesce = false;
 	private volatile boolean authenticated = false;
 	private volatile boolean connected = false;
 	private volatile boolean sessionOpen = false;
@@ -412,6 +419,16 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			Log.e(TAG, "Could not enable compression!", e);
 		}
 
+		if (coalesce) {
+			// we do the waiting ourselves, Nagle would only add to it
+			try {
+				connection.setTCPNoDelay(true);
+			} catch (IOException e) {
+				Log.e(TAG, "Could not set TCP_NODELAY!", e);
+			}
+			connection.setSendCoalescing(COALESCE_DELAY);
+		}
+
 		try {
 			/* Uncomment when debugging SSH protocol:
 			DebugLogger logger = new DebugLogger() {
@@ -541,6 +558,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		Map<String, String> options = new HashMap<String, String>();
 
 		options.put("compression", Boolean.toString(compression));
+		options.put("coalesce", Boolean.toString(coalesce));
 
 		return options;
 	}
@@ -549,6 +567,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	public void setOptions(Map<String, String> options) {
 		if (options.containsKey("compression"))
 			compression = Boolean.parseBoolean(options.get("compression"));
+		if (options.containsKey("coalesce"))
+			coalesce = Boolean.parseBoolean(options.get("coalesce"));
 	}
 
 	public static String getProtocolName() {
@@ -843,6 +863,11 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		this.compression = compression;
 	}
 
+	@Override
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
 	public static String getFormatHint(Context context) {
 		return String.format("%s@%s:%s",
 				context.getString(R.string.format_username),
@@ -27,7 +27,67 @@ public class EastAsianWidth {
 	public static boolean useJNI = false;
 	private static final String TAG = "ConnectBot.EastAsianWidth";
 
+	/** Narrow, halfwidth or neutral: takes a single cell. */
+	public static final int NARROW = 0;
+	/** Wide or fullwidth: always takes two cells. */
+	public static final int WIDE = 1;
+	/** Takes two cells only in legacy East Asian contexts. */
+	public static final int AMBIGUOUS = 2;
+
+	/**
+	 * Look up the East Asian Width class of a character in the precomputed
+	 * table.
+	 *
+	 * @param c character to classify
+	 * @return one of {@link #NARROW}, {@link #WIDE} or {@link #AMBIGUOUS}
+	 */
+	public static int getWidthClass(char c) {
+		int block = EastAsianWidthTable.INDEX[c >> 8] & 0xff;
+		int bits = EastAsianWidthTable.DATA[(block << 4) | ((c >> 4) & 0xf)];
+		return (bits >>> ((c & 0xf) << 1)) & 0x3;
+	}
+
+	/**
+	 * @param c character to check
+	 * @param isLegacyEastAsian whether ambiguous characters are wide
+	 * @return whether the character takes up two cells
+	 */
+	public static boolean isWide(char c, boolean isLegacyEastAsian) {
+		int widthClass = getWidthClass(c);
+		return widthClass == WIDE
+				|| (isLegacyEastAsian && widthClass == AMBIGUOUS);
+	}
+
+	/**
+	 * Pure-Java equivalent of {@link #measure}, using the precomputed table.
+	 * Sets wideAttribute[i] to 1 for each wide character at index i between
+	 * start and end.
+	 *
+	 * @param charArray characters to measure
+	 * @param start first index to measure
+	 * @param end index after the last character to measure
+	 * @param wideAttribute receives 1 for wide and 0 for narrow characters
+	 * @param isLegacyEastAsian whether ambiguous characters are wide
+	 */
+	public static void measureTable(char[] charArray, int start, int end,
+			byte[] wideAttribute, boolean isLegacyEastAsian) {
+		final int wideMask = isLegacyEastAsian ? (WIDE | AMBIGUOUS) : WIDE;
+		final byte[] index = EastAsianWidthTable.INDEX;
+		final int[] data = EastAsianWidthTable.DATA;
+
+		for (int i = start; i < end; i++) {
+			char c = charArray[i];
+			int block = index[c >> 8] & 0xff;
+			int bits = data[(block << 4) | ((c >> 4) & 0xf)];
+			wideAttribute[i] = (byte)
+					((((bits >>> ((c & 0xf) << 1)) & 0x3) & wideMask) != 0 ? 1 : 0);
+		}
+	}
+
 	/**
+	 * Measures using ICU through JNI. Only available when {@link #useJNI} is
+	 * set; kept for comparison with {@link #measureTable}.
+	 *
 	 * @param charArray
 	 * @param i
 	 * @param position
@@ -0,0 +1,166 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/* Generated by jni/EastAsianWidth/mktable.py from Unicode 14.0.0; do not edit. */
+
+package org.connectbot.util;
+
+/**
+ * Two-level East Asian Width lookup table for the Basic Multilingual Plane.
+ * The high byte of a character selects a block through {@link #INDEX}; each
+ * block is 16 ints in {@link #DATA} holding 2 bits per character.
+ */
+final class EastAsianWidthTable {
+	private EastAsianWidthTable() {
+	}
+
+	static final byte[] INDEX = {
+		0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+		16, 17, 18, 19, 6, 6, 20, 21, 22, 23, 24, 25, 26, 6, 6, 27,
+		28, 29, 30, 31, 32, 33, 34, 35, 6, 6, 6, 36, 37, 38, 39, 40,
+		41, 40, 42, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40,
+		40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 43, 40, 40,
+		40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40,
+		40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40,
+		40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40,
+		40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40,
+		40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40,
+		40, 40, 40, 40, 44, 6, 45, 46, 47, 48, 49, 50, 40, 40, 40, 40,
+		40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40,
+		40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40, 40,
+		40, 40, 40, 40, 40, 40, 40, 51, 6, 6, 6, 6, 6, 6, 6, 6,
+		52, 52, 52, 52, 52, 52, 52, 52, 52, 52, 52, 52, 52, 52, 52, 52,
+		52, 52, 52, 52, 52, 52, 52, 52, 52, 40, 40, 53, 6, 54, 55, 56,
+	};
+
+	static final int[] DATA = {
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x28228208, 0xaa2aa2aa, 0x00002000, 0xa0028002, 0x0a2a200a, 0x222a80a2,
+		0x00000008, 0x00800088, 0x0080a000, 0x800200a8, 0x08aa022a, 0x000000a0, 0x0080a000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x20000000, 0x02222222, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000008, 0x00000008, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x08a88200, 0x88aa0002, 0x00000000, 0x00000000,
+		0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0x00050000,
+		0x04400055, 0xaaaaaaa8, 0x000aaa9a, 0xaaaaaaa8, 0x000aaa8a, 0x00000000, 0x00000000, 0x00000000,
+		0x00000008, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0x00000008, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000001, 0x00000000, 0x00014000, 0x00000000, 0x00000000,
+		0x01400000, 0x00000001, 0x00000000, 0x00000000, 0x55550000, 0x00000000, 0x15400000, 0x55555400,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x10000000, 0x00000000, 0x00000000, 0x00000000, 0x01400000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x55555550, 0x00000000, 0x00000000, 0x00000000, 0x01400000,
+		0x00000000, 0x00000000, 0x50000000, 0x40000000, 0x00000000, 0x45000000, 0x55400000, 0x00000000,
+		0x40000000, 0x00005550, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x14000100, 0x00000014, 0x00040000, 0x00500544, 0x40141400, 0x10551555, 0x00000500, 0x40000000,
+		0x15400101, 0x00000014, 0x00040000, 0x04504104, 0x50141540, 0x44015551, 0x00000555, 0x55554000,
+		0x10000101, 0x00000010, 0x00040000, 0x00500104, 0x50101000, 0x55555554, 0x00000500, 0x00015550,
+		0x14000101, 0x00000014, 0x00040000, 0x00500104, 0x50141400, 0x10550155, 0x00000500, 0x55550000,
+		0x05400105, 0x04415004, 0x05405415, 0x05500000, 0x50040540, 0x55551554, 0x00000555, 0x55400000,
+		0x04000000, 0x00000004, 0x00040000, 0x00500000, 0x50040400, 0x51404155, 0x00000500, 0x00001555,
+		0x04000000, 0x00000004, 0x00040000, 0x00500100, 0x50040400, 0x41554155, 0x00000500, 0x55555541,
+		0x04000000, 0x00000004, 0x00000000, 0x00000000, 0x00040400, 0x00000055, 0x00000500, 0x00000000,
+		0x00000101, 0x00054000, 0x00000000, 0x51000010, 0x15454000, 0x00004400, 0x00000555, 0x55555405,
+		0x00000001, 0x00000000, 0x00000000, 0x15400000, 0x00000000, 0x55000000, 0x55555555, 0x55555555,
+		0x00400441, 0x00000000, 0x00001100, 0x50000000, 0x50004400, 0x00500000, 0x55555555, 0x55555555,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00010000, 0x00000000, 0x54000000, 0x00000001,
+		0x00000000, 0x00010000, 0x00000000, 0x04000000, 0x04000000, 0x55400000, 0x55555555, 0x55555555,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x51551000, 0x00000000, 0x00000000, 0x00000000,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x50040000, 0x50044000, 0x00000000, 0x00000000,
+		0x50040000, 0x00000000, 0x00000000, 0x40005004, 0x00005004, 0x00004000, 0x00000000, 0x00000000,
+		0x00000000, 0x00005004, 0x00000000, 0x00000000, 0x00000000, 0x01400000, 0x00000000, 0x54000000,
+		0x00000000, 0x55500000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x50005000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x54000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x55540000,
+		0x00000000, 0x15555000, 0x00000000, 0x55554000, 0x00000000, 0x55555500, 0x04000000, 0x55555504,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x50000000, 0x55500000, 0x55500000,
+		0x00000000, 0x55500000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x55540000,
+		0x00000000, 0x00000000, 0x55400000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x55555000,
+		0x00000000, 0x40000000, 0x55000000, 0x55000000, 0x00000054, 0x00000000, 0x50000000, 0x55555400,
+		0x00000000, 0x00000000, 0x55000000, 0x00000000, 0x55500000, 0x05400000, 0x00000000, 0x00000000,
+		0x00000000, 0x05000000, 0x00000000, 0x00000000, 0x00000000, 0x40000000, 0x00000000, 0x14000000,
+		0x55500000, 0x55500000, 0x50000000, 0x00000000, 0x40000000, 0x55555555, 0x55555555, 0x55555555,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x54000000, 0x00000000, 0x00000000, 0x40000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00555500,
+		0x00000000, 0x00000000, 0x00000000, 0x00150000, 0x01500000, 0x00000000, 0x00000000, 0x00000000,
+		0x55540000, 0x00000000, 0x00000000, 0x01400000, 0x55550000, 0x00000000, 0x00000000, 0x55400000,
+		0x00000000, 0x50005000, 0x00000000, 0x00000000, 0x50005000, 0x11110000, 0x00000000, 0x50000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000400, 0x00000400, 0x01000500, 0x00000000, 0x40000405,
+		0x00000000, 0x0a0a2a82, 0x0000aa2a, 0x208008a2, 0x00000000, 0x00000000, 0x00000400, 0x80000250,
+		0x400002a8, 0x54000000, 0x02000000, 0x00000000, 0x55555554, 0x00000000, 0x00000000, 0x55555554,
+		0x00080880, 0x00002080, 0x00802028, 0x00000000, 0x00000000, 0x2a800280, 0x00aaaaaa, 0x000aaaaa,
+		0x55080000, 0x000aaaaa, 0x00000000, 0x000a0000, 0x00000000, 0x00000220, 0x00008000, 0x00000000,
+		0x808280a2, 0xa8200808, 0x22aa8882, 0x0a00aa00, 0x02020000, 0x00000020, 0xa0a0aa0a, 0x00000000,
+		0x0000a0a0, 0x00080800, 0x00000800, 0x80000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00500020, 0x00140000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x01540000, 0x00000041,
+		0x00000000, 0x00000000, 0x55554000, 0x55555555, 0x55400000, 0x55555555, 0xaaaaaaaa, 0xaaaaaaaa,
+		0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaa8aaaaa, 0xaaaaaaaa,
+		0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0x00aaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0x000000aa,
+		0xaaaaaaaa, 0x00000aa0, 0x000aaa8a, 0x0a00a0a0, 0xa082a00a, 0x0000000a, 0x80000aa0, 0x14000000,
+		0xa0082800, 0x22000500, 0x00000000, 0x00000000, 0x55550022, 0x00000055, 0x8a2a8a8a, 0x40000000,
+		0x00000000, 0xa0000040, 0x00500004, 0x94000000, 0x9aaaa500, 0xaaaaa9aa, 0xaa9a008a, 0xa69aa65a,
+		0x00500400, 0x00000000, 0x00010000, 0x08000000, 0x11000000, 0x00004540, 0x00000000, 0xaaaaa000,
+		0x00000000, 0x00005400, 0x00000000, 0x40000001, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x01400000, 0x00000000, 0x00000000, 0x00000000, 0x000aa401, 0x00000000, 0x00000500,
+		0x00000000, 0x00001000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00015500,
+		0x00000000, 0x00000000, 0x51551000, 0x00000000, 0x00000000, 0x00000000, 0x15550000, 0x15555554,
+		0x00000000, 0x55554000, 0x40004000, 0x40004000, 0x40004000, 0x40004000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x50000000, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x15555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0xaaaa5555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x55000000, 0x55555555, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x55550000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x55400000, 0x55500110, 0x55555555, 0x00000005,
+		0x00000000, 0x00000000, 0x54000000, 0x55500000, 0x00000000, 0x00000000, 0x00000000, 0x55550000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x05555000, 0x55500000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x15555500, 0x55555555, 0x55555555,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x10000000, 0x05500000, 0x00000000, 0x40000000,
+		0x00000000, 0x00000000, 0x00000000, 0x55554000, 0x50000000, 0x00500000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x55555540, 0x00155555, 0x00000000, 0x55554000,
+		0x40014001, 0x55554001, 0x40004000, 0x00000000, 0x00000000, 0x00000000, 0x55000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x50000000, 0x55500000,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555,
+		0x55555555, 0x55555555, 0x55555555, 0x00000000, 0x00154000, 0x00000000, 0x00000000, 0x55000000,
+		0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa,
+		0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa, 0xaaaaaaaa,
+		0x55554000, 0x01550015, 0x00000000, 0x44004000, 0x00000410, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x55555540, 0x00000015, 0x00000000, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000,
+		0x00000000, 0x00000005, 0x00000000, 0x00000000, 0x15550000, 0x55555555, 0x55555555, 0x00000000,
+		0xaaaaaaaa, 0x55555555, 0x00000000, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x00000400,
+		0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x00000000, 0x14000000,
+		0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x55555555, 0x00000001, 0x00000000,
+		0x00000000, 0x00000000, 0x00000000, 0x40000000, 0x00050005, 0x54050005, 0x40005555, 0x58015555,
+	};
+}
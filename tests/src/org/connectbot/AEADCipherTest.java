@@ -0,0 +1,167 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+
+import com.trilead.ssh2.crypto.PlatformCrypto;
+import com.trilead.ssh2.crypto.cipher.AEADCipher;
+import com.trilead.ssh2.crypto.cipher.BlockCipherFactory;
+import com.trilead.ssh2.transport.TransportConnection;
+
+/**
+ * Checks the AES-GCM and ChaCha20-Poly1305 packet ciphers against packets
+ * sealed by an independent implementation, and sends packets through
+ * {@link TransportConnection} with them.
+ */
+public class AEADCipherTest extends AndroidTestCase {
+	/** A 32 byte packet: padding length 6, 25 bytes payload, 6 bytes padding. */
+	private static final String PACKET =
+		"0000002006000102030405060708090a0b0c0d0e0f101112131415161718a0a1a2a3a4a5";
+
+	/**
+	 * Cipher, key, IV and the first two packets sealed with them, the second
+	 * with sequence number 4.
+	 */
+	private static final String[][] VECTORS = {
+		{ "aes128-gcm@openssh.com",
+			"000102030405060708090a0b0c0d0e0f",
+			"101112131415161718191a1b",
+			"00000020c22e02ad0c4bb3e910d554ffcc2be63035ac659525e07ea992d389b0c5a6b508"
+				+ "31beafdabb6b0cc288e2dd026aff4dbb",
+			"00000020f34069d040093d7e83fedb940ad44bf35c02ea76bd805998ba526a7fcaab240c"
+				+ "0fabfe3c9a64416cdf675f26cec52a88" },
+		{ "aes256-gcm@openssh.com",
+			"000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f",
+			"101112131415161718191a1b",
+			"000000207bfe99144acd3fb5cd7d01170475645dd8405f1c08d642a7f0e142c6fcf7f07e"
+				+ "2ca7fe99abc747418618fd4c231f83dc",
+			"00000020518ddaf1f9911b1053d7545d8e61016aea2ab0ee4abde99e899dc16a10672088"
+				+ "aa96f1dfcd133e14f3fbe40ee2a3a412" },
+		{ "chacha20-poly1305@openssh.com",
+			"000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f"
+				+ "202122232425262728292a2b2c2d2e2f303132333435363738393a3b3c3d3e3f",
+			"",
+			"fb1a92aa86451db9314ea1778f47f500b0eb9b4d68cc5dd5d3c94a511c12a6c903162567"
+				+ "ffb2ef4898286054d848b3c7fbde89eb",
+			"0b21f5d46d00ae067e9fb725810af73d164c83b7e6f20138b4cf4cb28586b3e3892f3cfa"
+				+ "3503bb2676af40adb4ff7a009584c134" },
+	};
+
+	private final Random random = new Random(0);
+
+	@Override
+	protected void tearDown() throws Exception {
+		PlatformCrypto.setEnabled(true);
+		super.tearDown();
+	}
+
+	public void testVectors() throws IOException {
+		byte[] plain = fromHex(PACKET);
+
+		for (String[] vector : VECTORS) {
+			for (int platform = 0; platform < 2; platform++) {
+				PlatformCrypto.setEnabled(platform == 1);
+				String name = vector[0] + (platform == 1 ? " (platform)" : " (bundled)");
+				AEADCipher encrypt = create(vector, true);
+				AEADCipher decrypt = create(vector, false);
+
+				for (int i = 0; i < 2; i++) {
+					byte[] expected = fromHex(vector[3 + i]);
+					byte[] packet = new byte[expected.length];
+					System.arraycopy(plain, 0, packet, 0, plain.length);
+
+					encrypt.encryptPacket(3 + i, packet, 0, plain.length - 4);
+					assertTrue(name, Arrays.equals(expected, packet));
+
+					assertEquals(name, plain.length - 4, decrypt.decryptLength(3 + i, packet, 0));
+					decrypt.decryptPacket(3 + i, packet, 0, plain.length - 4);
+					for (int j = 0; j < plain.length; j++)
+						assertEquals(name, plain[j], packet[j]);
+				}
+			}
+		}
+	}
+
+	public void testCorruptPacket() {
+		for (String[] vector : VECTORS) {
+			byte[] packet = fromHex(vector[3]);
+			packet[random.nextInt(packet.length - 4) + 4] ^= 1 << random.nextInt(8);
+
+			try {
+				create(vector, false).decryptPacket(3, packet, 0, fromHex(PACKET).length - 4);
+				fail(vector[0] + ": corrupt packet accepted");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * Send packets of all sizes through one {@link TransportConnection} and
+	 * read them back with another.
+	 */
+	public void testTransport() throws IOException {
+		SecureRandom rnd = new SecureRandom();
+
+		for (String[] vector : VECTORS) {
+			byte[][] messages = new byte[200][];
+			ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+			TransportConnection sender = new TransportConnection(null, wire, rnd);
+			sender.changeSendCipher(create(vector, true));
+
+			for (int i = 0; i < messages.length; i++) {
+				messages[i] = new byte[1 + random.nextInt(i < 100 ? 64 : 32000)];
+				random.nextBytes(messages[i]);
+				sender.sendMessage(messages[i]);
+			}
+
+			TransportConnection receiver = new TransportConnection(
+					new ByteArrayInputStream(wire.toByteArray()), null, rnd);
+			receiver.changeRecvCipher(create(vector, false));
+
+			byte[] received = new byte[35000];
+			for (int i = 0; i < messages.length; i++) {
+				if (i % 2 == 0)
+					assertEquals(vector[0], messages[i].length, receiver.peekNextMessageLength());
+				assertEquals(vector[0], messages[i].length, receiver.receiveMessage(received, 0, received.length));
+				for (int j = 0; j < messages[i].length; j++)
+					assertEquals(vector[0], messages[i][j], received[j]);
+			}
+		}
+	}
+
+	private static AEADCipher create(String[] vector, boolean encrypt) {
+		return BlockCipherFactory.createAEADCipher(vector[0], encrypt, fromHex(vector[1]), fromHex(vector[2]));
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		return bytes;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+
+import com.trilead.ssh2.crypto.cipher.AES;
+import com.trilead.ssh2.crypto.cipher.BlockCipher;
+import com.trilead.ssh2.crypto.cipher.FastAES;
+
+/**
+ * Checks {@link FastAES} against the examples in FIPS-197 and against the
+ * original {@link AES}.
+ */
+public class AESTest extends AndroidTestCase {
+	/** Key, plaintext and ciphertext from FIPS-197 appendices B and C. */
+	private static final String[][] VECTORS = {
+		{ "2b7e151628aed2a6abf7158809cf4f3c",
+			"3243f6a8885a308d313198a2e0370734",
+			"3925841d02dc09fbdc118597196a0b32" },
+		{ "000102030405060708090a0b0c0d0e0f",
+			"00112233445566778899aabbccddeeff",
+			"69c4e0d86a7b0430d8cdb78070b4c55a" },
+		{ "000102030405060708090a0b0c0d0e0f1011121314151617",
+			"00112233445566778899aabbccddeeff",
+			"dda97ca4864cdfe06eaf70a0ec0d7191" },
+		{ "000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f",
+			"00112233445566778899aabbccddeeff",
+			"8ea2b7ca516745bfeafc49904b496089" },
+	};
+
+	public void testVectors() {
+		for (String[] vector : VECTORS) {
+			byte[] key = fromHex(vector[0]);
+			byte[] plain = fromHex(vector[1]);
+			byte[] cipher = fromHex(vector[2]);
+
+			assertTrue(vector[0], Arrays.equals(cipher, transform(new FastAES(), true, key, plain)));
+			assertTrue(vector[0], Arrays.equals(plain, transform(new FastAES(), false, key, cipher)));
+			assertTrue(vector[0], Arrays.equals(cipher, transform(new AES(), true, key, plain)));
+		}
+	}
+
+	public void testSameAsOriginal() {
+		Random random = new Random(0);
+
+		for (int keyLength = 16; keyLength <= 32; keyLength += 8) {
+			for (int round = 0; round < 20; round++) {
+				byte[] key = new byte[keyLength];
+				byte[] data = new byte[16 * (1 + random.nextInt(8))];
+				random.nextBytes(key);
+				random.nextBytes(data);
+
+				for (int encrypt = 0; encrypt < 2; encrypt++) {
+					byte[] expected = transform(new AES(), encrypt == 1, key, data);
+					byte[] actual = transform(new FastAES(), encrypt == 1, key, data);
+					assertTrue(Arrays.equals(expected, actual));
+				}
+			}
+		}
+	}
+
+	public void testInPlace() {
+		byte[] key = fromHex(VECTORS[1][0]);
+		byte[] buffer = new byte[48];
+		System.arraycopy(fromHex(VECTORS[1][1]), 0, buffer, 16, 16);
+
+		FastAES aes = new FastAES();
+		aes.init(true, key);
+		aes.transform(buffer, 16, buffer, 16, 16);
+
+		byte[] cipher = new byte[16];
+		System.arraycopy(buffer, 16, cipher, 0, 16);
+		assertTrue(Arrays.equals(fromHex(VECTORS[1][2]), cipher));
+		assertEquals(0, buffer[15]);
+		assertEquals(0, buffer[32]);
+	}
+
+	/**
+	 * Run data through a cipher one block at a time.
+	 */
+	private static byte[] transform(BlockCipher cipher, boolean encrypt, byte[] key, byte[] data) {
+		cipher.init(encrypt, key);
+		byte[] out = new byte[data.length];
+		for (int off = 0; off < data.length; off += 16)
+			cipher.transformBlock(data, off, out, off);
+		return out;
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		return bytes;
+	}
+}
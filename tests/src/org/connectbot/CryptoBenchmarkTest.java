@@ -0,0 +1,340 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.trilead.ssh2.crypto.PlatformCrypto;
+import com.trilead.ssh2.crypto.cipher.AEADCipher;
+import com.trilead.ssh2.crypto.cipher.BlockCipher;
+import com.trilead.ssh2.crypto.cipher.BlockCipherFactory;
+import com.trilead.ssh2.crypto.cipher.EncryptThenMac;
+import com.trilead.ssh2.crypto.dh.DhExchange;
+import com.trilead.ssh2.crypto.dh.EcdhExchange;
+import com.trilead.ssh2.crypto.digest.Digest;
+import com.trilead.ssh2.crypto.digest.MAC;
+import com.trilead.ssh2.crypto.digest.SHA1;
+import com.trilead.ssh2.crypto.digest.SHA256;
+import com.trilead.ssh2.crypto.digest.SHA512;
+import com.trilead.ssh2.transport.KexManager;
+import com.trilead.ssh2.transport.TransportConnection;
+
+/**
+ * Not really a test: logs how fast the bundled and the platform version of
+ * each cipher and MAC we offer handle packets of typical sizes, and what a
+ * whole packet costs going through {@link TransportConnection} in both
+ * directions.
+ */
+public class CryptoBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = "ConnectBot.CryptoBenchmarkTest";
+
+	/**
+	 * Payload sizes: a keystroke, a screenful of output and the largest
+	 * channel data packet we ask for.
+	 */
+	private static final int[] PACKET_SIZES = { 32, 1024, 16384 };
+
+	/** Bytes pushed through each measurement. */
+	private static final int TOTAL_BYTES = 1024 * 1024;
+
+	private static final int WARMUP_ROUNDS = 1;
+
+	/** The same MAC computed over the plaintext and over the ciphertext. */
+	private static final String[] TRANSPORT_MACS = { "hmac-sha2-256", "hmac-sha2-256-etm@openssh.com" };
+
+	private final SecureRandom random = new SecureRandom();
+
+	@Override
+	protected void tearDown() throws Exception {
+		PlatformCrypto.setEnabled(true);
+		super.tearDown();
+	}
+
+	public void testCiphers() {
+		for (String type : BlockCipherFactory.getDefaultCipherList()) {
+			for (boolean platform : new boolean[] { false, true }) {
+				if (BlockCipherFactory.isAEAD(type))
+					measureAEADCipher(type, platform);
+				else
+					measureCipher(type, platform);
+			}
+		}
+	}
+
+	private void measureCipher(String type, boolean platform) {
+		PlatformCrypto.setEnabled(platform);
+		BlockCipher cipher = createCipher(type, true);
+		int blockSize = cipher.getBlockSize();
+
+		for (int size : PACKET_SIZES) {
+			// round up to whole blocks like the packet padding does
+			int length = (size + blockSize - 1) / blockSize * blockSize;
+			byte[] packet = new byte[length];
+			random.nextBytes(packet);
+
+			long time = 0;
+			int packets = TOTAL_BYTES / length;
+			for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+				long start = SystemClock.elapsedRealtime();
+				for (int i = 0; i < packets; i++)
+					for (int off = 0; off < length; off += blockSize)
+						cipher.transformBlock(packet, off, packet, off);
+				time = SystemClock.elapsedRealtime() - start;
+			}
+
+			log(describe(type, platform), size, (long) packets * length, time);
+		}
+	}
+
+	/**
+	 * Sealing a packet also authenticates it, so this compares with a
+	 * cipher and a MAC together.
+	 */
+	private void measureAEADCipher(String type, boolean platform) {
+		PlatformCrypto.setEnabled(platform);
+		AEADCipher cipher = createAEADCipher(type, true);
+		int blockSize = cipher.getBlockSize();
+
+		for (int size : PACKET_SIZES) {
+			int length = (size + blockSize - 1) / blockSize * blockSize;
+			byte[] packet = new byte[4 + length + cipher.getTagSize()];
+			random.nextBytes(packet);
+
+			long time = 0;
+			int packets = TOTAL_BYTES / length;
+			for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+				long start = SystemClock.elapsedRealtime();
+				for (int i = 0; i < packets; i++)
+					cipher.encryptPacket(i, packet, 0, length);
+				time = SystemClock.elapsedRealtime() - start;
+			}
+
+			log(describe(type, platform), size, (long) packets * length, time);
+		}
+	}
+
+	public void testMacs() {
+		for (String type : MAC.getMacList()) {
+			for (boolean platform : new boolean[] { false, true })
+				measureMac(type, platform);
+		}
+	}
+
+	private void measureMac(String type, boolean platform) {
+		PlatformCrypto.setEnabled(platform);
+		MAC mac = createMac(type);
+		byte[] out = new byte[mac.size()];
+
+		for (int size : PACKET_SIZES) {
+			byte[] packet = new byte[size];
+			random.nextBytes(packet);
+
+			long time = 0;
+			int packets = TOTAL_BYTES / size;
+			for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+				long start = SystemClock.elapsedRealtime();
+				for (int i = 0; i < packets; i++) {
+					mac.initMac(i);
+					mac.update(packet, 0, size);
+					mac.getMac(out, 0);
+				}
+				time = SystemClock.elapsedRealtime() - start;
+			}
+
+			log(describe(type, platform), size, (long) packets * size, time);
+		}
+	}
+
+	/**
+	 * The bundled hashes on their own, the new SHA-2 ones next to SHA-1.
+	 */
+	public void testDigests() {
+		Digest[] digests = { new SHA1(), new SHA256(), new SHA512() };
+		String[] names = { "SHA-1", "SHA-256", "SHA-512" };
+
+		for (int d = 0; d < digests.length; d++) {
+			Digest digest = digests[d];
+			byte[] out = new byte[digest.getDigestLength()];
+
+			for (int size : PACKET_SIZES) {
+				byte[] packet = new byte[size];
+				random.nextBytes(packet);
+
+				long time = 0;
+				int packets = TOTAL_BYTES / size;
+				for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+					long start = SystemClock.elapsedRealtime();
+					for (int i = 0; i < packets; i++) {
+						digest.update(packet, 0, size);
+						digest.digest(out);
+					}
+					time = SystemClock.elapsedRealtime() - start;
+				}
+
+				log(names[d], size, (long) packets * size, time);
+			}
+		}
+	}
+
+	/**
+	 * The client's share of each key exchange: making a key pair and
+	 * working out the shared secret from the server's public key.
+	 */
+	public void testKeyExchange() {
+		int rounds = 5;
+
+		for (int group : new int[] { 1, 14 }) {
+			DhExchange server = new DhExchange();
+			server.init(group, random);
+
+			long time = 0;
+			for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+				long start = SystemClock.elapsedRealtime();
+				for (int i = 0; i < rounds; i++) {
+					DhExchange client = new DhExchange();
+					client.init(group, random);
+					client.setF(server.getE());
+				}
+				time = SystemClock.elapsedRealtime() - start;
+			}
+
+			Log.i(TAG, String.format("diffie-hellman-group%d-sha1: %.1f ms", group, time / (double) rounds));
+		}
+
+		for (String algo : KexManager.getDefaultKexAlgorithmList()) {
+			if (!EcdhExchange.isSupported(algo))
+				continue;
+
+			EcdhExchange server = EcdhExchange.getInstance(algo);
+			server.init(random);
+
+			long time = 0;
+			for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+				long start = SystemClock.elapsedRealtime();
+				for (int i = 0; i < rounds; i++) {
+					EcdhExchange client = EcdhExchange.getInstance(algo);
+					client.init(random);
+					client.setF(server.getE());
+				}
+				time = SystemClock.elapsedRealtime() - start;
+			}
+
+			Log.i(TAG, String.format("%s: %.1f ms", algo, time / (double) rounds));
+		}
+	}
+
+	/**
+	 * Send packets through one {@link TransportConnection} into memory and
+	 * read them back with another, checking they survive the trip.
+	 */
+	public void testTransport() throws IOException {
+		for (String cipher : BlockCipherFactory.getDefaultCipherList()) {
+			if (BlockCipherFactory.isAEAD(cipher)) {
+				measureTransport(cipher, null);
+				continue;
+			}
+
+			for (String mac : TRANSPORT_MACS)
+				measureTransport(cipher, mac);
+		}
+	}
+
+	/**
+	 * @param mac the MAC, or <code>null</code> for an AEAD cipher
+	 */
+	private void measureTransport(String cipher, String mac) throws IOException {
+		for (int size : PACKET_SIZES) {
+			byte[] message = new byte[size];
+			random.nextBytes(message);
+			byte[] received = new byte[size + 1];
+
+			int packets = TOTAL_BYTES / size;
+			long sendTime = 0;
+			long receiveTime = 0;
+
+			for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+				ByteArrayOutputStream wire = new ByteArrayOutputStream(TOTAL_BYTES * 2);
+				TransportConnection sender = new TransportConnection(null, wire, random);
+				if (mac == null)
+					sender.changeSendCipher(createAEADCipher(cipher, true));
+				else if (MAC.isEncryptThenMac(mac))
+					sender.changeSendCipher(new EncryptThenMac(createCipher(cipher, true), createMac(mac)));
+				else
+					sender.changeSendCipher(createCipher(cipher, true), createMac(mac));
+
+				long start = SystemClock.elapsedRealtime();
+				for (int i = 0; i < packets; i++)
+					sender.sendMessage(message);
+				sendTime = SystemClock.elapsedRealtime() - start;
+
+				TransportConnection receiver = new TransportConnection(
+						new ByteArrayInputStream(wire.toByteArray()), null, random);
+				if (mac == null)
+					receiver.changeRecvCipher(createAEADCipher(cipher, false));
+				else if (MAC.isEncryptThenMac(mac))
+					receiver.changeRecvCipher(new EncryptThenMac(createCipher(cipher, false), createMac(mac)));
+				else
+					receiver.changeRecvCipher(createCipher(cipher, false), createMac(mac));
+
+				start = SystemClock.elapsedRealtime();
+				for (int i = 0; i < packets; i++)
+					assertEquals(size, receiver.receiveMessage(received, 0, received.length));
+				receiveTime = SystemClock.elapsedRealtime() - start;
+
+				for (int i = 0; i < size; i++)
+					assertEquals(message[i], received[i]);
+			}
+
+			String name = (mac == null) ? cipher : cipher + " with " + mac;
+			log(name + " send", size, (long) packets * size, sendTime);
+			log(name + " receive", size, (long) packets * size, receiveTime);
+		}
+	}
+
+	private static String describe(String type, boolean platform) {
+		return type + (platform ? " (platform)" : " (bundled)");
+	}
+
+	private BlockCipher createCipher(String type, boolean encrypt) {
+		byte[] key = new byte[BlockCipherFactory.getKeySize(type)];
+		byte[] iv = new byte[BlockCipherFactory.getBlockSize(type)];
+		return BlockCipherFactory.createCipher(type, encrypt, key, iv);
+	}
+
+	private AEADCipher createAEADCipher(String type, boolean encrypt) {
+		byte[] key = new byte[BlockCipherFactory.getKeySize(type)];
+		byte[] iv = new byte[BlockCipherFactory.getIVSize(type)];
+		return BlockCipherFactory.createAEADCipher(type, encrypt, key, iv);
+	}
+
+	private MAC createMac(String type) {
+		return new MAC(type, new byte[MAC.getKeyLen(type)]);
+	}
+
+	private static void log(String name, int size, long bytes, long time) {
+		Log.i(TAG, String.format("%s, %d byte packets: %.2f MB/s", name, size,
+				bytes / (1024.0 * 1024.0) / (Math.max(1, time) / 1000.0)));
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import org.connectbot.util.EastAsianWidth;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Checks the precomputed East Asian Width table and compares its speed with
+ * the JNI and {@link Paint} based measurements it replaces.
+ */
+public class EastAsianWidthTest extends AndroidTestCase {
+	private static final String TAG = "ConnectBot.EastAsianWidthTest";
+
+	private static final int CHUNK = 4096;
+	private static final int ROUNDS = 200;
+
+	public void testAscii() {
+		for (char c = 0x20; c < 0x7f; c++) {
+			assertEquals("'" + c + "' should be narrow", EastAsianWidth.NARROW,
+					EastAsianWidth.getWidthClass(c));
+			assertFalse(EastAsianWidth.isWide(c, true));
+		}
+	}
+
+	public void testWide() {
+		// CJK ideograph, hiragana, hangul syllable and fullwidth latin
+		char[] wide = { '\u4eba', '\u3042', '\uac00', '\uff21' };
+		for (char c : wide) {
+			assertEquals(EastAsianWidth.WIDE, EastAsianWidth.getWidthClass(c));
+			assertTrue(EastAsianWidth.isWide(c, false));
+		}
+	}
+
+	public void testHalfwidth() {
+		// halfwidth katakana and hangul
+		assertFalse(EastAsianWidth.isWide('\uff71', true));
+		assertFalse(EastAsianWidth.isWide('\uffa1', true));
+	}
+
+	public void testAmbiguous() {
+		// section sign, greek alpha and box drawing
+		char[] ambiguous = { '\u00a7', '\u03b1', '\u2500' };
+		for (char c : ambiguous) {
+			assertEquals(EastAsianWidth.AMBIGUOUS, EastAsianWidth.getWidthClass(c));
+			assertFalse(EastAsianWidth.isWide(c, false));
+			assertTrue(EastAsianWidth.isWide(c, true));
+		}
+	}
+
+	public void testMeasureTable() {
+		char[] chars = "a\u4eba\u00a7b".toCharArray();
+		byte[] wide = new byte[chars.length];
+
+		EastAsianWidth.measureTable(chars, 0, chars.length, wide, false);
+		assertEquals(0, wide[0]);
+		assertEquals(1, wide[1]);
+		assertEquals(0, wide[2]);
+		assertEquals(0, wide[3]);
+
+		EastAsianWidth.measureTable(chars, 0, chars.length, wide, true);
+		assertEquals(1, wide[2]);
+	}
+
+	/**
+	 * Not really a test: logs how long each way of measuring takes for a
+	 * chunk the size the Relay reads.
+	 */
+	public void testMeasureSpeed() {
+		char[] chars = new char[CHUNK];
+		for (int i = 0; i < CHUNK; i++) {
+			// mostly Japanese text with some ASCII mixed in
+			if (i % 4 == 0)
+				chars[i] = (char) ('a' + i % 26);
+			else
+				chars[i] = (char) (0x3041 + i % 0x50);
+		}
+
+		byte[] wide = new byte[CHUNK];
+
+		long start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < ROUNDS; i++)
+			EastAsianWidth.measureTable(chars, 0, CHUNK, wide, false);
+		long table = SystemClock.elapsedRealtime() - start;
+		Log.i(TAG, String.format("table: %d ms for %d chars", table, ROUNDS * CHUNK));
+
+		if (EastAsianWidth.useJNI) {
+			start = SystemClock.elapsedRealtime();
+			for (int i = 0; i < ROUNDS; i++)
+				EastAsianWidth.measure(chars, 0, CHUNK, wide, false);
+			long jni = SystemClock.elapsedRealtime() - start;
+			Log.i(TAG, String.format("JNI: %d ms for %d chars", jni, ROUNDS * CHUNK));
+		} else {
+			Log.i(TAG, "JNI: not available");
+		}
+
+		Paint paint = new Paint();
+		paint.setTypeface(Typeface.MONOSPACE);
+		float[] widths = new float[CHUNK];
+		start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < ROUNDS; i++)
+			paint.getTextWidths(chars, 0, CHUNK, widths);
+		long paintTime = SystemClock.elapsedRealtime() - start;
+		Log.i(TAG, String.format("Paint: %d ms for %d chars", paintTime, ROUNDS * CHUNK));
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import org.connectbot.mock.NullTransport;
+import org.connectbot.service.Relay;
+import org.connectbot.service.TerminalBridge;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import de.mud.terminal.VDUBuffer;
+import de.mud.terminal.VDUDisplay;
+import de.mud.terminal.vt320;
+
+/**
+ * Not really a test: pushes typical session output through the
+ * {@link Relay} into {@link vt320} with both escape sequence parsers and
+ * logs the throughput and how much gets allocated per byte of input.
+ */
+public class EmulationBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = "ConnectBot.EmulationBenchmarkTest";
+
+	/** Rough size of each recording in bytes. */
+	private static final int RECORDING_SIZE = 256 * 1024;
+
+	/** Most bytes the transport hands over per read, like an SSH packet. */
+	private static final int READ_SIZE = 1024;
+
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int ROUNDS = 5;
+
+	private static final String ESC = "\u001b";
+
+	public void testPlainAscii() throws Exception {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; out.length() < RECORDING_SIZE; i++)
+			out.append("[").append(i).append("] The quick brown fox jumps over the lazy dog; ")
+				.append("pack my box with five dozen liquor jugs.\r\n");
+		measure("ascii", out.toString());
+	}
+
+	public void testCjk() throws Exception {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; out.length() < RECORDING_SIZE / 3; i++) {
+			// Japanese and Chinese text with the odd bit of ASCII
+			out.append(i).append(": ");
+			for (int j = 0; j < 30; j++)
+				out.append((char) (j % 3 == 0 ? 0x3041 + (i + j) % 0x50 : 0x4e00 + (i * 31 + j) % 0x5000));
+			out.append("\r\n");
+		}
+		measure("cjk", out.toString());
+	}
+
+	public void testColorListing() throws Exception {
+		// ls --color output: every name wrapped in its own SGR sequence
+		String[] colors = { "01;34", "01;32", "01;36", "00", "01;31", "40;33;01" };
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; out.length() < RECORDING_SIZE; i++) {
+			out.append(ESC).append("[0m");
+			for (int j = 0; j < 5; j++) {
+				String name = "file" + (i * 5 + j);
+				out.append(ESC).append('[').append(colors[(i + j) % colors.length]).append('m')
+					.append(name).append(ESC).append("[0m");
+				for (int pad = name.length(); pad < 15; pad++)
+					out.append(' ');
+			}
+			out.append("\r\n");
+		}
+		measure("ls --color", out.toString());
+	}
+
+	public void testEditorRedraw() throws Exception {
+		// full screen editor: clear, redraw every line with syntax colors
+		// and erase to end of line, then a status line and cursor placement
+		StringBuilder out = new StringBuilder();
+		for (int screen = 0; out.length() < RECORDING_SIZE; screen++) {
+			out.append(ESC).append("[?25l").append(ESC).append("[H").append(ESC).append("[2J");
+			for (int row = 1; row < 24; row++) {
+				out.append(ESC).append('[').append(row).append(";1H");
+				out.append(ESC).append("[33m").append(String.format("%4d ", screen + row))
+					.append(ESC).append("[m");
+				out.append("    ").append(ESC).append("[1;32mif").append(ESC).append("[m (")
+					.append(ESC).append("[36mcount").append(ESC).append("[m > ")
+					.append(ESC).append("[31m").append(row).append(ESC).append("[m) {")
+					.append(ESC).append("[K");
+			}
+			out.append(ESC).append("[24;1H").append(ESC).append("[7m\"Relay.java\" ")
+				.append(screen).append("L, 8192C").append(ESC).append("[27m").append(ESC).append("[K");
+			out.append(ESC).append('[').append(1 + screen % 23).append(";9H").append(ESC).append("[?25h");
+		}
+		measure("editor", out.toString());
+	}
+
+	public void testLogTail() throws Exception {
+		// a log scrolling by with colored levels, some lines wrapping
+		String[] levels = { ESC + "[32mINFO" + ESC + "[0m", ESC + "[33mWARN" + ESC + "[0m",
+				ESC + "[1;31mERROR" + ESC + "[0m" };
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; out.length() < RECORDING_SIZE; i++) {
+			out.append(String.format("2010-06-%02d %02d:%02d:%02d.%03d ", 1 + i % 28,
+					i / 3600 % 24, i / 60 % 60, i % 60, i % 1000));
+			out.append(levels[i % 7 == 0 ? 2 : i % 3 == 0 ? 1 : 0]);
+			out.append(" [worker-").append(i % 8).append("] request ").append(i)
+				.append(" completed in ").append(i * 7 % 1000).append(" ms");
+			if (i % 5 == 0)
+				out.append(" while handling a long query string ?a=1&b=2&c=3&d=4&e=5");
+			out.append("\r\n");
+		}
+		measure("log tail", out.toString());
+	}
+
+	private void measure(String name, String recording) throws UnsupportedEncodingException {
+		byte[] bytes = recording.getBytes("UTF-8");
+		run(name, "legacy parser", bytes, false);
+		run(name, "table parser", bytes, true);
+	}
+
+	private void run(String name, String parser, byte[] bytes, boolean tableParser) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+			replay(bytes, tableParser);
+
+		long time = 0;
+		long allocated = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			Debug.resetThreadAllocSize();
+			Debug.startAllocCounting();
+			long start = SystemClock.elapsedRealtime();
+
+			replay(bytes, tableParser);
+
+			time += SystemClock.elapsedRealtime() - start;
+			Debug.stopAllocCounting();
+			allocated += Debug.getThreadAllocSize();
+		}
+
+		double total = (double) bytes.length * ROUNDS;
+		Log.i(TAG, String.format("%s, %s: %.2f MB/s, %.3f bytes allocated per byte",
+				name, parser, total / (1024 * 1024) / (Math.max(1, time) / 1000.0),
+				allocated / total));
+	}
+
+	/**
+	 * Run a recording through a fresh terminal the same way a session does.
+	 */
+	private static void replay(byte[] bytes, boolean tableParser) {
+		Terminal terminal = new Terminal();
+		terminal.setTableParser(tableParser);
+
+		Relay relay = new Relay(new TerminalBridge(), new ReplayTransport(bytes),
+				terminal, "UTF-8");
+		relay.run();
+	}
+
+	/**
+	 * Hands a recording to the relay a packet at a time and then fails the
+	 * read, which is how the relay finds out a session ended.
+	 */
+	private static class ReplayTransport extends NullTransport {
+		private final byte[] recording;
+		private int position = 0;
+
+		public ReplayTransport(byte[] recording) {
+			this.recording = recording;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (position == recording.length)
+				throw new IOException("end of recording");
+
+			int count = Math.min(Math.min(length, READ_SIZE), recording.length - position);
+			System.arraycopy(recording, position, buffer, offset, count);
+			position += count;
+			return count;
+		}
+	}
+
+	private static class Terminal extends vt320 {
+		public Terminal() {
+			super(80, 24);
+			setDisplay(new NullDisplay());
+			setBufferSize(140);
+		}
+
+		@Override
+		public void debug(String notice) {
+		}
+
+		@Override
+		public void write(byte[] b) {
+		}
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void sendTelnetCommand(byte cmd) {
+		}
+
+		@Override
+		public void setWindowSize(int c, int r) {
+		}
+	}
+
+	private static class NullDisplay implements VDUDisplay {
+		private VDUBuffer buffer;
+
+		public void redraw() {
+		}
+
+		public void updateScrollBar() {
+		}
+
+		public void setVDUBuffer(VDUBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public VDUBuffer getVDUBuffer() {
+			return buffer;
+		}
+
+		public void setColor(int index, int red, int green, int blue) {
+		}
+
+		public void resetColors() {
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+import de.mud.terminal.VDUBuffer;
+import de.mud.terminal.VDUDisplay;
+import de.mud.terminal.vt320;
+
+/**
+ * Runs a corpus of escape sequences through both the original vt320 parser
+ * and the table driven one and checks that they leave the terminal in the
+ * same state and send the same answers.
+ */
+public class EscapeParserTest extends AndroidTestCase {
+	private static final int COLUMNS = 20;
+	private static final int ROWS = 10;
+
+	private static final String[] CORPUS = {
+		// text and control characters
+		"abc", "hello world ", "\r\n", "\n", "\t", "\b", "\u000ej\u000f",
+		"\u00e9t\u00e9",
+		// character attributes
+		"\u001b[1;31m", "\u001b[0m", "\u001b[m", "\u001b[4;7m",
+		"\u001b[38;5;100;48;5;20m", "\u001b[92;104m", "\u001b[22;24;27m",
+		// cursor movement
+		"\u001b[H", "\u001b[5;3H", "\u001b[;7H", "\u001b[100;100H",
+		"\u001b[2;2f", "\u001b[3A", "\u001b[2B", "\u001b[4C", "\u001b[2D",
+		"\u001b[5G", "\u001b[3d", "\u001b7", "\u001b8", "\u001b[s",
+		"\u001b[u", "\u001bA", "\u001bB", "\u001bC",
+		// scrolling and editing
+		"\u001bM", "\u001bD", "\u001bE", "\u001b[2L", "\u001b[L",
+		"\u001b[3M", "\u001b[M", "\u001b[K", "\u001b[1K", "\u001b[2K",
+		"\u001b[J", "\u001b[1J", "\u001b[2J", "\u001b[2@", "\u001b[3P",
+		"\u001b[4X", "\u001b[2S", "\u001b[T", "\u001b[3;8r", "\u001b[r",
+		"\u001b[1;5r", "\u001b#8",
+		// modes
+		"\u001b[4h", "\u001b[4l", "\u001b[?7l", "\u001b[?7h",
+		"\u001b[?25l", "\u001b[?25h", "\u001b[?1000h", "\u001b[?1000l",
+		"\u001b[?1h", "\u001b[?1l", "\u001b=", "\u001b>", "\u001b F",
+		// character sets
+		"\u001b(0", "lqqk", "\u001b(B", "\u001b)0",
+		// tabs
+		"\u001b[3g", "\u001bH",
+		// answers to the host
+		"\u001b[c", "\u001b[5n", "\u001b[6n", "\u001b[?15n",
+		// SCO and status line sequences
+		"\u001b[=3F", "\u001b[=5G", "\u001b[61\"p", "\u001b[1$}",
+		// strings
+		"\u001b]0;title\u0007", "\u001b]4;1;rgb:ff/80/00\u001b\\",
+		"\u001bP1$r\u001b\\",
+		// eight bit controls
+		"\u009b2J", "\u0084", "\u0085",
+		// reset
+		"\u001bc",
+	};
+
+	public void testCorpus() {
+		for (String sequence : CORPUS) {
+			Terminal original = new Terminal(false);
+			Terminal table = new Terminal(true);
+
+			original.putString("some text\r\n" + sequence + "x");
+			table.putString("some text\r\n" + sequence + "x");
+
+			assertEquals(escape(sequence), original.state(), table.state());
+		}
+	}
+
+	/**
+	 * Feed both parsers the same random mix of the corpus, split at random
+	 * points so that sequences span several calls.
+	 */
+	public void testRandomMix() {
+		Random random = new Random(0);
+
+		for (int round = 0; round < 50; round++) {
+			Terminal original = new Terminal(false);
+			Terminal table = new Terminal(true);
+
+			for (int i = 0; i < 200; i++) {
+				String sequence = CORPUS[random.nextInt(CORPUS.length)];
+				char[] chars = sequence.toCharArray();
+
+				int position = 0;
+				while (position < chars.length) {
+					int length = 1 + random.nextInt(chars.length - position);
+					assertEquals(feed(original, chars, position, length),
+							feed(table, chars, position, length));
+					position += length;
+				}
+
+				assertEquals("round " + round + " after " + escape(sequence),
+						original.state(), table.state());
+			}
+		}
+	}
+
+	public void testUnknownPrivateMarker() {
+		// secondary device attributes aren't supported, but the final
+		// character shouldn't end up on the screen either
+		Terminal table = new Terminal(true);
+		table.putString("a\u001b[>cb");
+		assertEquals('a', table.getChar(0, 0));
+		assertEquals('b', table.getChar(1, 0));
+	}
+
+	public void testTooManyParameters() {
+		StringBuilder sequence = new StringBuilder("\u001b[");
+		for (int i = 0; i < 100; i++)
+			sequence.append("1;");
+		sequence.append("4mx");
+
+		Terminal table = new Terminal(true);
+		table.putString(sequence.toString());
+		assertEquals('x', table.getChar(0, 0));
+		assertEquals(VDUBuffer.BOLD, table.getAttributes(0, 0));
+	}
+
+	public void testLongString() {
+		StringBuilder sequence = new StringBuilder("\u001b]0;");
+		for (int i = 0; i < 10000; i++)
+			sequence.append('t');
+		sequence.append("\u0007x");
+
+		Terminal table = new Terminal(true);
+		table.putString(sequence.toString());
+		assertEquals('x', table.getChar(0, 0));
+	}
+
+	public void testCancel() {
+		Terminal table = new Terminal(true);
+		table.putString("\u001b[31\u0018x");
+		assertEquals('x', table.getChar(0, 0));
+		assertEquals(0, table.getAttributes(0, 0));
+	}
+
+	/**
+	 * Put characters on a terminal, catching the exceptions the emulator
+	 * still throws for some sequences at the right edge of the screen.
+	 *
+	 * @return class of the exception thrown, or null
+	 */
+	private static String feed(Terminal terminal, char[] chars, int start, int length) {
+		try {
+			terminal.putString(chars, null, start, length);
+			return null;
+		} catch (RuntimeException e) {
+			return e.getClass().getName();
+		}
+	}
+
+	private static String escape(String s) {
+		StringBuilder escaped = new StringBuilder();
+		for (char c : s.toCharArray()) {
+			if (c < 0x20 || c > 0x7e)
+				escaped.append(String.format("\\u%04x", (int) c));
+			else
+				escaped.append(c);
+		}
+		return escaped.toString();
+	}
+
+	/**
+	 * Terminal that remembers everything it sends to the host.
+	 */
+	private static class Terminal extends vt320 {
+		private final StringBuilder written = new StringBuilder();
+
+		public Terminal(boolean tableDriven) {
+			super(COLUMNS, ROWS);
+			setDisplay(new Display());
+			setBufferSize(100);
+			setTableParser(tableDriven);
+		}
+
+		@Override
+		public void debug(String notice) {
+		}
+
+		@Override
+		public void write(byte[] b) {
+			written.append(new String(b));
+		}
+
+		@Override
+		public void write(int b) {
+			written.append((char) b);
+		}
+
+		@Override
+		public void sendTelnetCommand(byte cmd) {
+		}
+
+		@Override
+		public void setWindowSize(int c, int r) {
+		}
+
+		/**
+		 * @return screen contents, cursor and margins and what was sent
+		 */
+		public String state() {
+			StringBuilder state = new StringBuilder();
+			for (int l = 0; l < getRows(); l++) {
+				for (int c = 0; c < getColumns(); c++)
+					state.append(getChar(c, l)).append(getAttributes(c, l)).append(',');
+				state.append('\n');
+			}
+			state.append("cursor ").append(getCursorColumn())
+				.append(',').append(getCursorRow())
+				.append(" margins ").append(getTopMargin())
+				.append(',').append(getBottomMargin())
+				.append(" scrollback ").append(screenBase)
+				.append(" sent ").append(written);
+			return state.toString();
+		}
+
+		private class Display implements VDUDisplay {
+			public void redraw() {
+			}
+
+			public void updateScrollBar() {
+			}
+
+			public void setVDUBuffer(VDUBuffer buffer) {
+			}
+
+			public VDUBuffer getVDUBuffer() {
+				return Terminal.this;
+			}
+
+			public void setColor(int index, int red, int green, int blue) {
+				written.append("color ").append(index).append(' ')
+					.append(red).append(',').append(green).append(',').append(blue);
+			}
+
+			public void resetColors() {
+			}
+		}
+	}
+}
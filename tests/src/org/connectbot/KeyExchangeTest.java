@@ -0,0 +1,170 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import android.test.AndroidTestCase;
+
+import com.trilead.ssh2.crypto.dh.Curve25519;
+import com.trilead.ssh2.crypto.dh.DhGroupExchange;
+import com.trilead.ssh2.crypto.dh.DhKeyPairPool;
+import com.trilead.ssh2.crypto.dh.EcdhExchange;
+import com.trilead.ssh2.transport.KexManager;
+
+/**
+ * Checks {@link Curve25519} against the examples in RFC 7748, and that two
+ * ends of each elliptic curve key exchange agree on the shared secret, also
+ * for Diffie-Hellman with key pairs from {@link DhKeyPairPool}.
+ */
+public class KeyExchangeTest extends AndroidTestCase {
+	/** Scalar, u-coordinate and their product from RFC 7748 section 5.2. */
+	private static final String[][] VECTORS = {
+		{ "a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4",
+			"e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c",
+			"c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552" },
+		{ "4b66e9d4d1b4673c5ad22691957d6af5c11b6421e0ea01d42ca4169e7918ba0d",
+			"e5210f12786811d3f4b7959d0538ae2c31dbe7106fc03c3efc4cd549c715a493",
+			"95cbde9476e8907d7aade45cb4b873f88b595a68799fa152e6f8f7647aac7957" },
+	};
+
+	/** Alice's and Bob's keys and their shared secret from section 6.1. */
+	private static final String ALICE_PRIVATE = "77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a";
+	private static final String ALICE_PUBLIC = "8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a";
+	private static final String BOB_PRIVATE = "5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb";
+	private static final String BOB_PUBLIC = "de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f";
+	private static final String SHARED = "4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742";
+
+	private final SecureRandom random = new SecureRandom();
+
+	public void testVectors() {
+		byte[] out = new byte[Curve25519.KEY_SIZE];
+
+		for (String[] vector : VECTORS) {
+			Curve25519.scalarMult(out, fromHex(vector[0]), fromHex(vector[1]));
+			assertTrue(vector[0], Arrays.equals(fromHex(vector[2]), out));
+		}
+
+		Curve25519.scalarMultBase(out, fromHex(ALICE_PRIVATE));
+		assertTrue(Arrays.equals(fromHex(ALICE_PUBLIC), out));
+		Curve25519.scalarMultBase(out, fromHex(BOB_PRIVATE));
+		assertTrue(Arrays.equals(fromHex(BOB_PUBLIC), out));
+
+		Curve25519.scalarMult(out, fromHex(ALICE_PRIVATE), fromHex(BOB_PUBLIC));
+		assertTrue(Arrays.equals(fromHex(SHARED), out));
+		Curve25519.scalarMult(out, fromHex(BOB_PRIVATE), fromHex(ALICE_PUBLIC));
+		assertTrue(Arrays.equals(fromHex(SHARED), out));
+	}
+
+	public void testAgreement() {
+		for (String algo : KexManager.getDefaultKexAlgorithmList()) {
+			if (!EcdhExchange.isSupported(algo))
+				continue;
+
+			for (int round = 0; round < 10; round++) {
+				EcdhExchange client = EcdhExchange.getInstance(algo);
+				EcdhExchange server = EcdhExchange.getInstance(algo);
+				client.init(random);
+				server.init(random);
+
+				client.setF(server.getE());
+				server.setF(client.getE());
+				assertEquals(algo, client.getK(), server.getK());
+			}
+		}
+	}
+
+	public void testInvalidKeys() {
+		for (String algo : KexManager.getDefaultKexAlgorithmList()) {
+			if (!EcdhExchange.isSupported(algo))
+				continue;
+
+			EcdhExchange client = EcdhExchange.getInstance(algo);
+			EcdhExchange server = EcdhExchange.getInstance(algo);
+			client.init(random);
+			server.init(random);
+
+			byte[] bad = server.getE().clone();
+			if (algo.startsWith("curve25519")) {
+				/* a point of small order */
+				Arrays.fill(bad, (byte) 0);
+			} else {
+				/* move y off the curve */
+				bad[bad.length - 1] ^= 1;
+			}
+			assertInvalid(algo, client, bad);
+
+			assertInvalid(algo, client, new byte[server.getE().length - 1]);
+		}
+	}
+
+	public void testDhKeyPairPool() throws InterruptedException {
+		BigInteger p = BigInteger.probablePrime(512, random);
+		BigInteger g = BigInteger.valueOf(2);
+
+		/* nothing is worked out for groups no key exchange has used */
+		DhKeyPairPool.clear();
+		DhKeyPairPool.prepare();
+		assertEquals(0, DhKeyPairPool.getAvailable(p, g));
+
+		/* using a group puts it into the pool */
+		new DhGroupExchange(p, g).init(random);
+		waitForPool(p, g);
+
+		DhGroupExchange client = new DhGroupExchange(p, g);
+		DhGroupExchange server = new DhGroupExchange(p, g);
+		client.init(random);
+		server.init(random);
+		assertTrue(DhKeyPairPool.getAvailable(p, g) < DhKeyPairPool.PAIRS_PER_GROUP);
+		assertFalse(client.getE().equals(server.getE()));
+
+		client.setF(server.getE());
+		server.setF(client.getE());
+		assertEquals(client.getK(), server.getK());
+
+		/* taking pairs tops the pool up again */
+		waitForPool(p, g);
+
+		DhKeyPairPool.clear();
+		assertEquals(0, DhKeyPairPool.getAvailable(p, g));
+	}
+
+	private static void waitForPool(BigInteger p, BigInteger g) throws InterruptedException {
+		for (int i = 0; i < 100 && DhKeyPairPool.getAvailable(p, g) < DhKeyPairPool.PAIRS_PER_GROUP; i++)
+			Thread.sleep(100);
+		assertEquals(DhKeyPairPool.PAIRS_PER_GROUP, DhKeyPairPool.getAvailable(p, g));
+	}
+
+	private static void assertInvalid(String algo, EcdhExchange exchange, byte[] key) {
+		try {
+			exchange.setF(key);
+			fail(algo + ": invalid key accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private static byte[] fromHex(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		return bytes;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+
+import com.trilead.ssh2.crypto.cipher.BlockCipherFactory;
+import com.trilead.ssh2.crypto.cipher.EncryptThenMac;
+import com.trilead.ssh2.crypto.digest.Digest;
+import com.trilead.ssh2.crypto.digest.HMAC;
+import com.trilead.ssh2.crypto.digest.MAC;
+import com.trilead.ssh2.crypto.digest.SHA256;
+import com.trilead.ssh2.crypto.digest.SHA512;
+import com.trilead.ssh2.transport.TransportConnection;
+
+/**
+ * Checks the SHA-2 digests and HMACs against the examples in FIPS 180-2 and
+ * RFC 4231, and sends packets through {@link TransportConnection} with the
+ * encrypt-then-MAC variants.
+ */
+public class MACTest extends AndroidTestCase {
+	public void testDigests() {
+		byte[] abc = { 'a', 'b', 'c' };
+
+		assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+				digest(new SHA256(), abc));
+		assertEquals("ddaf35a193617abacc417349ae20413112e6fa4e89a97ea20a9eeee64b55d39a"
+				+ "2192992a274fc1a836ba3c23a3feebbd454d4423643ce80e2a9ac94fa54ca49f",
+				digest(new SHA512(), abc));
+	}
+
+	public void testHMACs() throws Exception {
+		byte[] key = "Jefe".getBytes("US-ASCII");
+		byte[] data = "what do ya want for nothing?".getBytes("US-ASCII");
+
+		assertEquals("5bdcc146bf60754e6a042426089575c75a003f089d2739839dec58b964ec3843",
+				digest(new HMAC(new SHA256(), key, 32), data));
+		assertEquals("164b7a7bfcf819e2e395fbe73b56e0a387bd64222e831fd610270cd7ea250554"
+				+ "9758bf75c05a994a6d034f65f8f0e6fdcaeab1a34d4a6b4b636e070a38bce737",
+				digest(new HMAC(new SHA512(), key, 64), data));
+
+		/* a key longer than the block size of either hash */
+		key = new byte[131];
+		Arrays.fill(key, (byte) 0xaa);
+		data = "Test Using Larger Than Block-Size Key - Hash Key First".getBytes("US-ASCII");
+
+		assertEquals("60e431591ee0b67f0d8a26aacbf5b77f8e0bc6213728c5140546040f0ee37f54",
+				digest(new HMAC(new SHA256(), key, 32), data));
+		assertEquals("80b24263c7c1a3ebb71493c1dd7be8b49b46d1f41b4aeec1121b013783f8f352"
+				+ "6b56d037e05f2598bd0fd2215d6a1e5295e64f73f63f0aec8b915a985d786598",
+				digest(new HMAC(new SHA512(), key, 64), data));
+	}
+
+	/**
+	 * Send packets with every encrypt-then-MAC variant and a CTR and a CBC
+	 * cipher, and make sure a flipped bit in the ciphertext is caught.
+	 */
+	public void testEncryptThenMac() throws IOException {
+		Random random = new Random(0);
+		SecureRandom rnd = new SecureRandom();
+
+		for (String mac : MAC.getMacList()) {
+			if (!MAC.isEncryptThenMac(mac))
+				continue;
+
+			for (String cipher : new String[] { "aes128-ctr", "aes128-cbc" }) {
+				String name = cipher + " with " + mac;
+				byte[][] messages = new byte[50][];
+				ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+				TransportConnection sender = new TransportConnection(null, wire, rnd);
+				sender.changeSendCipher(create(cipher, mac, true));
+
+				for (int i = 0; i < messages.length; i++) {
+					messages[i] = new byte[1 + random.nextInt(i < 25 ? 64 : 32000)];
+					random.nextBytes(messages[i]);
+					sender.sendMessage(messages[i]);
+				}
+
+				byte[] packets = wire.toByteArray();
+				byte[] received = new byte[35000];
+
+				TransportConnection receiver = new TransportConnection(new ByteArrayInputStream(packets), null, rnd);
+				receiver.changeRecvCipher(create(cipher, mac, false));
+
+				for (int i = 0; i < messages.length; i++) {
+					assertEquals(name, messages[i].length, receiver.receiveMessage(received, 0, received.length));
+					for (int j = 0; j < messages[i].length; j++)
+						assertEquals(name, messages[i][j], received[j]);
+				}
+
+				/* the packet length is in the clear, flip a bit after it */
+				packets[4 + random.nextInt(16)] ^= 1;
+
+				receiver = new TransportConnection(new ByteArrayInputStream(packets), null, rnd);
+				receiver.changeRecvCipher(create(cipher, mac, false));
+
+				try {
+					receiver.receiveMessage(received, 0, received.length);
+					fail(name + ": corrupt packet accepted");
+				} catch (IOException e) {
+					// expected
+				}
+			}
+		}
+	}
+
+	private static EncryptThenMac create(String cipher, String mac, boolean encrypt) {
+		byte[] key = new byte[BlockCipherFactory.getKeySize(cipher)];
+		byte[] iv = new byte[BlockCipherFactory.getIVSize(cipher)];
+		byte[] macKey = new byte[MAC.getKeyLen(mac)];
+		Arrays.fill(macKey, (byte) 7);
+
+		return new EncryptThenMac(BlockCipherFactory.createCipher(cipher, encrypt, key, iv),
+				new MAC(mac, macKey));
+	}
+
+	private static String digest(Digest digest, byte[] data) {
+		byte[] out = new byte[digest.getDigestLength()];
+		digest.update(data, 0, data.length);
+		digest.digest(out);
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : out)
+			hex.append(String.format("%02x", b & 0xff));
+		return hex.toString();
+	}
+}
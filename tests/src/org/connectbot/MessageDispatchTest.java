@@ -0,0 +1,88 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import java.io.IOException;
+
+import android.test.AndroidTestCase;
+
+import com.trilead.ssh2.Connection;
+import com.trilead.ssh2.transport.MessageHandler;
+import com.trilead.ssh2.transport.TransportManager;
+
+/**
+ * Checks which handler {@link TransportManager} dispatches each message type
+ * to as handlers come and go, and that the receive counters start at zero.
+ */
+public class MessageDispatchTest extends AndroidTestCase {
+	private static class NullHandler implements MessageHandler {
+		public void handleMessage(byte[] msg, int off, int msglen) {
+		}
+	}
+
+	public void testOverlappingRanges() throws IOException {
+		TransportManager tm = new TransportManager("localhost", 22);
+		MessageHandler auth = new NullHandler();
+		MessageHandler channels = new NullHandler();
+
+		assertNull(tm.getMessageHandler(90));
+
+		/* like authentication and the channel manager while logging in */
+		tm.registerMessageHandler(auth, 0, 255);
+		tm.registerMessageHandler(channels, 80, 100);
+
+		assertSame(auth, tm.getMessageHandler(50));
+		assertSame(auth, tm.getMessageHandler(90));
+
+		tm.removeMessageHandler(auth, 0, 255);
+
+		assertNull(tm.getMessageHandler(50));
+		assertSame(channels, tm.getMessageHandler(80));
+		assertSame(channels, tm.getMessageHandler(90));
+		assertSame(channels, tm.getMessageHandler(100));
+		assertNull(tm.getMessageHandler(101));
+
+		/* removing needs the same range it was registered with */
+		tm.removeMessageHandler(channels, 80, 99);
+		assertSame(channels, tm.getMessageHandler(90));
+	}
+
+	public void testRangeClamped() throws IOException {
+		TransportManager tm = new TransportManager("localhost", 22);
+		MessageHandler mh = new NullHandler();
+
+		tm.registerMessageHandler(mh, -10, 1000);
+
+		assertSame(mh, tm.getMessageHandler(0));
+		assertSame(mh, tm.getMessageHandler(255));
+
+		tm.removeMessageHandler(mh, -10, 1000);
+
+		assertNull(tm.getMessageHandler(0));
+		assertNull(tm.getMessageHandler(255));
+	}
+
+	public void testCounters() throws IOException {
+		assertNull(new Connection("localhost").getReceivedMessageCounts());
+
+		int[] counts = new TransportManager("localhost", 22).getReceivedMessageCounts();
+		assertEquals(256, counts.length);
+		for (int count : counts)
+			assertEquals(0, count);
+	}
+}
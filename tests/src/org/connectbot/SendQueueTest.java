@@ -0,0 +1,95 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import android.test.AndroidTestCase;
+
+import com.trilead.ssh2.transport.SendQueue;
+
+/**
+ * Checks that {@link SendQueue} keeps the order of each producer's messages,
+ * loses none when several threads add at once, and refuses messages when it
+ * is full.
+ */
+public class SendQueueTest extends AndroidTestCase {
+	public void testBounded() {
+		SendQueue queue = new SendQueue(4);
+		byte[][] batch = new byte[3][];
+
+		for (int i = 0; i < 4; i++)
+			assertTrue(queue.offer(new byte[] { (byte) i }));
+		assertFalse(queue.offer(new byte[1]));
+		assertEquals(4, queue.size());
+
+		assertEquals(3, queue.drain(batch));
+		for (int i = 0; i < 3; i++)
+			assertEquals(i, batch[i][0]);
+
+		assertTrue(queue.offer(new byte[] { 4 }));
+		assertEquals(2, queue.drain(batch));
+		assertEquals(3, batch[0][0]);
+		assertEquals(4, batch[1][0]);
+
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.drain(batch));
+	}
+
+	public void testProducers() throws InterruptedException {
+		final int producers = 4;
+		final int messages = 10000;
+		final SendQueue queue = new SendQueue(64);
+
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int id = p;
+			threads[p] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < messages; i++) {
+						byte[] msg = { (byte) id, (byte) (i >> 16), (byte) (i >> 8), (byte) i };
+						while (!queue.offer(msg))
+							Thread.yield();
+					}
+				}
+			};
+			threads[p].start();
+		}
+
+		int[] next = new int[producers];
+		byte[][] batch = new byte[16][];
+		int received = 0;
+
+		while (received < producers * messages) {
+			int n = queue.drain(batch);
+			if (n == 0)
+				Thread.yield();
+
+			for (int i = 0; i < n; i++) {
+				byte[] msg = batch[i];
+				int seq = ((msg[1] & 0xff) << 16) | ((msg[2] & 0xff) << 8) | (msg[3] & 0xff);
+				assertEquals(next[msg[0]]++, seq);
+			}
+			received += n;
+		}
+
+		for (Thread t : threads)
+			t.join();
+
+		assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+
+import com.trilead.ssh2.crypto.cipher.BlockCipherFactory;
+import com.trilead.ssh2.crypto.digest.MAC;
+import com.trilead.ssh2.transport.PacketBufferPool;
+import com.trilead.ssh2.transport.TransportConnection;
+
+/**
+ * Checks that {@link TransportConnection} hands each packet, or each batch of
+ * queued packets, to the socket in one write, before and after keys are in
+ * place, that the packets read back, and that received packets are opened in
+ * buffers from the pool.
+ */
+public class TransportConnectionTest extends AndroidTestCase {
+	/** Counts the writes and keeps what was written. */
+	private static class CountingOutputStream extends ByteArrayOutputStream {
+		int writes;
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes++;
+			super.write(b, off, len);
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			writes++;
+			super.write(b);
+		}
+	}
+
+	private final Random random = new Random(0);
+
+	private final SecureRandom rnd = new SecureRandom();
+
+	public void testUnencrypted() throws IOException {
+		roundTrip(null, null);
+	}
+
+	public void testBlockCipher() throws IOException {
+		roundTrip("aes128-ctr", "hmac-sha1");
+		roundTrip("aes128-cbc", "hmac-sha2-256");
+	}
+
+	public void testAEAD() throws IOException {
+		roundTrip("aes128-gcm@openssh.com", null);
+	}
+
+	public void testQueuedMessages() throws IOException {
+		CountingOutputStream wire = new CountingOutputStream();
+		TransportConnection sender = new TransportConnection(null, wire, rnd);
+		setKeys(sender, "aes128-gcm@openssh.com", null, true);
+
+		byte[][] messages = new byte[10][];
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = new byte[1 + random.nextInt(100)];
+			random.nextBytes(messages[i]);
+			sender.queueMessage(messages[i], 0, messages[i].length, 0);
+		}
+
+		assertEquals(0, wire.writes);
+		sender.flush();
+		assertEquals(1, wire.writes);
+
+		TransportConnection receiver = new TransportConnection(
+				new ByteArrayInputStream(wire.toByteArray()), null, rnd);
+		setKeys(receiver, "aes128-gcm@openssh.com", null, false);
+
+		byte[] received = new byte[35000];
+		for (int i = 0; i < messages.length; i++) {
+			assertEquals(messages[i].length, receiver.receiveMessage(received, 0, received.length));
+			for (int j = 0; j < messages[i].length; j++)
+				assertEquals(messages[i][j], received[j]);
+		}
+	}
+
+	public void testPacketBuffers() throws IOException {
+		ByteArrayOutputStream wire = new ByteArrayOutputStream();
+		TransportConnection sender = new TransportConnection(null, wire, rnd);
+		setKeys(sender, "aes128-ctr", "hmac-sha2-256", true);
+
+		byte[][] messages = new byte[3][];
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = new byte[1 + random.nextInt(5000)];
+			random.nextBytes(messages[i]);
+			sender.sendMessage(messages[i]);
+		}
+
+		TransportConnection receiver = new TransportConnection(
+				new ByteArrayInputStream(wire.toByteArray()), null, rnd);
+		setKeys(receiver, "aes128-ctr", "hmac-sha2-256", false);
+
+		byte[] previous = null;
+		for (int i = 0; i < messages.length; i++) {
+			assertEquals(messages[i].length, receiver.receivePacket());
+			byte[] buffer = receiver.getPayloadBuffer();
+			int off = receiver.getPayloadOffset();
+			for (int j = 0; j < messages[i].length; j++)
+				assertEquals(messages[i][j], buffer[off + j]);
+
+			// reading the next packet gave the last buffer back first
+			if (previous != null)
+				assertSame(previous, buffer);
+			previous = buffer;
+		}
+
+		int pooled = PacketBufferPool.getPooled();
+		receiver.releasePacket();
+		assertEquals(Math.min(pooled + 1, PacketBufferPool.MAX_POOLED), PacketBufferPool.getPooled());
+	}
+
+	private void roundTrip(String cipher, String mac) throws IOException {
+		String name = cipher + " " + mac;
+		CountingOutputStream wire = new CountingOutputStream();
+
+		TransportConnection sender = new TransportConnection(null, wire, rnd);
+		setKeys(sender, cipher, mac, true);
+
+		byte[][] messages = new byte[40][];
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = new byte[1 + random.nextInt(i < 20 ? 100 : 33000)];
+			random.nextBytes(messages[i]);
+			sender.sendMessage(messages[i]);
+		}
+
+		assertEquals(name, messages.length, wire.writes);
+
+		TransportConnection receiver = new TransportConnection(
+				new ByteArrayInputStream(wire.toByteArray()), null, rnd);
+		setKeys(receiver, cipher, mac, false);
+
+		byte[] received = new byte[35000];
+		for (int i = 0; i < messages.length; i++) {
+			assertEquals(name, messages[i].length, receiver.receiveMessage(received, 0, received.length));
+			for (int j = 0; j < messages[i].length; j++)
+				assertEquals(name, messages[i][j], received[j]);
+		}
+	}
+
+	private static void setKeys(TransportConnection tc, String cipher, String mac, boolean send) {
+		if (cipher == null)
+			return;
+
+		byte[] key = new byte[BlockCipherFactory.getKeySize(cipher)];
+		byte[] iv = new byte[BlockCipherFactory.getIVSize(cipher)];
+
+		if (BlockCipherFactory.isAEAD(cipher)) {
+			if (send)
+				tc.changeSendCipher(BlockCipherFactory.createAEADCipher(cipher, true, key, iv));
+			else
+				tc.changeRecvCipher(BlockCipherFactory.createAEADCipher(cipher, false, key, iv));
+			return;
+		}
+
+		MAC m = new MAC(mac, new byte[MAC.getKeyLen(mac)]);
+		if (send)
+			tc.changeSendCipher(BlockCipherFactory.createCipher(cipher, true, key, iv), m);
+		else
+			tc.changeRecvCipher(BlockCipherFactory.createCipher(cipher, false, key, iv), m);
+	}
+}
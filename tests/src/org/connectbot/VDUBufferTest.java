@@ -0,0 +1,236 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.connectbot;
+
+import android.test.AndroidTestCase;
+import de.mud.terminal.VDUBuffer;
+import de.mud.terminal.VDUDisplay;
+
+/**
+ * Checks that scrolling through the ring of lines in {@link VDUBuffer} keeps
+ * the screen and the scrollback in order.
+ */
+public class VDUBufferTest extends AndroidTestCase {
+	private static final int WIDTH = 10;
+	private static final int HEIGHT = 4;
+	private static final int SCROLLBACK = 20;
+
+	private VDUBuffer buffer;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		buffer = new VDUBuffer(WIDTH, HEIGHT);
+		buffer.setDisplay(new NullDisplay());
+		buffer.setBufferSize(SCROLLBACK);
+	}
+
+	public void testScrollIntoScrollback() {
+		int lines = HEIGHT + 2;
+		for (int i = 0; i < lines; i++)
+			writeLine(i);
+
+		assertEquals(HEIGHT + lines, buffer.bufSize);
+		assertEquals(lines, buffer.screenBase);
+		assertEquals(buffer.screenBase, buffer.windowBase);
+
+		for (int i = 0; i < lines; i++)
+			assertEquals((char) ('a' + i), lineChar(HEIGHT - 1 + i));
+		assertEquals('d', buffer.getChar(0, 0));
+	}
+
+	public void testScrollbackWrapsAround() {
+		int lines = SCROLLBACK * 3 + 1;
+		for (int i = 0; i < lines; i++)
+			writeLine(i);
+
+		assertEquals(SCROLLBACK, buffer.bufSize);
+		assertEquals(SCROLLBACK - HEIGHT, buffer.screenBase);
+
+		// only the last lines written are left, oldest first
+		for (int i = 0; i < SCROLLBACK - 1; i++) {
+			int written = lines - SCROLLBACK + 1 + i;
+			assertEquals((char) ('a' + written % 26), lineChar(i));
+			assertEquals(VDUBuffer.BOLD, buffer.getAttributeArray()[buffer.getAttributeOffset(i)]);
+		}
+
+		// the line scrolled in last is blank
+		assertEquals(' ', buffer.getChar(0, HEIGHT - 1));
+		assertEquals(0, buffer.getAttributes(0, HEIGHT - 1));
+	}
+
+	public void testScrollbackAttributes() {
+		int lines = SCROLLBACK - HEIGHT;
+		for (int i = 0; i < lines; i++) {
+			buffer.putChar(3, HEIGHT - 1, 'x', i);
+			buffer.putChar(WIDTH - 1, HEIGHT - 1, 'y', VDUBuffer.INVERT);
+			writeLine(i);
+		}
+
+		// look at the lines both ways so they go in and out of the cache
+		for (int pass = 0; pass < 2; pass++) {
+			for (int j = 0; j < lines; j++) {
+				int i = pass == 0 ? j : lines - 1 - j;
+				int[] attributes = buffer.getAttributeArray();
+				int offset = buffer.getAttributeOffset(HEIGHT - 1 + i);
+				assertEquals(VDUBuffer.BOLD, attributes[offset]);
+				assertEquals(0, attributes[offset + 1]);
+				assertEquals(i, attributes[offset + 3]);
+				assertEquals(VDUBuffer.INVERT, attributes[offset + WIDTH - 1]);
+			}
+		}
+
+		// cells added by a wider screen have no attributes
+		buffer.setScreenSize(WIDTH + 2, HEIGHT, false);
+		int offset = buffer.getAttributeOffset(HEIGHT);
+		assertEquals(VDUBuffer.INVERT, buffer.getAttributeArray()[offset + WIDTH - 1]);
+		assertEquals(0, buffer.getAttributeArray()[offset + WIDTH]);
+	}
+
+	public void testScrollRegion() {
+		for (int i = 0; i < HEIGHT; i++)
+			buffer.putChar(0, i, (char) ('a' + i));
+
+		buffer.setTopMargin(1);
+		buffer.setBottomMargin(2);
+		buffer.insertLine(2, 1, VDUBuffer.SCROLL_UP);
+
+		// line 1 scrolled out of the region into the scrollback
+		assertEquals(1, buffer.screenBase);
+		assertEquals('b', lineChar(0));
+		assertEquals('a', buffer.getChar(0, 0));
+		assertEquals('c', buffer.getChar(0, 1));
+		assertEquals(' ', buffer.getChar(0, 2));
+		assertEquals('d', buffer.getChar(0, 3));
+	}
+
+	public void testDeleteLineBelowRegion() {
+		for (int i = 0; i < HEIGHT; i++)
+			buffer.putChar(0, i, (char) ('a' + i));
+
+		buffer.setBottomMargin(1);
+		buffer.deleteLine(2);
+
+		assertEquals('a', buffer.getChar(0, 0));
+		assertEquals('b', buffer.getChar(0, 1));
+		assertEquals('d', buffer.getChar(0, 2));
+		assertEquals(' ', buffer.getChar(0, 3));
+
+		// each line must still be a line of its own
+		buffer.putChar(0, 3, 'x');
+		assertEquals('d', buffer.getChar(0, 2));
+	}
+
+	public void testPutRun() {
+		clearUpdates();
+		char[] run = "xabcdx".toCharArray();
+		buffer.putRun(2, 1, run, 1, 4, VDUBuffer.BOLD);
+
+		assertEquals(' ', buffer.getChar(1, 1));
+		for (int i = 0; i < 4; i++) {
+			assertEquals(run[i + 1], buffer.getChar(2 + i, 1));
+			assertEquals(VDUBuffer.BOLD, buffer.getAttributes(2 + i, 1));
+		}
+		assertEquals(0, buffer.getAttributes(6, 1));
+		assertTrue(buffer.update[2]);
+		assertFalse(buffer.update[1]);
+	}
+
+	public void testResize() {
+		buffer.putChar(2, 1, 'x', VDUBuffer.UNDERLINE);
+		buffer.putChar(WIDTH - 1, 1, 'y');
+
+		buffer.setScreenSize(WIDTH + 5, HEIGHT + 2, false);
+		assertEquals('x', buffer.getChar(2, 1));
+		assertEquals(VDUBuffer.UNDERLINE, buffer.getAttributes(2, 1));
+		assertEquals('y', buffer.getChar(WIDTH - 1, 1));
+		assertEquals(' ', buffer.getChar(WIDTH + 4, 1));
+		assertEquals(' ', buffer.getChar(0, HEIGHT + 1));
+
+		buffer.setScreenSize(WIDTH - 5, HEIGHT, false);
+		assertEquals('x', buffer.getChar(2, 1));
+		assertEquals(' ', buffer.getChar(WIDTH - 6, 1));
+	}
+
+	public void testScrollRecorded() {
+		clearUpdates();
+		writeLine(0);
+		writeLine(1);
+
+		// the display shifts the screen up twice; the first line written
+		// moved up along with it and still has to be drawn
+		assertEquals(0, buffer.scrollTop);
+		assertEquals(HEIGHT - 1, buffer.scrollBottom);
+		assertEquals(2, buffer.scrollAmount);
+		for (int i = 0; i < HEIGHT - 3; i++)
+			assertFalse(buffer.update[i + 1]);
+		for (int i = HEIGHT - 3; i < HEIGHT; i++)
+			assertTrue(buffer.update[i + 1]);
+
+		// scrolling another region can't be folded into the same shift
+		buffer.setTopMargin(1);
+		buffer.insertLine(1, 1, VDUBuffer.SCROLL_DOWN);
+		assertEquals(0, buffer.scrollAmount);
+		for (int i = 0; i < HEIGHT; i++)
+			assertTrue(buffer.update[i + 1]);
+	}
+
+	/**
+	 * Write a line and scroll the whole screen up by one like a newline on
+	 * the last row does.
+	 */
+	private void writeLine(int i) {
+		buffer.putChar(0, HEIGHT - 1, (char) ('a' + i % 26), VDUBuffer.BOLD);
+		buffer.insertLine(HEIGHT - 1, 1, VDUBuffer.SCROLL_UP);
+	}
+
+	private void clearUpdates() {
+		for (int i = 0; i < buffer.update.length; i++)
+			buffer.update[i] = false;
+		buffer.scrollAmount = 0;
+	}
+
+	private char lineChar(int line) {
+		return buffer.getCharArray()[buffer.getLineOffset(line)];
+	}
+
+	private static class NullDisplay implements VDUDisplay {
+		private VDUBuffer buffer;
+
+		public void redraw() {
+		}
+
+		public void updateScrollBar() {
+		}
+
+		public void setVDUBuffer(VDUBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public VDUBuffer getVDUBuffer() {
+			return buffer;
+		}
+
+		public void setColor(int index, int red, int green, int blue) {
+		}
+
+		public void resetColors() {
+		}
+	}
+}